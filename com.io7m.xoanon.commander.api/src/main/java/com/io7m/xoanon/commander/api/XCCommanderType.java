@@ -64,6 +64,10 @@ public interface XCCommanderType extends AutoCloseable
   void sendToBack();
 
   /**
+   * Obtain a robot for automated tests. The robot is available immediately;
+   * it waits for the keymap (see {@link #keyMap()}) only the first time
+   * that it is asked to type text.
+   *
    * @return A robot for automated tests
    */
 
@@ -21,13 +21,21 @@ import javafx.application.Platform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Functions to execute code on the JavaFX application thread.
+ * <p>Functions to execute code on the JavaFX application thread.</p>
+ *
+ * <p>Tasks submitted to a given priority lane are executed in submission
+ * order. No ordering is guaranteed with respect to tasks submitted directly
+ * with {@link Platform#runLater(Runnable)}, so code that relies on ordering
+ * should submit all of its tasks via this class; {@link #runLater(Runnable)}
+ * is a drop-in replacement.</p>
  */
 
 public final class XCFXThread
@@ -35,24 +43,59 @@ public final class XCFXThread
   private static final Logger LOG =
     LoggerFactory.getLogger(XCFXThread.class);
 
+  private static final LongAdder TASKS_SKIPPED =
+    new LongAdder();
+
   private XCFXThread()
   {
 
   }
 
   /**
-   * Execute the given function on the JavaFX thread. If this is already the
-   * JavaFX thread, execute the function directly.
+   * Execute the given function on the JavaFX thread in the
+   * {@link XCFXThreadPriority#HIGH} lane. If this is already the JavaFX
+   * thread, execute the function directly. The returned future acts
+   * as a cancellable handle: If the future is cancelled (or otherwise
+   * completed) before the JavaFX thread begins executing the function, the
+   * function is dropped without being executed.
+   *
+   * @param supplier The function
+   * @param <T>      The type of returned values
+   *
+   * @return The operation in progress
+   *
+   * @see #skippedTaskCount()
+   */
+
+  public static <T> CompletableFuture<T> run(
+    final XCFXThreadOperationType<T> supplier)
+  {
+    return run(XCFXThreadPriority.HIGH, supplier);
+  }
+
+  /**
+   * Execute the given function on the JavaFX thread in the given priority
+   * lane. If this is already the JavaFX thread, execute the function
+   * directly. The returned future acts as a cancellable handle: If the future
+   * is cancelled (or otherwise completed) before the JavaFX thread begins
+   * executing the function, the function is dropped without being executed.
    *
+   * @param priority The priority lane
    * @param supplier The function
    * @param <T>      The type of returned values
    *
    * @return The operation in progress
+   *
+   * @see #skippedTaskCount()
    */
 
   public static <T> CompletableFuture<T> run(
+    final XCFXThreadPriority priority,
     final XCFXThreadOperationType<T> supplier)
   {
+    Objects.requireNonNull(priority, "priority");
+    Objects.requireNonNull(supplier, "supplier");
+
     final var future = new CompletableFuture<T>();
 
     if (Platform.isFxApplicationThread()) {
@@ -66,7 +109,11 @@ public final class XCFXThread
     }
 
     try {
-      Platform.runLater(() -> {
+      XCFXThreadDispatcher.submit(priority, () -> {
+        if (future.isDone()) {
+          TASKS_SKIPPED.increment();
+          return;
+        }
         try {
           future.complete(supplier.execute());
         } catch (final Throwable e) {
@@ -82,7 +129,9 @@ public final class XCFXThread
   }
 
   /**
-   * Run the given code on the FX thread and wait for it to complete.
+   * Run the given code on the FX thread and wait for it to complete. If the
+   * wait times out or is interrupted, the operation is cancelled and will
+   * not be executed if the JavaFX thread has not yet started executing it.
    *
    * @param time     The timeout
    * @param unit     The timeout unit
@@ -102,7 +151,7 @@ public final class XCFXThread
     final XCFXThreadOperationType<T> supplier)
     throws ExecutionException, InterruptedException, TimeoutException
   {
-    return run(supplier).get(time, unit);
+    return awaitOrCancel(run(supplier), time, unit);
   }
 
   /**
@@ -117,7 +166,24 @@ public final class XCFXThread
   public static CompletableFuture<Void> runV(
     final Runnable supplier)
   {
-    return run(() -> {
+    return runV(XCFXThreadPriority.HIGH, supplier);
+  }
+
+  /**
+   * Execute the given runnable on the JavaFX thread in the given priority
+   * lane. If this is already the JavaFX thread, execute the runnable directly.
+   *
+   * @param priority The priority lane
+   * @param supplier The function
+   *
+   * @return The operation in progress
+   */
+
+  public static CompletableFuture<Void> runV(
+    final XCFXThreadPriority priority,
+    final Runnable supplier)
+  {
+    return run(priority, () -> {
       supplier.run();
       return null;
     });
@@ -125,7 +191,9 @@ public final class XCFXThread
 
   /**
    * Execute the given runnable on the JavaFX thread. If this is already the
-   * JavaFX thread, execute the runnable directly.
+   * JavaFX thread, execute the runnable directly. If the wait times out or is
+   * interrupted, the operation is cancelled and will not be executed if the
+   * JavaFX thread has not yet started executing it.
    *
    * @param time     The timeout
    * @param unit     The timeout unit
@@ -142,6 +210,61 @@ public final class XCFXThread
     final Runnable supplier)
     throws ExecutionException, InterruptedException, TimeoutException
   {
-    runV(supplier).get(time, unit);
+    awaitOrCancel(runV(supplier), time, unit);
+  }
+
+  private static <T> T awaitOrCancel(
+    final CompletableFuture<T> future,
+    final long time,
+    final TimeUnit unit)
+    throws ExecutionException, InterruptedException, TimeoutException
+  {
+    try {
+      return future.get(time, unit);
+    } catch (final TimeoutException | InterruptedException e) {
+      future.cancel(false);
+      throw e;
+    }
+  }
+
+  /**
+   * Enqueue the given runnable for execution on the JavaFX thread in the
+   * {@link XCFXThreadPriority#HIGH} lane. Unlike the other functions in this
+   * class, the runnable is enqueued even if this is already the JavaFX
+   * thread. Exceptions raised by the runnable are logged.
+   *
+   * @param task The runnable
+   *
+   * @see Platform#runLater(Runnable)
+   */
+
+  @XCOnAnyThread
+  public static void runLater(
+    final Runnable task)
+  {
+    XCFXThreadDispatcher.submit(XCFXThreadPriority.HIGH, task);
+  }
+
+  /**
+   * @return The number of operations submitted to the JavaFX thread that were
+   * dropped without being executed because they had been cancelled
+   */
+
+  public static long skippedTaskCount()
+  {
+    return TASKS_SKIPPED.sum();
+  }
+
+  /**
+   * Create a new batch of operations. Operations added to the batch are
+   * executed on the JavaFX thread within a single submission when the batch
+   * is submitted.
+   *
+   * @return A new empty batch
+   */
+
+  public static XCFXThreadBatch batch()
+  {
+    return new XCFXThreadBatch();
   }
 }
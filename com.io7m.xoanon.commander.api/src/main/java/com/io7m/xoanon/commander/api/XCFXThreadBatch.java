@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>A batch of operations to be executed on the JavaFX application thread.</p>
+ *
+ * <p>All operations added to the batch are executed in order within a single
+ * submission to the JavaFX thread, and a single future is returned for the
+ * lot. If an operation raises an exception, the remaining operations are
+ * still executed, and the future completes exceptionally with the first
+ * exception raised (with any subsequent exceptions attached as suppressed
+ * exceptions).</p>
+ *
+ * <p>Batches are not thread-safe and are expected to be built by a single
+ * thread.</p>
+ *
+ * @see XCFXThread#batch()
+ */
+
+public final class XCFXThreadBatch
+{
+  private final ArrayList<Runnable> operations;
+
+  XCFXThreadBatch()
+  {
+    this.operations = new ArrayList<>();
+  }
+
+  /**
+   * Add an operation to the batch.
+   *
+   * @param operation The operation
+   *
+   * @return this
+   */
+
+  public XCFXThreadBatch add(
+    final Runnable operation)
+  {
+    this.operations.add(
+      Objects.requireNonNull(operation, "operation"));
+    return this;
+  }
+
+  /**
+   * @return The number of operations in the batch
+   */
+
+  public int size()
+  {
+    return this.operations.size();
+  }
+
+  /**
+   * @return {@code true} if the batch contains no operations
+   */
+
+  public boolean isEmpty()
+  {
+    return this.operations.isEmpty();
+  }
+
+  /**
+   * Remove all operations from the batch.
+   */
+
+  public void clear()
+  {
+    this.operations.clear();
+  }
+
+  /**
+   * Submit all operations in the batch for execution on the JavaFX thread
+   * in the {@link XCFXThreadPriority#HIGH} lane.
+   * If this is already the JavaFX thread, execute the operations directly.
+   * The batch may be reused after submission; operations added afterwards
+   * are not part of the submitted work.
+   *
+   * @return The operation in progress
+   */
+
+  public CompletableFuture<Void> submit()
+  {
+    return this.submit(XCFXThreadPriority.HIGH);
+  }
+
+  /**
+   * Submit all operations in the batch for execution on the JavaFX thread
+   * in the given priority lane.
+   * If this is already the JavaFX thread, execute the operations directly.
+   * The batch may be reused after submission; operations added afterwards
+   * are not part of the submitted work.
+   *
+   * @param priority The priority lane
+   *
+   * @return The operation in progress
+   */
+
+  public CompletableFuture<Void> submit(
+    final XCFXThreadPriority priority)
+  {
+    Objects.requireNonNull(priority, "priority");
+
+    final List<Runnable> submitted = List.copyOf(this.operations);
+    if (submitted.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    final var future = XCFXThread.runV(priority, () -> {
+      RuntimeException failure = null;
+      for (final var operation : submitted) {
+        try {
+          operation.run();
+        } catch (final RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    });
+    return future;
+  }
+}
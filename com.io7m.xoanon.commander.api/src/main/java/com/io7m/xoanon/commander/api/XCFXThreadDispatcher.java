@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xoanon.commander.api;
+
+import javafx.application.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>A dispatcher that multiplexes prioritized work onto the JavaFX thread.</p>
+ *
+ * <p>Submitted tasks are placed into per-priority queues, and at most one
+ * drain task is queued on the JavaFX thread at any given time. When the
+ * drain task runs, every high priority task is executed, followed by a
+ * bounded number of low priority tasks (with any newly arrived high priority
+ * tasks executed before each low priority task). If work remains, another
+ * drain is scheduled so that the JavaFX thread can process input and render
+ * pulses in between.</p>
+ */
+
+final class XCFXThreadDispatcher
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XCFXThreadDispatcher.class);
+
+  private static final int LOW_PRIORITY_TASKS_PER_DRAIN = 16;
+
+  private static final Queue<Runnable> QUEUE_HIGH =
+    new ConcurrentLinkedQueue<>();
+  private static final Queue<Runnable> QUEUE_LOW =
+    new ConcurrentLinkedQueue<>();
+  private static final AtomicBoolean DRAIN_SCHEDULED =
+    new AtomicBoolean(false);
+
+  private XCFXThreadDispatcher()
+  {
+
+  }
+
+  /**
+   * Submit a task to the given lane.
+   *
+   * @param priority The priority lane
+   * @param task     The task
+   */
+
+  @XCOnAnyThread
+  static void submit(
+    final XCFXThreadPriority priority,
+    final Runnable task)
+  {
+    Objects.requireNonNull(priority, "priority");
+    Objects.requireNonNull(task, "task");
+
+    switch (priority) {
+      case HIGH -> QUEUE_HIGH.add(task);
+      case LOW -> QUEUE_LOW.add(task);
+    }
+    schedule();
+  }
+
+  private static void schedule()
+  {
+    if (DRAIN_SCHEDULED.compareAndSet(false, true)) {
+      try {
+        Platform.runLater(XCFXThreadDispatcher::drain);
+        Platform.requestNextPulse();
+      } catch (final RuntimeException e) {
+        DRAIN_SCHEDULED.set(false);
+        throw e;
+      }
+    }
+  }
+
+  @XCOnFXThread
+  private static void drain()
+  {
+    DRAIN_SCHEDULED.set(false);
+
+    drainHigh();
+    for (int index = 0; index < LOW_PRIORITY_TASKS_PER_DRAIN; ++index) {
+      final var task = QUEUE_LOW.poll();
+      if (task == null) {
+        break;
+      }
+      execute(task);
+      drainHigh();
+    }
+
+    if (!QUEUE_HIGH.isEmpty() || !QUEUE_LOW.isEmpty()) {
+      schedule();
+    }
+  }
+
+  @XCOnFXThread
+  private static void drainHigh()
+  {
+    while (true) {
+      final var task = QUEUE_HIGH.poll();
+      if (task == null) {
+        return;
+      }
+      execute(task);
+    }
+  }
+
+  @XCOnFXThread
+  private static void execute(
+    final Runnable task)
+  {
+    try {
+      task.run();
+    } catch (final Throwable e) {
+      LOG.error("uncaught exception in dispatched task: ", e);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xoanon.commander.api;
+
+/**
+ * The priority lanes used to dispatch work to the JavaFX application thread.
+ * Each time the dispatcher drains its queues on the JavaFX thread, all work
+ * in the {@link #HIGH} lane is executed before any work in the {@link #LOW}
+ * lane.
+ *
+ * @see XCFXThread#run(XCFXThreadPriority, XCFXThreadOperationType)
+ */
+
+public enum XCFXThreadPriority
+{
+  /**
+   * The lane used for robot operations and other work submitted by tests.
+   */
+
+  HIGH,
+
+  /**
+   * The lane used for non-essential work such as updates to the commander's
+   * user interface.
+   */
+
+  LOW
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.api;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * <p>A reusable buffer of keys produced by
+ * {@link XCKeyMapCompiled#translate(CharSequence, XCKeyBuffer)}.</p>
+ *
+ * <p>Keys are stored as indices into the palette of the compiled keymap
+ * that produced them, and the underlying storage only grows, so translating
+ * text into a buffer that has already been used for text of a similar
+ * length does not allocate. Buffers are not thread-safe.</p>
+ */
+
+public final class XCKeyBuffer
+{
+  private static final XCKey[] NO_KEYS = new XCKey[0];
+
+  private XCKey[] palette;
+  private int[] indices;
+  private int size;
+
+  /**
+   * A reusable buffer of keys.
+   */
+
+  public XCKeyBuffer()
+  {
+    this(64);
+  }
+
+  /**
+   * A reusable buffer of keys.
+   *
+   * @param capacity The initial capacity
+   */
+
+  public XCKeyBuffer(
+    final int capacity)
+  {
+    this.palette = NO_KEYS;
+    this.indices = new int[Math.max(1, capacity)];
+    this.size = 0;
+  }
+
+  /**
+   * @return The number of keys in the buffer
+   */
+
+  public int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * @return {@code true} if the buffer contains no keys
+   */
+
+  public boolean isEmpty()
+  {
+    return this.size == 0;
+  }
+
+  /**
+   * Retrieve the key at the given index.
+   *
+   * @param index The index
+   *
+   * @return The key at the given index
+   *
+   * @throws IndexOutOfBoundsException If the index is out of range
+   */
+
+  public XCKey get(
+    final int index)
+  {
+    Objects.checkIndex(index, this.size);
+    return this.palette[this.indices[index]];
+  }
+
+  /**
+   * Remove all keys from the buffer.
+   */
+
+  public void clear()
+  {
+    this.size = 0;
+  }
+
+  void reset(
+    final XCKey[] newPalette)
+  {
+    this.palette = newPalette;
+    this.size = 0;
+  }
+
+  void append(
+    final int paletteIndex)
+  {
+    if (this.size == this.indices.length) {
+      this.indices = Arrays.copyOf(this.indices, this.indices.length << 1);
+    }
+    this.indices[this.size] = paletteIndex;
+    ++this.size;
+  }
+}
@@ -22,10 +22,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 /**
- * A map of characters to keys.
+ * <p>A map of characters to keys.</p>
+ *
+ * <p>This is the serialized and public view of a keymap. Code that
+ * translates large amounts of text should use a compiled keymap produced
+ * by {@link #compile()}.</p>
  *
  * @param keys The mapping
  */
@@ -57,16 +60,28 @@ public record XCKeyMap(
     final var codes =
       new ArrayList<XCKey>(characters.size());
 
+    final var map = this.keys();
     for (final var character : characters) {
-      codes.add(
-        Optional.ofNullable(this.keys().get(character))
-          .orElseThrow(() -> {
-            return new IllegalArgumentException(
-              "No key mapping is known for character '%s'"
-                .formatted(character));
-          })
-      );
+      final var key = map.get(character);
+      if (key == null) {
+        throw new IllegalArgumentException(
+          "No key mapping is known for character '%s'"
+            .formatted(character));
+      }
+      codes.add(key);
     }
     return List.copyOf(codes);
   }
+
+  /**
+   * Compile this keymap into a form that can translate text without
+   * allocating per character.
+   *
+   * @return A compiled keymap
+   */
+
+  public XCKeyMapCompiled compile()
+  {
+    return XCKeyMapCompiled.compile(this);
+  }
 }
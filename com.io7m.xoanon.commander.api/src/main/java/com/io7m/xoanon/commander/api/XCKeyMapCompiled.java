@@ -0,0 +1,255 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * <p>A compiled form of an {@link XCKeyMap} suitable for translating text
+ * to keys without boxing or allocating per character.</p>
+ *
+ * <p>Each distinct key is stored once in a palette. Characters below a
+ * small bound are resolved through a dense table indexed directly by
+ * character; all other code points (the remainder of the Basic Multilingual
+ * Plane, and supplementary code points) are resolved by a binary search
+ * over a sorted table. Compiled keymaps are immutable and thread-safe.</p>
+ *
+ * @see XCKeyMap#compile()
+ */
+
+public final class XCKeyMapCompiled
+{
+  /*
+   * The dense table is never allowed to grow beyond this many entries,
+   * so that a single unusual character cannot inflate the table.
+   */
+
+  private static final int DENSE_LIMIT = 0x800;
+  private static final int MISSING = -1;
+
+  private final XCKeyMap keyMap;
+  private final XCKey[] palette;
+  private final int[] dense;
+  private final int[] sparseCodePoints;
+  private final int[] sparseIndices;
+
+  private XCKeyMapCompiled(
+    final XCKeyMap inKeyMap,
+    final XCKey[] inPalette,
+    final int[] inDense,
+    final int[] inSparseCodePoints,
+    final int[] inSparseIndices)
+  {
+    this.keyMap = inKeyMap;
+    this.palette = inPalette;
+    this.dense = inDense;
+    this.sparseCodePoints = inSparseCodePoints;
+    this.sparseIndices = inSparseIndices;
+  }
+
+  /**
+   * Compile the given keymap.
+   *
+   * @param keyMap The keymap
+   *
+   * @return A compiled keymap
+   */
+
+  public static XCKeyMapCompiled compile(
+    final XCKeyMap keyMap)
+  {
+    Objects.requireNonNull(keyMap, "keyMap");
+
+    final var keys = keyMap.keys();
+    final var paletteIndices = new HashMap<XCKey, Integer>(keys.size());
+    final var palette = new ArrayList<XCKey>(keys.size());
+
+    var denseSize = 0;
+    var sparseSize = 0;
+    for (final var entry : keys.entrySet()) {
+      final var key = entry.getValue();
+      if (!paletteIndices.containsKey(key)) {
+        paletteIndices.put(key, Integer.valueOf(palette.size()));
+        palette.add(key);
+      }
+
+      final var ch = (int) entry.getKey().charValue();
+      if (ch < DENSE_LIMIT) {
+        denseSize = Math.max(denseSize, ch + 1);
+      } else {
+        ++sparseSize;
+      }
+    }
+
+    final var dense = new int[denseSize];
+    Arrays.fill(dense, MISSING);
+
+    final var sparseCodePoints = new int[sparseSize];
+    var sparseIndex = 0;
+    for (final var entry : keys.entrySet()) {
+      final var ch = (int) entry.getKey().charValue();
+      final var index = paletteIndices.get(entry.getValue()).intValue();
+      if (ch < DENSE_LIMIT) {
+        dense[ch] = index;
+      } else {
+        sparseCodePoints[sparseIndex] = ch;
+        ++sparseIndex;
+      }
+    }
+
+    Arrays.sort(sparseCodePoints);
+    final var sparseIndices = new int[sparseSize];
+    for (int index = 0; index < sparseSize; ++index) {
+      final var key =
+        keys.get(Character.valueOf((char) sparseCodePoints[index]));
+      sparseIndices[index] = paletteIndices.get(key).intValue();
+    }
+
+    return new XCKeyMapCompiled(
+      keyMap,
+      palette.toArray(new XCKey[0]),
+      dense,
+      sparseCodePoints,
+      sparseIndices
+    );
+  }
+
+  /**
+   * @return The keymap from which this compiled keymap was produced
+   */
+
+  public XCKeyMap keyMap()
+  {
+    return this.keyMap;
+  }
+
+  /**
+   * @param codePoint The code point
+   *
+   * @return {@code true} if a key is known for the given code point
+   */
+
+  public boolean contains(
+    final int codePoint)
+  {
+    return this.paletteIndexOf(codePoint) != MISSING;
+  }
+
+  /**
+   * Find the key for the given code point.
+   *
+   * @param codePoint The code point
+   *
+   * @return The key
+   *
+   * @throws IllegalArgumentException If no key is known for the code point
+   */
+
+  public XCKey key(
+    final int codePoint)
+    throws IllegalArgumentException
+  {
+    final var index = this.paletteIndexOf(codePoint);
+    if (index == MISSING) {
+      throw noMapping(codePoint);
+    }
+    return this.palette[index];
+  }
+
+  /**
+   * Translate the given text to keys, replacing the contents of the given
+   * buffer.
+   *
+   * @param text   The text
+   * @param output The output buffer
+   *
+   * @return The number of keys written to the buffer
+   *
+   * @throws IllegalArgumentException If no key is known for a character in
+   *                                  the text; the buffer contents are then
+   *                                  unspecified
+   */
+
+  public int translate(
+    final CharSequence text,
+    final XCKeyBuffer output)
+    throws IllegalArgumentException
+  {
+    Objects.requireNonNull(text, "text");
+    Objects.requireNonNull(output, "output");
+
+    output.reset(this.palette);
+
+    final var length = text.length();
+    var offset = 0;
+    while (offset < length) {
+      final var codePoint = Character.codePointAt(text, offset);
+      final var index = this.paletteIndexOf(codePoint);
+      if (index == MISSING) {
+        throw noMapping(codePoint);
+      }
+      output.append(index);
+      offset += Character.charCount(codePoint);
+    }
+    return output.size();
+  }
+
+  private int paletteIndexOf(
+    final int codePoint)
+  {
+    if (codePoint >= 0 && codePoint < this.dense.length) {
+      return this.dense[codePoint];
+    }
+
+    final var found = Arrays.binarySearch(this.sparseCodePoints, codePoint);
+    if (found >= 0) {
+      return this.sparseIndices[found];
+    }
+    return MISSING;
+  }
+
+  private static IllegalArgumentException noMapping(
+    final int codePoint)
+  {
+    return new IllegalArgumentException(
+      "No key mapping is known for character '%s'"
+        .formatted(Character.toString(codePoint))
+    );
+  }
+
+  /**
+   * @return The number of characters mapped by this keymap
+   */
+
+  public int size()
+  {
+    return this.keyMap.keys().size();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[XCKeyMapCompiled %d keys, %d distinct]".formatted(
+      Integer.valueOf(this.keyMap.keys().size()),
+      Integer.valueOf(this.palette.length)
+    );
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.api;
+
+import javafx.scene.Node;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>A batch of named node queries that are resolved together.</p>
+ *
+ * <p>A batch lookup resolves every query in a single traversal of the scene
+ * graph, in a single task on the JavaFX thread, and reports all of the
+ * entries that could not be resolved together in the resulting
+ * {@link XCNodeLookupResult}. Each entry resolves to the first node (in
+ * document order) that matches its query. Lookups are immutable and may be
+ * reused across calls.</p>
+ *
+ * @see XCNodeQuery
+ */
+
+public final class XCNodeLookup
+{
+  private final List<Key<?>> keys;
+
+  private XCNodeLookup(
+    final List<Key<?>> inKeys)
+  {
+    this.keys = List.copyOf(inKeys);
+  }
+
+  /**
+   * @return A new lookup builder
+   */
+
+  public static Builder builder()
+  {
+    return new Builder();
+  }
+
+  /**
+   * @return The entries of the lookup, in declaration order
+   */
+
+  public List<Key<?>> keys()
+  {
+    return this.keys;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[XCNodeLookup %s]".formatted(this.keys);
+  }
+
+  /**
+   * A typed key identifying one entry of a lookup.
+   *
+   * @param name  The unique name of the entry
+   * @param query The query used to resolve the entry
+   * @param <T>   The type of node
+   */
+
+  public record Key<T extends Node>(
+    String name,
+    XCNodeQuery<T> query)
+  {
+    /**
+     * A typed key identifying one entry of a lookup.
+     */
+
+    public Key
+    {
+      Objects.requireNonNull(name, "name");
+      Objects.requireNonNull(query, "query");
+    }
+  }
+
+  /**
+   * A mutable builder of lookups.
+   */
+
+  public static final class Builder
+  {
+    private final ArrayList<Key<?>> keys;
+    private final HashSet<String> names;
+
+    private Builder()
+    {
+      this.keys = new ArrayList<>();
+      this.names = new HashSet<>();
+    }
+
+    /**
+     * Add an entry resolved by the given query.
+     *
+     * @param name  The unique name of the entry
+     * @param query The query
+     * @param <T>   The type of node
+     *
+     * @return The key used to retrieve the entry from the result
+     *
+     * @throws IllegalArgumentException If the name is already used
+     */
+
+    public <T extends Node> Key<T> add(
+      final String name,
+      final XCNodeQuery<T> query)
+      throws IllegalArgumentException
+    {
+      final var key = new Key<>(name, query);
+      if (!this.names.add(name)) {
+        throw new IllegalArgumentException(
+          "Lookup entry '%s' is already defined".formatted(name)
+        );
+      }
+      this.keys.add(key);
+      return key;
+    }
+
+    /**
+     * Add an entry resolved by node ID. The ID is used as the entry name.
+     *
+     * @param clazz The type of node
+     * @param id    The ID
+     * @param <T>   The type of node
+     *
+     * @return The key used to retrieve the entry from the result
+     *
+     * @throws IllegalArgumentException If the name is already used
+     */
+
+    public <T extends Node> Key<T> addWithId(
+      final Class<T> clazz,
+      final String id)
+      throws IllegalArgumentException
+    {
+      return this.add(id, XCNodeQuery.builder(clazz).withId(id).build());
+    }
+
+    /**
+     * Add an entry resolved by exact node text. The text is used as the
+     * entry name.
+     *
+     * @param clazz The type of node
+     * @param text  The text
+     * @param <T>   The type of node
+     *
+     * @return The key used to retrieve the entry from the result
+     *
+     * @throws IllegalArgumentException If the name is already used
+     */
+
+    public <T extends Node> Key<T> addWithText(
+      final Class<T> clazz,
+      final String text)
+      throws IllegalArgumentException
+    {
+      return this.add(text, XCNodeQuery.builder(clazz).withText(text).build());
+    }
+
+    /**
+     * @return An immutable lookup
+     */
+
+    public XCNodeLookup build()
+    {
+      return new XCNodeLookup(this.keys);
+    }
+  }
+}
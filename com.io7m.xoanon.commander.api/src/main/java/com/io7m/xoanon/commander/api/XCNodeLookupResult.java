@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.api;
+
+import javafx.scene.Node;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * The result of resolving an {@link XCNodeLookup}.
+ */
+
+public final class XCNodeLookupResult
+{
+  private final XCNodeLookup lookup;
+  private final Map<String, Node> nodes;
+
+  /**
+   * The result of resolving an {@link XCNodeLookup}.
+   *
+   * @param inLookup The lookup
+   * @param inNodes  The resolved nodes, by entry name
+   */
+
+  public XCNodeLookupResult(
+    final XCNodeLookup inLookup,
+    final Map<String, Node> inNodes)
+  {
+    this.lookup = Objects.requireNonNull(inLookup, "lookup");
+    this.nodes = Map.copyOf(inNodes);
+  }
+
+  /**
+   * @return The lookup that produced this result
+   */
+
+  public XCNodeLookup lookup()
+  {
+    return this.lookup;
+  }
+
+  /**
+   * Find the node resolved for the given entry.
+   *
+   * @param key The entry key
+   * @param <T> The type of node
+   *
+   * @return The node, if the entry was resolved
+   */
+
+  public <T extends Node> Optional<T> find(
+    final XCNodeLookup.Key<T> key)
+  {
+    Objects.requireNonNull(key, "key");
+    return Optional.ofNullable(this.nodes.get(key.name()))
+      .map(key.query().type()::cast);
+  }
+
+  /**
+   * Get the node resolved for the given entry.
+   *
+   * @param key The entry key
+   * @param <T> The type of node
+   *
+   * @return The node
+   *
+   * @throws NoSuchElementException If the entry was not resolved
+   */
+
+  public <T extends Node> T get(
+    final XCNodeLookup.Key<T> key)
+    throws NoSuchElementException
+  {
+    return this.find(key).orElseThrow(() -> {
+      return new NoSuchElementException(
+        "No element matches entry '%s' (%s)"
+          .formatted(key.name(), key.query())
+      );
+    });
+  }
+
+  /**
+   * @return The names of the entries that were not resolved, in
+   * declaration order
+   */
+
+  public List<String> missing()
+  {
+    return this.lookup.keys()
+      .stream()
+      .map(XCNodeLookup.Key::name)
+      .filter(name -> !this.nodes.containsKey(name))
+      .toList();
+  }
+
+  /**
+   * @return {@code true} if every entry was resolved
+   */
+
+  public boolean isComplete()
+  {
+    return this.nodes.size() == this.lookup.keys().size();
+  }
+
+  /**
+   * Require that every entry was resolved.
+   *
+   * @return this
+   *
+   * @throws NoSuchElementException Naming every unresolved entry, if any
+   */
+
+  public XCNodeLookupResult requireAll()
+    throws NoSuchElementException
+  {
+    if (this.isComplete()) {
+      return this;
+    }
+
+    throw new NoSuchElementException(
+      this.lookup.keys()
+        .stream()
+        .filter(k -> !this.nodes.containsKey(k.name()))
+        .map(k -> "  %s: %s".formatted(k.name(), k.query()))
+        .collect(Collectors.joining(
+          System.lineSeparator(),
+          "No elements match the following entries:" + System.lineSeparator(),
+          ""
+        ))
+    );
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[XCNodeLookupResult %s missing %s]"
+      .formatted(this.nodes.keySet(), this.missing());
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.api;
+
+import javafx.css.PseudoClass;
+import javafx.scene.Node;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the searchable properties of a node. Snapshots
+ * are captured on the JavaFX thread, and may then be examined on any
+ * thread. The node itself is carried only so that it can be returned as a
+ * search result; it must not be examined off the JavaFX thread. Snapshots
+ * captured for a particular query may leave the properties that the query
+ * does not examine empty.
+ *
+ * @param node          The node
+ * @param id            The node ID, or {@code null} if there is none
+ * @param styleClasses  The style classes
+ * @param pseudoClasses The active pseudo-classes
+ * @param text          The node text, or {@code null} if there is none
+ *
+ * @see XCNodeQuery#textOf(Node)
+ */
+
+public record XCNodeProperties(
+  Node node,
+  String id,
+  List<String> styleClasses,
+  Set<PseudoClass> pseudoClasses,
+  String text)
+{
+  /**
+   * An immutable snapshot of the searchable properties of a node.
+   *
+   * @param node          The node
+   * @param id            The node ID, or {@code null} if there is none
+   * @param styleClasses  The style classes
+   * @param pseudoClasses The active pseudo-classes
+   * @param text          The node text, or {@code null} if there is none
+   */
+
+  public XCNodeProperties
+  {
+    Objects.requireNonNull(node, "node");
+    styleClasses = List.copyOf(styleClasses);
+    pseudoClasses = Set.copyOf(pseudoClasses);
+  }
+
+  /**
+   * Capture the properties of the given node.
+   *
+   * @param node The node
+   *
+   * @return The node properties
+   */
+
+  @XCOnFXThread
+  public static XCNodeProperties capture(
+    final Node node)
+  {
+    return new XCNodeProperties(
+      node,
+      node.getId(),
+      node.getStyleClass(),
+      node.getPseudoClassStates(),
+      XCNodeQuery.textOf(node)
+    );
+  }
+}
@@ -0,0 +1,712 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.api;
+
+import javafx.css.PseudoClass;
+import javafx.scene.Node;
+import javafx.scene.control.Labeled;
+import javafx.scene.control.TextInputControl;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A compiled query that matches nodes by type and by any combination of
+ * id, style class, text, pseudo-class, and arbitrary predicates.</p>
+ *
+ * <p>Queries are immutable and may be reused freely across calls and
+ * threads; any parsing (such as compiling regular expressions) happens
+ * once, when the query is built. When a query is evaluated, the node type
+ * is checked first, and the remaining criteria are checked in order of
+ * increasing cost, so that cheap criteria eliminate most nodes before
+ * expensive criteria are evaluated.</p>
+ *
+ * <p>The text of a node is the text of a {@link Labeled},
+ * {@link TextInputControl}, or {@link Text} node. Other nodes have no text,
+ * and never match text criteria.</p>
+ *
+ * @param <T> The type of matched nodes
+ */
+
+public final class XCNodeQuery<T extends Node>
+{
+  private final Class<T> type;
+  private final List<CriterionType> criteria;
+
+  private XCNodeQuery(
+    final Class<T> inType,
+    final List<CriterionType> inCriteria)
+  {
+    this.type =
+      Objects.requireNonNull(inType, "type");
+    this.criteria =
+      inCriteria.stream()
+        .sorted(Comparator.comparingInt(CriterionType::cost))
+        .toList();
+  }
+
+  /**
+   * Start building a query that matches nodes of type {@code type} (or some
+   * subtype of it).
+   *
+   * @param type The node type
+   * @param <T>  The node type
+   *
+   * @return A query builder
+   */
+
+  public static <T extends Node> Builder<T> builder(
+    final Class<T> type)
+  {
+    return new Builder<>(type);
+  }
+
+  /**
+   * @return The type of matched nodes
+   */
+
+  public Class<T> type()
+  {
+    return this.type;
+  }
+
+  /**
+   * @return The criteria, in evaluation order
+   */
+
+  public List<CriterionType> criteria()
+  {
+    return this.criteria;
+  }
+
+  /**
+   * @return The id required by this query, if any
+   */
+
+  public Optional<String> requiredId()
+  {
+    return this.criteria.stream()
+      .filter(c -> c instanceof WithId)
+      .map(c -> ((WithId) c).id())
+      .findFirst();
+  }
+
+  /**
+   * @return A style class required by this query, if any
+   */
+
+  public Optional<String> requiredStyleClass()
+  {
+    return this.criteria.stream()
+      .filter(c -> c instanceof WithStyleClass)
+      .map(c -> ((WithStyleClass) c).styleClass())
+      .findFirst();
+  }
+
+  /**
+   * Determine if the given node matches this query. This must be called on
+   * the JavaFX thread.
+   *
+   * @param node The node
+   *
+   * @return {@code true} if the node matches
+   */
+
+  @XCOnFXThread
+  public boolean matches(
+    final Node node)
+  {
+    if (!this.type.isInstance(node)) {
+      return false;
+    }
+    for (final var criterion : this.criteria) {
+      if (!criterion.test(node)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return {@code true} if any criterion can only be evaluated against live
+   * nodes on the JavaFX thread (such as arbitrary predicates)
+   */
+
+  public boolean requiresFXThread()
+  {
+    return this.criteria.stream().anyMatch(CriterionType::requiresFXThread);
+  }
+
+  /**
+   * Determine if the given node properties match this query. This may be
+   * called on any thread. Criteria that {@link #requiresFXThread()} are not
+   * evaluated, and so a {@code true} result for a query that requires the
+   * JavaFX thread indicates only that the node is a candidate that must be
+   * checked with {@link #matches(Node)}.
+   *
+   * @param properties The node properties
+   *
+   * @return {@code true} if the node properties match
+   */
+
+  @XCOnAnyThread
+  public boolean matchesProperties(
+    final XCNodeProperties properties)
+  {
+    if (!this.type.isInstance(properties.node())) {
+      return false;
+    }
+    for (final var criterion : this.criteria) {
+      if (!criterion.testProperties(properties)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[XCNodeQuery %s %s]".formatted(
+      this.type.getSimpleName(),
+      this.criteria
+    );
+  }
+
+  /**
+   * Determine the text of a node.
+   *
+   * @param node The node
+   *
+   * @return The text of the node, or {@code null} if the node has no text
+   */
+
+  @XCOnFXThread
+  public static String textOf(
+    final Node node)
+  {
+    if (node instanceof final Labeled labeled) {
+      return labeled.getText();
+    }
+    if (node instanceof final TextInputControl input) {
+      return input.getText();
+    }
+    if (node instanceof final Text text) {
+      return text.getText();
+    }
+    return null;
+  }
+
+  /**
+   * A single criterion of a query.
+   */
+
+  public sealed interface CriterionType
+  {
+    /**
+     * @return The relative cost of evaluating the criterion
+     */
+
+    int cost();
+
+    /**
+     * @param node The node
+     *
+     * @return {@code true} if the node satisfies the criterion
+     */
+
+    @XCOnFXThread
+    boolean test(Node node);
+
+    /**
+     * Evaluate the criterion against a snapshot of node properties. Criteria
+     * that {@link #requiresFXThread()} cannot be evaluated against
+     * snapshots, and always return {@code true} here.
+     *
+     * @param properties The node properties
+     *
+     * @return {@code true} if the node satisfies the criterion
+     */
+
+    @XCOnAnyThread
+    boolean testProperties(XCNodeProperties properties);
+
+    /**
+     * @return {@code true} if the criterion can only be evaluated against
+     * live nodes on the JavaFX thread
+     */
+
+    default boolean requiresFXThread()
+    {
+      return false;
+    }
+  }
+
+  /**
+   * The node must have the given id.
+   *
+   * @param id The id
+   */
+
+  public record WithId(String id)
+    implements CriterionType
+  {
+    /**
+     * The node must have the given id.
+     */
+
+    public WithId
+    {
+      Objects.requireNonNull(id, "id");
+    }
+
+    @Override
+    public int cost()
+    {
+      return 0;
+    }
+
+    @Override
+    public boolean test(
+      final Node node)
+    {
+      return this.id.equals(node.getId());
+    }
+
+    @Override
+    public boolean testProperties(
+      final XCNodeProperties properties)
+    {
+      return this.id.equals(properties.id());
+    }
+  }
+
+  /**
+   * The node must have the given style class.
+   *
+   * @param styleClass The style class
+   */
+
+  public record WithStyleClass(String styleClass)
+    implements CriterionType
+  {
+    /**
+     * The node must have the given style class.
+     */
+
+    public WithStyleClass
+    {
+      Objects.requireNonNull(styleClass, "styleClass");
+    }
+
+    @Override
+    public int cost()
+    {
+      return 10;
+    }
+
+    @Override
+    public boolean test(
+      final Node node)
+    {
+      return node.getStyleClass().contains(this.styleClass);
+    }
+
+    @Override
+    public boolean testProperties(
+      final XCNodeProperties properties)
+    {
+      return properties.styleClasses().contains(this.styleClass);
+    }
+  }
+
+  /**
+   * The node must have the given pseudo-class active.
+   *
+   * @param pseudoClass The pseudo-class
+   */
+
+  public record WithPseudoClass(PseudoClass pseudoClass)
+    implements CriterionType
+  {
+    /**
+     * The node must have the given pseudo-class active.
+     */
+
+    public WithPseudoClass
+    {
+      Objects.requireNonNull(pseudoClass, "pseudoClass");
+    }
+
+    @Override
+    public int cost()
+    {
+      return 20;
+    }
+
+    @Override
+    public boolean test(
+      final Node node)
+    {
+      return node.getPseudoClassStates().contains(this.pseudoClass);
+    }
+
+    @Override
+    public boolean testProperties(
+      final XCNodeProperties properties)
+    {
+      return properties.pseudoClasses().contains(this.pseudoClass);
+    }
+  }
+
+  /**
+   * The node text must be exactly the given text.
+   *
+   * @param text The text
+   */
+
+  public record WithText(String text)
+    implements CriterionType
+  {
+    /**
+     * The node text must be exactly the given text.
+     */
+
+    public WithText
+    {
+      Objects.requireNonNull(text, "text");
+    }
+
+    @Override
+    public int cost()
+    {
+      return 30;
+    }
+
+    @Override
+    public boolean test(
+      final Node node)
+    {
+      return this.text.equals(textOf(node));
+    }
+
+    @Override
+    public boolean testProperties(
+      final XCNodeProperties properties)
+    {
+      return this.text.equals(properties.text());
+    }
+  }
+
+  /**
+   * The node text must start with the given prefix.
+   *
+   * @param prefix The prefix
+   */
+
+  public record WithTextPrefix(String prefix)
+    implements CriterionType
+  {
+    /**
+     * The node text must start with the given prefix.
+     */
+
+    public WithTextPrefix
+    {
+      Objects.requireNonNull(prefix, "prefix");
+    }
+
+    @Override
+    public int cost()
+    {
+      return 40;
+    }
+
+    @Override
+    public boolean test(
+      final Node node)
+    {
+      final var text = textOf(node);
+      return text != null && text.startsWith(this.prefix);
+    }
+
+    @Override
+    public boolean testProperties(
+      final XCNodeProperties properties)
+    {
+      final var text = properties.text();
+      return text != null && text.startsWith(this.prefix);
+    }
+  }
+
+  /**
+   * The node text must entirely match the given pattern.
+   *
+   * @param pattern The pattern
+   */
+
+  public record WithTextMatching(Pattern pattern)
+    implements CriterionType
+  {
+    /**
+     * The node text must entirely match the given pattern.
+     */
+
+    public WithTextMatching
+    {
+      Objects.requireNonNull(pattern, "pattern");
+    }
+
+    @Override
+    public int cost()
+    {
+      return 50;
+    }
+
+    @Override
+    public boolean test(
+      final Node node)
+    {
+      final var text = textOf(node);
+      return text != null && this.pattern.matcher(text).matches();
+    }
+
+    @Override
+    public boolean testProperties(
+      final XCNodeProperties properties)
+    {
+      final var text = properties.text();
+      return text != null && this.pattern.matcher(text).matches();
+    }
+  }
+
+  /**
+   * The node must satisfy an arbitrary predicate.
+   *
+   * @param description A description of the predicate
+   * @param predicate   The predicate
+   */
+
+  public record WithPredicate(
+    String description,
+    Predicate<Node> predicate)
+    implements CriterionType
+  {
+    /**
+     * The node must satisfy an arbitrary predicate.
+     */
+
+    public WithPredicate
+    {
+      Objects.requireNonNull(description, "description");
+      Objects.requireNonNull(predicate, "predicate");
+    }
+
+    @Override
+    public int cost()
+    {
+      return 100;
+    }
+
+    @Override
+    public boolean test(
+      final Node node)
+    {
+      return this.predicate.test(node);
+    }
+
+    @Override
+    public boolean testProperties(
+      final XCNodeProperties properties)
+    {
+      return true;
+    }
+
+    @Override
+    public boolean requiresFXThread()
+    {
+      return true;
+    }
+  }
+
+  /**
+   * A mutable builder of queries.
+   *
+   * @param <T> The type of matched nodes
+   */
+
+  public static final class Builder<T extends Node>
+  {
+    private final Class<T> type;
+    private final ArrayList<CriterionType> criteria;
+
+    private Builder(
+      final Class<T> inType)
+    {
+      this.type = Objects.requireNonNull(inType, "type");
+      this.criteria = new ArrayList<>();
+    }
+
+    /**
+     * Require the given id.
+     *
+     * @param id The id
+     *
+     * @return this
+     */
+
+    public Builder<T> withId(
+      final String id)
+    {
+      this.criteria.add(new WithId(id));
+      return this;
+    }
+
+    /**
+     * Require the given style class. May be specified multiple times.
+     *
+     * @param styleClass The style class
+     *
+     * @return this
+     */
+
+    public Builder<T> withStyleClass(
+      final String styleClass)
+    {
+      this.criteria.add(new WithStyleClass(styleClass));
+      return this;
+    }
+
+    /**
+     * Require the given pseudo-class (such as {@code "selected"}) to be
+     * active. May be specified multiple times.
+     *
+     * @param pseudoClass The pseudo-class name
+     *
+     * @return this
+     */
+
+    public Builder<T> withPseudoClass(
+      final String pseudoClass)
+    {
+      Objects.requireNonNull(pseudoClass, "pseudoClass");
+      this.criteria.add(
+        new WithPseudoClass(PseudoClass.getPseudoClass(pseudoClass)));
+      return this;
+    }
+
+    /**
+     * Require the node text to be exactly {@code text}.
+     *
+     * @param text The text
+     *
+     * @return this
+     */
+
+    public Builder<T> withText(
+      final String text)
+    {
+      this.criteria.add(new WithText(text));
+      return this;
+    }
+
+    /**
+     * Require the node text to start with {@code prefix}.
+     *
+     * @param prefix The prefix
+     *
+     * @return this
+     */
+
+    public Builder<T> withTextPrefix(
+      final String prefix)
+    {
+      this.criteria.add(new WithTextPrefix(prefix));
+      return this;
+    }
+
+    /**
+     * Require the node text to entirely match the regular expression
+     * {@code regex}. The expression is compiled once, here.
+     *
+     * @param regex The regular expression
+     *
+     * @return this
+     */
+
+    public Builder<T> withTextMatching(
+      final String regex)
+    {
+      Objects.requireNonNull(regex, "regex");
+      return this.withTextMatching(Pattern.compile(regex));
+    }
+
+    /**
+     * Require the node text to entirely match {@code pattern}.
+     *
+     * @param pattern The pattern
+     *
+     * @return this
+     */
+
+    public Builder<T> withTextMatching(
+      final Pattern pattern)
+    {
+      this.criteria.add(new WithTextMatching(pattern));
+      return this;
+    }
+
+    /**
+     * Require the node to satisfy the given predicate. The predicate is
+     * evaluated on the JavaFX thread, after all other criteria.
+     *
+     * @param predicate The predicate
+     *
+     * @return this
+     */
+
+    public Builder<T> withPredicate(
+      final Predicate<? super T> predicate)
+    {
+      Objects.requireNonNull(predicate, "predicate");
+      final var clazz = this.type;
+      this.criteria.add(
+        new WithPredicate(
+          predicate.toString(),
+          n -> predicate.test(clazz.cast(n))
+        )
+      );
+      return this;
+    }
+
+    /**
+     * @return A compiled query
+     */
+
+    public XCNodeQuery<T> build()
+    {
+      return new XCNodeQuery<>(this.type, List.copyOf(this.criteria));
+    }
+  }
+}
@@ -40,6 +40,102 @@ public interface XCRobotConfigurationType
 
   void slowMotionEnable();
 
+  /**
+   * Disable acknowledged pacing. This is the default.
+   */
+
+  void acknowledgedPacingDisable();
+
+  /**
+   * <p>Enable acknowledged pacing. Instead of always pausing for a fixed time
+   * after each mouse and keyboard operation, the robot waits until the
+   * injected input has been observed by an event filter on the target
+   * scene, and then continues immediately. The configured pause times are
+   * retained as upper bounds: if the input is not observed within the pause
+   * time, the robot continues anyway. If there is no scene to observe, the
+   * robot falls back to pausing for the full pause time.</p>
+   *
+   * <p>Acknowledged pacing has no effect in slow motion mode, and is not
+   * reset by {@link #reset(Optional)}.</p>
+   */
+
+  void acknowledgedPacingEnable();
+
+  /**
+   * @return {@code true} if acknowledged pacing is enabled
+   *
+   * @see #acknowledgedPacingEnable()
+   */
+
+  boolean isAcknowledgedPacingEnabled();
+
+  /**
+   * Disable scene indexing, discarding any existing indexes. This is the
+   * default.
+   */
+
+  void sceneIndexDisable();
+
+  /**
+   * <p>Enable scene indexing. The first time a scene is searched, the robot
+   * builds an index of the nodes in the scene by id, style class, node type,
+   * and {@code Labeled} text. The index is kept current
+   * by listeners on the scene graph, and subsequent searches of the scene
+   * with {@code findWithId}, {@code findWithText}, {@code findAll}, and
+   * {@code findAllWithClass} methods become hash lookups instead of
+   * traversals of the scene graph. Results are returned in the same order
+   * as with indexing disabled.</p>
+   *
+   * <p>Indexing costs one traversal per scene, and listeners on every node
+   * in indexed scenes. It is worthwhile for large scenes that are searched
+   * repeatedly. Scene indexing is not reset by {@link #reset(Optional)}.</p>
+   */
+
+  void sceneIndexEnable();
+
+  /**
+   * @return {@code true} if scene indexing is enabled
+   *
+   * @see #sceneIndexEnable()
+   */
+
+  boolean isSceneIndexEnabled();
+
+  /**
+   * Disable snapshot searching. This is the default.
+   */
+
+  void snapshotSearchDisable();
+
+  /**
+   * <p>Enable snapshot searching. Searches using an {@link XCNodeQuery}
+   * capture an immutable snapshot of the searchable properties (type, ID,
+   * style classes, pseudo-classes, and text) of the searched nodes on the
+   * JavaFX thread, and then evaluate the query against the snapshot in
+   * parallel on the common fork/join pool, off the JavaFX thread. The live
+   * nodes are returned as results. Queries with arbitrary predicates are
+   * evaluated against the snapshot for every other criterion, and then the
+   * predicates are evaluated against the remaining candidates on the
+   * JavaFX thread.</p>
+   *
+   * <p>Capturing a snapshot is a single traversal that only copies
+   * properties, so the JavaFX thread is blocked for far less time than when
+   * evaluating expensive criteria (such as regular expressions) over very
+   * large scenes. For small scenes, the extra copying makes snapshot
+   * searching slower than the default. Snapshot searching is not reset by
+   * {@link #reset(Optional)}.</p>
+   */
+
+  void snapshotSearchEnable();
+
+  /**
+   * @return {@code true} if snapshot searching is enabled
+   *
+   * @see #snapshotSearchEnable()
+   */
+
+  boolean isSnapshotSearchEnabled();
+
   /**
    * @return The current timeout value in milliseconds
    */
@@ -18,12 +18,27 @@ package com.io7m.xoanon.commander.api;
 
 import javafx.scene.Node;
 import javafx.scene.Parent;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TreeCell;
+import javafx.scene.control.TreeView;
 import javafx.stage.Stage;
 
 import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 /**
- * Robot functions related to finding nodes.
+ * <p>Robot functions related to finding nodes.</p>
+ *
+ * <p>Functions that search "any stage" search every kind of showing
+ * window, including popups such as context menus and tooltips. The focused
+ * window is searched first, followed by the windows owned by it (such as
+ * its popups and dialogs), followed by the remaining windows in order of
+ * how recently they held focus. Searches for a single node therefore
+ * usually finish after examining only the focused window.</p>
  */
 
 public interface XCRobotFindPrimitivesType
@@ -232,4 +247,377 @@ public interface XCRobotFindPrimitivesType
     Class<T> clazz,
     String cssClass)
     throws Exception;
+
+  /**
+   * Find the first node (in document order) in the given stage that is of
+   * type {@code clazz} (or some subtype of it). The search stops at the
+   * first match.
+   *
+   * @param clazz The class
+   * @param stage The stage
+   * @param <T>   The type of node
+   *
+   * @return The node
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> T findFirstInStage(
+    Class<T> clazz,
+    Stage stage)
+    throws Exception;
+
+  /**
+   * Find the first descendant (in document order) of the given
+   * {@code parent} that is of type {@code clazz} (or some subtype of it).
+   * The search stops at the first match.
+   *
+   * @param clazz  The class
+   * @param parent The parent
+   * @param <T>    The type of node
+   *
+   * @return The node
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> T findFirst(
+    Class<T> clazz,
+    Parent parent)
+    throws Exception;
+
+  /**
+   * Find the first node (in document order) in the given stage that is of
+   * type {@code clazz} (or some subtype of it), and has the given CSS class.
+   * The search stops at the first match.
+   *
+   * @param clazz    The class
+   * @param stage    The stage
+   * @param cssClass The CSS class
+   * @param <T>      The type of node
+   *
+   * @return The node
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> T findFirstWithClassInStage(
+    Class<T> clazz,
+    Stage stage,
+    String cssClass)
+    throws Exception;
+
+  /**
+   * Find the first descendant (in document order) of the given
+   * {@code parent} that is of type {@code clazz} (or some subtype of it),
+   * and has the given CSS class. The search stops at the first match.
+   *
+   * @param clazz    The class
+   * @param parent   The parent
+   * @param cssClass The CSS class
+   * @param <T>      The type of node
+   *
+   * @return The node
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> T findFirstWithClass(
+    Class<T> clazz,
+    Parent parent,
+    String cssClass)
+    throws Exception;
+
+  /**
+   * Find the first node in any visible stage that is of type {@code clazz}
+   * (or some subtype of it), and has the given CSS class. The search stops
+   * at the first match.
+   *
+   * @param clazz    The class
+   * @param cssClass The CSS class
+   * @param <T>      The type of node
+   *
+   * @return The node
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> T findFirstWithClassInAnyStage(
+    Class<T> clazz,
+    String cssClass)
+    throws Exception;
+
+  /**
+   * Find all descendants (in document order) of the given {@code parent}
+   * that match {@code query}. The query is evaluated in a single traversal.
+   *
+   * @param query  The query
+   * @param parent The parent
+   * @param <T>    The type of node
+   *
+   * @return The matching nodes
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> List<T> findAll(
+    XCNodeQuery<T> query,
+    Parent parent)
+    throws Exception;
+
+  /**
+   * Find all nodes (in document order) in the given stage that match
+   * {@code query}. The query is evaluated in a single traversal.
+   *
+   * @param query The query
+   * @param stage The stage
+   * @param <T>   The type of node
+   *
+   * @return The matching nodes
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> List<T> findAllInStage(
+    XCNodeQuery<T> query,
+    Stage stage)
+    throws Exception;
+
+  /**
+   * Find all nodes in any visible stage that match {@code query}.
+   *
+   * @param query The query
+   * @param <T>   The type of node
+   *
+   * @return The matching nodes
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> List<T> findAllInAnyStage(
+    XCNodeQuery<T> query)
+    throws Exception;
+
+  /**
+   * Find the first descendant (in document order) of the given
+   * {@code parent} that matches {@code query}. The search stops at the
+   * first match.
+   *
+   * @param query  The query
+   * @param parent The parent
+   * @param <T>    The type of node
+   *
+   * @return The node
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> T findFirst(
+    XCNodeQuery<T> query,
+    Parent parent)
+    throws Exception;
+
+  /**
+   * Find the first node (in document order) in the given stage that matches
+   * {@code query}. The search stops at the first match.
+   *
+   * @param query The query
+   * @param stage The stage
+   * @param <T>   The type of node
+   *
+   * @return The node
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> T findFirstInStage(
+    XCNodeQuery<T> query,
+    Stage stage)
+    throws Exception;
+
+  /**
+   * Find the first node in any visible stage that matches {@code query}.
+   * The search stops at the first match.
+   *
+   * @param query The query
+   * @param <T>   The type of node
+   *
+   * @return The node
+   *
+   * @throws Exception On errors
+   */
+
+  <T extends Node> T findFirstInAnyStage(
+    XCNodeQuery<T> query)
+    throws Exception;
+
+  /**
+   * Resolve every entry of {@code lookup} against the descendants of the
+   * given {@code parent} in a single traversal. Unresolved entries are
+   * reported by the result rather than raising exceptions.
+   *
+   * @param lookup The lookup
+   * @param parent The parent
+   *
+   * @return The lookup result
+   *
+   * @throws Exception On errors
+   *
+   * @see XCNodeLookupResult#requireAll()
+   */
+
+  XCNodeLookupResult lookup(
+    XCNodeLookup lookup,
+    Parent parent)
+    throws Exception;
+
+  /**
+   * Resolve every entry of {@code lookup} against the nodes in the given
+   * stage in a single traversal. Unresolved entries are reported by the
+   * result rather than raising exceptions.
+   *
+   * @param lookup The lookup
+   * @param stage  The stage
+   *
+   * @return The lookup result
+   *
+   * @throws Exception On errors
+   *
+   * @see XCNodeLookupResult#requireAll()
+   */
+
+  XCNodeLookupResult lookupInStage(
+    XCNodeLookup lookup,
+    Stage stage)
+    throws Exception;
+
+  /**
+   * Resolve every entry of {@code lookup} against the nodes in all visible
+   * stages. Unresolved entries are reported by the result rather than
+   * raising exceptions.
+   *
+   * @param lookup The lookup
+   *
+   * @return The lookup result
+   *
+   * @throws Exception On errors
+   *
+   * @see XCNodeLookupResult#requireAll()
+   */
+
+  XCNodeLookupResult lookupInAnyStage(
+    XCNodeLookup lookup)
+    throws Exception;
+
+  /**
+   * Find the first descendant (in document order) of the given
+   * {@code parent} that matches {@code query}, waiting for up to {@code ms}
+   * milliseconds for such a node to appear. The search is evaluated once
+   * immediately, and then again only when nodes are added to or removed
+   * from the subtree at {@code parent}, or when the id, style class,
+   * pseudo-classes, or text of a node in the subtree change. Bursts of
+   * changes are coalesced into a single evaluation.
+   *
+   * @param ms     The maximum number of milliseconds to wait
+   * @param query  The query
+   * @param parent The parent
+   * @param <T>    The type of node
+   *
+   * @return The node
+   *
+   * @throws TimeoutException If no matching node appears in time
+   * @throws Exception        On errors
+   */
+
+  <T extends Node> T findFirstEventually(
+    long ms,
+    XCNodeQuery<T> query,
+    Parent parent)
+    throws TimeoutException, Exception;
+
+  /**
+   * Find the first node (in document order) in the given stage that matches
+   * {@code query}, waiting for up to {@code ms} milliseconds for such a node
+   * to appear. The subtree at the root of the stage's current scene is
+   * watched as described in
+   * {@link #findFirstEventually(long, XCNodeQuery, Parent)}.
+   *
+   * @param ms    The maximum number of milliseconds to wait
+   * @param query The query
+   * @param stage The stage
+   * @param <T>   The type of node
+   *
+   * @return The node
+   *
+   * @throws TimeoutException If no matching node appears in time
+   * @throws Exception        On errors
+   */
+
+  <T extends Node> T findFirstEventuallyInStage(
+    long ms,
+    XCNodeQuery<T> query,
+    Stage stage)
+    throws TimeoutException, Exception;
+
+  /**
+   * Find the cell that displays the first item in the given list that
+   * matches {@code item}. The item is located in the list's model, the list
+   * is scrolled so that the item is displayed, and the realized cell is
+   * returned once the list has laid out its cells. This works regardless of
+   * whether the item is initially scrolled into view.
+   *
+   * @param view The list
+   * @param item The predicate that selects the item
+   * @param <T>  The type of items
+   *
+   * @return The cell
+   *
+   * @throws Exception On errors
+   */
+
+  <T> ListCell<?> findListCell(
+    ListView<T> view,
+    Predicate<? super T> item)
+    throws Exception;
+
+  /**
+   * Find the row that displays the first item in the given table that
+   * matches {@code item}. The item is located in the table's model, the
+   * table is scrolled so that the item is displayed, and the realized row is
+   * returned once the table has laid out its rows.
+   *
+   * @param view The table
+   * @param item The predicate that selects the item
+   * @param <T>  The type of items
+   *
+   * @return The row
+   *
+   * @throws Exception On errors
+   */
+
+  <T> TableRow<?> findTableRow(
+    TableView<T> view,
+    Predicate<? super T> item)
+    throws Exception;
+
+  /**
+   * Find the cell that displays the first tree item (in depth-first order)
+   * in the given tree whose value matches {@code item}. The item is located
+   * in the tree's model, its ancestors are expanded, the tree is scrolled so
+   * that the item is displayed, and the realized cell is returned once the
+   * tree has laid out its cells.
+   *
+   * @param view The tree
+   * @param item The predicate that selects the item value
+   * @param <T>  The type of item values
+   *
+   * @return The cell
+   *
+   * @throws Exception On errors
+   */
+
+  <T> TreeCell<?> findTreeCell(
+    TreeView<T> view,
+    Predicate<? super T> item)
+    throws Exception;
 }
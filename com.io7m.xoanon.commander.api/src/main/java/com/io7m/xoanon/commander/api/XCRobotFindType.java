@@ -18,9 +18,18 @@ package com.io7m.xoanon.commander.api;
 
 import javafx.scene.Node;
 import javafx.scene.Parent;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TreeCell;
+import javafx.scene.control.TreeView;
 import javafx.stage.Stage;
 
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 /**
  * Convenient extensions to the robot functions related to finding nodes.
@@ -197,4 +206,167 @@ public interface XCRobotFindType extends XCRobotFindPrimitivesType
   {
     return this.findAllWithClassInAnyStage(Node.class, cssClass);
   }
+
+  /**
+   * Start building a query for nodes of type {@code clazz}.
+   *
+   * @param clazz The node type
+   * @param <T>   The node type
+   *
+   * @return A query builder
+   *
+   * @see XCNodeQuery#builder(Class)
+   */
+
+  default <T extends Node> XCNodeQuery.Builder<T> query(
+    final Class<T> clazz)
+  {
+    return XCNodeQuery.builder(clazz);
+  }
+
+  /**
+   * Start building a batch lookup.
+   *
+   * @return A lookup builder
+   *
+   * @see XCNodeLookup#builder()
+   */
+
+  default XCNodeLookup.Builder lookupBuilder()
+  {
+    return XCNodeLookup.builder();
+  }
+
+  /**
+   * Find the descendant of the given {@code parent} with the given ID,
+   * waiting for up to {@code ms} milliseconds for it to appear.
+   *
+   * @param ms     The maximum number of milliseconds to wait
+   * @param clazz  The node type
+   * @param parent The parent
+   * @param id     The ID
+   * @param <T>    The node type
+   *
+   * @return The node
+   *
+   * @throws TimeoutException If no matching node appears in time
+   * @throws Exception        On errors
+   *
+   * @see #findFirstEventually(long, XCNodeQuery, Parent)
+   */
+
+  default <T extends Node> T findWithIdEventually(
+    final long ms,
+    final Class<T> clazz,
+    final Parent parent,
+    final String id)
+    throws TimeoutException, Exception
+  {
+    return this.findFirstEventually(
+      ms,
+      XCNodeQuery.builder(clazz).withId(id).build(),
+      parent
+    );
+  }
+
+  /**
+   * Find the descendant of the given {@code parent} with the given text,
+   * waiting for up to {@code ms} milliseconds for it to appear.
+   *
+   * @param ms     The maximum number of milliseconds to wait
+   * @param clazz  The node type
+   * @param parent The parent
+   * @param text   The text
+   * @param <T>    The node type
+   *
+   * @return The node
+   *
+   * @throws TimeoutException If no matching node appears in time
+   * @throws Exception        On errors
+   *
+   * @see #findFirstEventually(long, XCNodeQuery, Parent)
+   */
+
+  default <T extends Node> T findWithTextEventually(
+    final long ms,
+    final Class<T> clazz,
+    final Parent parent,
+    final String text)
+    throws TimeoutException, Exception
+  {
+    return this.findFirstEventually(
+      ms,
+      XCNodeQuery.builder(clazz).withText(text).build(),
+      parent
+    );
+  }
+
+  /**
+   * Find the cell that displays the first item in the given list that is
+   * equal to {@code item}.
+   *
+   * @param view The list
+   * @param item The item
+   * @param <T>  The type of items
+   *
+   * @return The cell
+   *
+   * @throws Exception On errors
+   *
+   * @see #findListCell(ListView, Predicate)
+   */
+
+  default <T> ListCell<?> findListCellWithItem(
+    final ListView<T> view,
+    final T item)
+    throws Exception
+  {
+    return this.findListCell(view, x -> Objects.equals(x, item));
+  }
+
+  /**
+   * Find the row that displays the first item in the given table that is
+   * equal to {@code item}.
+   *
+   * @param view The table
+   * @param item The item
+   * @param <T>  The type of items
+   *
+   * @return The row
+   *
+   * @throws Exception On errors
+   *
+   * @see #findTableRow(TableView, Predicate)
+   */
+
+  default <T> TableRow<?> findTableRowWithItem(
+    final TableView<T> view,
+    final T item)
+    throws Exception
+  {
+    return this.findTableRow(view, x -> Objects.equals(x, item));
+  }
+
+  /**
+   * Find the cell that displays the first tree item in the given tree whose
+   * value is equal to {@code item}.
+   *
+   * @param view The tree
+   * @param item The item value
+   * @param <T>  The type of item values
+   *
+   * @return The cell
+   *
+   * @throws Exception On errors
+   *
+   * @see #findTreeCell(TreeView, Predicate)
+   */
+
+  default <T> TreeCell<?> findTreeCellWithItem(
+    final TreeView<T> view,
+    final T item)
+    throws Exception
+  {
+    return this.findTreeCell(view, x -> Objects.equals(x, item));
+  }
 }
@@ -17,10 +17,12 @@
 
 package com.io7m.xoanon.commander.api;
 
+import javafx.beans.value.ObservableValue;
 import javafx.stage.Stage;
 
 import java.util.concurrent.TimeoutException;
 import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
 
 /**
  * Robot functions related to waiting.
@@ -29,7 +31,8 @@ import java.util.function.BooleanSupplier;
 public interface XCRobotWaitingType
 {
   /**
-   * Wait for the default stage to close.
+   * Wait for the given stage to close. The method returns as soon as the
+   * stage's {@code showing} property becomes {@code false}.
    *
    * @param stage        The stage
    * @param milliseconds The time to wait in milliseconds
@@ -43,7 +46,39 @@ public interface XCRobotWaitingType
     throws Exception;
 
   /**
-   * Do nothing for the given number of JavaFX frames.
+   * Wait for the given stage to be shown. The method returns as soon as the
+   * stage's {@code showing} property becomes {@code true}.
+   *
+   * @param stage        The stage
+   * @param milliseconds The time to wait in milliseconds
+   *
+   * @throws Exception On errors
+   */
+
+  void waitForStageShown(
+    Stage stage,
+    long milliseconds)
+    throws Exception;
+
+  /**
+   * Wait for the given stage to receive focus. The method returns as soon as
+   * the stage's {@code focused} property becomes {@code true}.
+   *
+   * @param stage        The stage
+   * @param milliseconds The time to wait in milliseconds
+   *
+   * @throws Exception On errors
+   */
+
+  void waitForStageFocused(
+    Stage stage,
+    long milliseconds)
+    throws Exception;
+
+  /**
+   * Do nothing for the given number of JavaFX frames. The method returns
+   * after the JavaFX thread has completed {@code frames} pulses, and never
+   * blocks the JavaFX thread itself.
    *
    * @param frames The frames
    *
@@ -55,7 +90,8 @@ public interface XCRobotWaitingType
 
   /**
    * Wait until the given predicate is true. The predicate is evaluated
-   * repeatedly on the JavaFX UI thread.
+   * on the JavaFX UI thread once immediately, and then at most once per
+   * JavaFX pulse.
    *
    * @param ms        The maximum number of milliseconds to wait
    * @param predicate The predicate to evaluate
@@ -69,4 +105,27 @@ public interface XCRobotWaitingType
     long ms,
     BooleanSupplier predicate)
     throws TimeoutException, Exception;
+
+  /**
+   * Wait until the given predicate is true for the current value of the
+   * given observable. The predicate is evaluated on the JavaFX UI thread
+   * once immediately, and then again only when the observable value changes.
+   *
+   * @param ms         The maximum number of milliseconds to wait
+   * @param observable The observable value
+   * @param predicate  The predicate to evaluate
+   * @param <T>        The type of observed values
+   *
+   * @return The value that satisfied the predicate
+   *
+   * @throws TimeoutException If the predicate does not return {@code true}
+   *                          before {@code ms} milliseconds have elapsed.
+   * @throws Exception        On errors
+   */
+
+  <T> T waitUntil(
+    long ms,
+    ObservableValue<T> observable,
+    Predicate<? super T> predicate)
+    throws TimeoutException, Exception;
 }
@@ -0,0 +1,435 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander;
+
+import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.api.XCKeyMap;
+import javafx.scene.input.KeyCode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <p>Functions to read and write keymap files.</p>
+ *
+ * <p>A keymap file is a UTF-8 text file. The first line that is neither
+ * blank nor a comment must be the header {@code xoanon-keymap 1}. Every
+ * subsequent line that is neither blank nor a comment maps a single
+ * character to a key:</p>
+ *
+ * <pre>
+ * # Comments start with '#'.
+ * xoanon-keymap 1
+ * U+0061 A
+ * U+0041 A shift
+ * U+0040 DIGIT2 shift
+ * U+00E9 E alt control
+ * </pre>
+ *
+ * <p>The first field is the UTF-16 code unit of the character, written
+ * as {@code U+} followed by exactly four hexadecimal digits. The second
+ * field is the name of a JavaFX {@link KeyCode} constant. Any remaining
+ * fields name the modifiers held when the key is pressed, and must be some
+ * combination of {@code shift}, {@code alt}, and {@code control}. A
+ * character may be mapped at most once.</p>
+ */
+
+public final class XCKeyMapFiles
+{
+  /**
+   * The file header.
+   */
+
+  public static final String HEADER = "xoanon-keymap 1";
+
+  /**
+   * The prefix used to name classpath resources rather than files in
+   * keymap locations.
+   *
+   * @see #readLocation(String)
+   */
+
+  public static final String CLASSPATH_PREFIX = "classpath:";
+
+  private XCKeyMapFiles()
+  {
+
+  }
+
+  /**
+   * Read a keymap from a location. If the location begins with
+   * {@link #CLASSPATH_PREFIX}, the rest of the location names a classpath
+   * resource. Otherwise, the location is a file path.
+   *
+   * @param location The location
+   *
+   * @return A keymap
+   *
+   * @throws IOException On I/O or parse errors
+   */
+
+  public static XCKeyMap readLocation(
+    final String location)
+    throws IOException
+  {
+    Objects.requireNonNull(location, "location");
+
+    if (location.startsWith(CLASSPATH_PREFIX)) {
+      return readResource(location.substring(CLASSPATH_PREFIX.length()));
+    }
+    return read(Path.of(location));
+  }
+
+  /**
+   * Read a keymap from a classpath resource.
+   *
+   * @param name The resource name, such as {@code /com/example/keymap.txt}
+   *
+   * @return A keymap
+   *
+   * @throws IOException On I/O or parse errors
+   */
+
+  public static XCKeyMap readResource(
+    final String name)
+    throws IOException
+  {
+    Objects.requireNonNull(name, "name");
+
+    final var absolute = name.startsWith("/") ? name : "/" + name;
+    final var loader = Thread.currentThread().getContextClassLoader();
+    final var stream =
+      loader != null
+        ? loader.getResourceAsStream(absolute.substring(1))
+        : XCKeyMapFiles.class.getResourceAsStream(absolute);
+
+    if (stream == null) {
+      throw new NoSuchFileException(CLASSPATH_PREFIX + name);
+    }
+    try (stream) {
+      return read(stream, CLASSPATH_PREFIX + name);
+    }
+  }
+
+  /**
+   * Read a keymap from a file.
+   *
+   * @param file The file
+   *
+   * @return A keymap
+   *
+   * @throws IOException On I/O or parse errors
+   */
+
+  public static XCKeyMap read(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+
+    try (var stream = Files.newInputStream(file)) {
+      return read(stream, file.toString());
+    }
+  }
+
+  /**
+   * Read a keymap from a stream.
+   *
+   * @param stream The stream
+   * @param source The name of the source, used in error messages
+   *
+   * @return A keymap
+   *
+   * @throws IOException On I/O or parse errors
+   */
+
+  public static XCKeyMap read(
+    final InputStream stream,
+    final String source)
+    throws IOException
+  {
+    Objects.requireNonNull(stream, "stream");
+    return read(new InputStreamReader(stream, StandardCharsets.UTF_8), source);
+  }
+
+  /**
+   * Read a keymap from a reader.
+   *
+   * @param reader The reader
+   * @param source The name of the source, used in error messages
+   *
+   * @return A keymap
+   *
+   * @throws IOException On I/O or parse errors
+   */
+
+  public static XCKeyMap read(
+    final Reader reader,
+    final String source)
+    throws IOException
+  {
+    Objects.requireNonNull(reader, "reader");
+    Objects.requireNonNull(source, "source");
+
+    final var buffered = new BufferedReader(reader);
+    final var keys = new HashMap<Character, XCKey>(128);
+    var header = false;
+    var lineNumber = 0;
+
+    while (true) {
+      final var line = buffered.readLine();
+      if (line == null) {
+        break;
+      }
+      ++lineNumber;
+
+      final var trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+
+      if (!header) {
+        if (!HEADER.equals(trimmed)) {
+          throw error(
+            source,
+            lineNumber,
+            "Expected the header '%s'".formatted(HEADER)
+          );
+        }
+        header = true;
+        continue;
+      }
+
+      parseMapping(keys, trimmed, source, lineNumber);
+    }
+
+    if (!header) {
+      throw error(
+        source,
+        lineNumber,
+        "Expected the header '%s'".formatted(HEADER)
+      );
+    }
+    return new XCKeyMap(Map.copyOf(keys));
+  }
+
+  private static void parseMapping(
+    final Map<Character, XCKey> keys,
+    final String line,
+    final String source,
+    final int lineNumber)
+    throws IOException
+  {
+    final var fields = line.split("\\s+");
+    if (fields.length < 2) {
+      throw error(source, lineNumber, "Expected a character and a key code");
+    }
+
+    final var character = parseCharacter(fields[0], source, lineNumber);
+    final KeyCode code;
+    try {
+      code = KeyCode.valueOf(fields[1]);
+    } catch (final IllegalArgumentException e) {
+      throw error(
+        source, lineNumber, "Unrecognized key code '%s'".formatted(fields[1]));
+    }
+
+    var shift = false;
+    var alt = false;
+    var control = false;
+    for (int index = 2; index < fields.length; ++index) {
+      final var modifier = fields[index].toLowerCase(Locale.ROOT);
+      if ("shift".equals(modifier)) {
+        shift = true;
+      } else if ("alt".equals(modifier)) {
+        alt = true;
+      } else if ("control".equals(modifier)) {
+        control = true;
+      } else {
+        throw error(
+          source,
+          lineNumber,
+          "Unrecognized modifier '%s'".formatted(fields[index])
+        );
+      }
+    }
+
+    final var previous =
+      keys.putIfAbsent(character, new XCKey(code, shift, alt, control));
+    if (previous != null) {
+      throw error(
+        source,
+        lineNumber,
+        "Character %s is already mapped".formatted(fields[0])
+      );
+    }
+  }
+
+  private static Character parseCharacter(
+    final String field,
+    final String source,
+    final int lineNumber)
+    throws IOException
+  {
+    if (!field.matches("U\\+[0-9A-Fa-f]{4}")) {
+      throw error(
+        source,
+        lineNumber,
+        "Expected a character of the form U+XXXX, but got '%s'".formatted(field)
+      );
+    }
+    return Character.valueOf((char) Integer.parseInt(field.substring(2), 16));
+  }
+
+  private static IOException error(
+    final String source,
+    final int lineNumber,
+    final String message)
+  {
+    return new IOException("%s:%d: %s".formatted(source, lineNumber, message));
+  }
+
+  /**
+   * Write a keymap to a file, replacing it if it exists. The keymap is
+   * written to a temporary file in the same directory and then renamed into
+   * place, so readers never observe a partially written file.
+   *
+   * @param file   The file
+   * @param keyMap The keymap
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final Path file,
+    final XCKeyMap keyMap)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(keyMap, "keyMap");
+
+    final var temporary =
+      file.resolveSibling(
+        "%s.%s.tmp".formatted(file.getFileName(), UUID.randomUUID()));
+
+    try {
+      try (var stream = Files.newOutputStream(temporary, CREATE_NEW, WRITE)) {
+        write(stream, keyMap);
+      }
+
+      try {
+        Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+      } catch (final AtomicMoveNotSupportedException e) {
+        Files.move(temporary, file, REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Write a keymap to a stream. The stream is flushed but not closed.
+   *
+   * @param stream The stream
+   * @param keyMap The keymap
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final OutputStream stream,
+    final XCKeyMap keyMap)
+    throws IOException
+  {
+    Objects.requireNonNull(stream, "stream");
+    write(new OutputStreamWriter(stream, StandardCharsets.UTF_8), keyMap);
+  }
+
+  /**
+   * Write a keymap to a writer. The writer is flushed but not closed.
+   * Mappings are written in character order, so that writing the same
+   * keymap always produces the same file.
+   *
+   * @param writer The writer
+   * @param keyMap The keymap
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final Writer writer,
+    final XCKeyMap keyMap)
+    throws IOException
+  {
+    Objects.requireNonNull(writer, "writer");
+    Objects.requireNonNull(keyMap, "keyMap");
+
+    final var output = new BufferedWriter(writer);
+    output.write(HEADER);
+    output.newLine();
+
+    final var characters =
+      keyMap.keys()
+        .keySet()
+        .stream()
+        .sorted()
+        .toList();
+
+    for (final var character : characters) {
+      final var key = keyMap.keys().get(character);
+      output.write(
+        "U+%04X %s".formatted(
+          Integer.valueOf(character.charValue()),
+          key.code().name())
+      );
+      if (key.isShift()) {
+        output.write(" shift");
+      }
+      if (key.isAlt()) {
+        output.write(" alt");
+      }
+      if (key.isControl()) {
+        output.write(" control");
+      }
+      output.newLine();
+    }
+    output.flush();
+  }
+}
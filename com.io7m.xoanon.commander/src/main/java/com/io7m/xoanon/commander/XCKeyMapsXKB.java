@@ -0,0 +1,373 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander;
+
+import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.api.XCKeyMap;
+import com.io7m.xoanon.commander.internal.XCXKBKeySyms;
+import com.io7m.xoanon.commander.internal.XCXKBSymbols;
+import javafx.scene.input.KeyCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Functions to derive keymaps statically from XKB layout data.</p>
+ *
+ * <p>On Linux/X11 (including Xvfb), the active keyboard layout can be
+ * determined from the XKB configuration, and the characters produced by each
+ * key can be read from the xkeyboard-config symbol files that ship with the
+ * system. Deriving a keymap this way takes milliseconds and presses no keys,
+ * but it cannot see runtime remappings (such as those made with
+ * {@code xmodmap}), and so derived keymaps should be verified against the
+ * live keyboard where possible.</p>
+ */
+
+public final class XCKeyMapsXKB
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XCKeyMapsXKB.class);
+
+  private XCKeyMapsXKB()
+  {
+
+  }
+
+  /**
+   * An XKB layout and variant.
+   *
+   * @param layout  The layout name (such as {@code "us"} or {@code "de"})
+   * @param variant The variant name (such as {@code "nodeadkeys"}), or the
+   *                empty string for the default variant
+   */
+
+  public record Layout(
+    String layout,
+    String variant)
+  {
+    /**
+     * An XKB layout and variant.
+     */
+
+    public Layout
+    {
+      Objects.requireNonNull(layout, "layout");
+      Objects.requireNonNull(variant, "variant");
+
+      if (!layout.matches("[A-Za-z0-9_-]+")) {
+        throw new IllegalArgumentException(
+          "Unusable layout name: '%s'".formatted(layout));
+      }
+      if (!variant.isEmpty() && !variant.matches("[A-Za-z0-9_-]+")) {
+        throw new IllegalArgumentException(
+          "Unusable variant name: '%s'".formatted(variant));
+      }
+    }
+
+    /**
+     * @return The layout as an XKB include specification
+     */
+
+    public String include()
+    {
+      if (this.variant.isEmpty()) {
+        return this.layout;
+      }
+      return "%s(%s)".formatted(this.layout, this.variant);
+    }
+  }
+
+  /**
+   * @return The symbols directory of the system's xkeyboard-config data
+   */
+
+  public static Path defaultSymbolsDirectory()
+  {
+    final var root = System.getenv("XKB_CONFIG_ROOT");
+    if (root != null && !root.isBlank()) {
+      return Path.of(root, "symbols");
+    }
+    return Path.of("/usr/share/X11/xkb/symbols");
+  }
+
+  /**
+   * <p>Determine the active XKB layout. The following sources are consulted
+   * in order, and the first layout found is used:</p>
+   *
+   * <ol>
+   *   <li>The {@code XKB_DEFAULT_LAYOUT} and {@code XKB_DEFAULT_VARIANT}
+   *   environment variables.</li>
+   *   <li>The output of {@code setxkbmap -query}.</li>
+   *   <li>The {@code XKBLAYOUT} and {@code XKBVARIANT} entries of
+   *   {@code /etc/default/keyboard}.</li>
+   * </ol>
+   *
+   * <p>If several layouts are configured, only the first (the one active
+   * when the X server starts) is returned.</p>
+   *
+   * @return The active layout, if it could be determined
+   */
+
+  public static Optional<Layout> detectLayout()
+  {
+    return detectFromEnvironment()
+      .or(XCKeyMapsXKB::detectFromSetxkbmap)
+      .or(XCKeyMapsXKB::detectFromDefaultKeyboard);
+  }
+
+  /**
+   * Derive a keymap for the active layout from the system's symbol files.
+   * This fails (returning nothing) on systems without XKB data, and on
+   * systems where the active layout cannot be determined; no layout is
+   * assumed, because a keymap for the wrong layout types the wrong text.
+   *
+   * @return The derived keymap, if one could be derived
+   *
+   * @see #detectLayout()
+   * @see #defaultSymbolsDirectory()
+   */
+
+  public static Optional<XCKeyMap> derive()
+  {
+    final var directory = defaultSymbolsDirectory();
+    if (!Files.isDirectory(directory)) {
+      LOG.debug("xkb: no symbols directory at {}", directory);
+      return Optional.empty();
+    }
+
+    final var detected = detectLayout();
+    if (detected.isEmpty()) {
+      LOG.debug("xkb: unable to determine the active layout");
+      return Optional.empty();
+    }
+
+    final var layout = detected.get();
+    LOG.debug("xkb: layout {}", layout.include());
+
+    try {
+      return Optional.of(derive(directory, layout));
+    } catch (final Exception e) {
+      LOG.debug("xkb: unable to derive a keymap: ", e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Derive a keymap for the given layout from the symbol files in the given
+   * directory.
+   *
+   * @param directory The symbols directory
+   * @param layout    The layout
+   *
+   * @return The derived keymap
+   *
+   * @throws IOException On I/O errors, or if the layout does not exist
+   */
+
+  public static XCKeyMap derive(
+    final Path directory,
+    final Layout layout)
+    throws IOException
+  {
+    Objects.requireNonNull(directory, "directory");
+    Objects.requireNonNull(layout, "layout");
+
+    final var layoutFile = directory.resolve(layout.layout());
+    if (!Files.isRegularFile(layoutFile)) {
+      throw new NoSuchFileException(layoutFile.toString());
+    }
+
+    final var keys =
+      new XCXKBSymbols(directory)
+        .resolve("pc+" + layout.include());
+
+    /*
+     * Model the robot: each key code is translated to a keysym, and the
+     * first physical key that can produce that keysym at any level is
+     * pressed. The character produced is then whatever that physical key
+     * produces at the first level (or the second level, with shift).
+     * Characters already produced by an earlier key code are not replaced,
+     * matching the precedence of interactive generation.
+     */
+
+    final var codes =
+      XCXKBKeySyms.keyCodes()
+        .entrySet()
+        .stream()
+        .sorted(
+          Map.Entry.comparingByKey(Comparator.comparingInt(Enum::ordinal)))
+        .toList();
+
+    final var unshifted = new HashMap<Character, XCKey>(128);
+    final var shifted = new HashMap<Character, XCKey>(128);
+    for (final var entry : codes) {
+      final var code = entry.getKey();
+      final var levels = physicalKeyFor(keys, entry.getValue());
+      if (levels.isEmpty()) {
+        continue;
+      }
+      record(unshifted, code, levels, 0, false);
+      record(shifted, code, levels, 1, true);
+    }
+
+    shifted.forEach(unshifted::putIfAbsent);
+    return new XCKeyMap(unshifted);
+  }
+
+  private static List<String> physicalKeyFor(
+    final Map<String, List<String>> keys,
+    final String keysym)
+  {
+    for (final var name : XCXKBKeySyms.physicalKeys()) {
+      final var levels = keys.get(name);
+      if (levels != null && levels.contains(keysym)) {
+        return levels;
+      }
+    }
+    return List.of();
+  }
+
+  private static void record(
+    final Map<Character, XCKey> output,
+    final KeyCode code,
+    final List<String> levels,
+    final int level,
+    final boolean shift)
+  {
+    if (level >= levels.size()) {
+      return;
+    }
+
+    XCXKBKeySyms.character(levels.get(level)).ifPresent(c -> {
+      output.putIfAbsent(
+        Character.valueOf((char) c),
+        new XCKey(code, shift, false, false)
+      );
+    });
+  }
+
+  private static Optional<Layout> detectFromEnvironment()
+  {
+    return layoutOf(
+      System.getenv("XKB_DEFAULT_LAYOUT"),
+      System.getenv("XKB_DEFAULT_VARIANT")
+    );
+  }
+
+  private static Optional<Layout> detectFromSetxkbmap()
+  {
+    try {
+      final var process =
+        new ProcessBuilder("setxkbmap", "-query")
+          .redirectErrorStream(true)
+          .start();
+
+      if (!process.waitFor(2L, TimeUnit.SECONDS)) {
+        process.destroyForcibly();
+        return Optional.empty();
+      }
+
+      final String output;
+      try (var reader = process.inputReader(StandardCharsets.UTF_8)) {
+        output = String.join("\n", reader.lines().toList());
+      }
+      return layoutOf(field(output, "layout:"), field(output, "variant:"));
+    } catch (final IOException e) {
+      LOG.debug("xkb: setxkbmap is unavailable: ", e);
+      return Optional.empty();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Optional.empty();
+    }
+  }
+
+  private static Optional<Layout> detectFromDefaultKeyboard()
+  {
+    final var file = Path.of("/etc/default/keyboard");
+    if (!Files.isRegularFile(file)) {
+      return Optional.empty();
+    }
+
+    try {
+      final var text = Files.readString(file);
+      return layoutOf(
+        unquote(field(text, "XKBLAYOUT=")),
+        unquote(field(text, "XKBVARIANT="))
+      );
+    } catch (final IOException e) {
+      LOG.debug("xkb: unable to read {}: ", file, e);
+      return Optional.empty();
+    }
+  }
+
+  private static String field(
+    final String text,
+    final String prefix)
+  {
+    for (final var line : text.split("\n")) {
+      final var trimmed = line.trim();
+      if (trimmed.startsWith(prefix)) {
+        return trimmed.substring(prefix.length()).trim();
+      }
+    }
+    return null;
+  }
+
+  private static String unquote(
+    final String text)
+  {
+    if (text == null) {
+      return null;
+    }
+    return text.replace("\"", "").replace("'", "");
+  }
+
+  private static Optional<Layout> layoutOf(
+    final String layouts,
+    final String variants)
+  {
+    if (layouts == null || layouts.isBlank()) {
+      return Optional.empty();
+    }
+
+    final var layout =
+      layouts.split(",")[0].trim().toLowerCase(Locale.ROOT);
+    final var variant =
+      variants == null ? "" : variants.split(",", -1)[0].trim();
+
+    try {
+      return Optional.of(new Layout(layout, variant));
+    } catch (final IllegalArgumentException e) {
+      LOG.debug("xkb: ignoring layout: ", e);
+      return Optional.empty();
+    }
+  }
+}
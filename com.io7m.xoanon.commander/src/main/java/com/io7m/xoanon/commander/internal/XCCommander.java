@@ -17,6 +17,8 @@
 package com.io7m.xoanon.commander.internal;
 
 import com.io7m.xoanon.commander.XBVersion;
+import com.io7m.xoanon.commander.XCKeyMapFiles;
+import com.io7m.xoanon.commander.XCKeyMapsXKB;
 import com.io7m.xoanon.commander.api.XCApplicationInfo;
 import com.io7m.xoanon.commander.api.XCCommanderType;
 import com.io7m.xoanon.commander.api.XCFXThread;
@@ -59,25 +61,30 @@ import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import static com.io7m.xoanon.commander.api.XCFXThreadPriority.LOW;
 import static javafx.animation.Interpolator.LINEAR;
 import static javafx.scene.input.KeyCode.ADD;
 import static javafx.scene.input.KeyCode.AMPERSAND;
@@ -123,18 +130,80 @@ import static javafx.scene.input.KeyCode.values;
 public final class XCCommander
   implements XCCommanderType, Initializable
 {
+  /**
+   * The system property that enables lazy keymap population. In lazy mode,
+   * no keymap is generated up front; the commander starts from whatever
+   * (possibly partial) keymap is cached, and the robot asks the commander
+   * to discover keys for characters as it encounters them.
+   */
+
+  public static final String KEYMAP_LAZY_PROPERTY =
+    "com.io7m.xoanon.keymap.lazy";
+
+  /**
+   * The system property that controls static keymap derivation from XKB
+   * layout data. The value {@code verify} (the default) derives a keymap
+   * whenever one would otherwise be generated, and accepts it if it passes
+   * the spot check against the live keyboard; the spot check types into
+   * the commander window, and so still brings it to the front. The value
+   * {@code trust} uses a derived keymap without pressing any keys at all,
+   * and leaves the commander window where it is. The value
+   * {@code disabled} always generates keymaps interactively.
+   */
+
+  public static final String KEYMAP_XKB_PROPERTY =
+    "com.io7m.xoanon.keymap.xkb";
+
+  /**
+   * The system property that names a pre-provisioned keymap. The value is
+   * a file path, or a classpath resource prefixed with {@code classpath:},
+   * in the format read by {@link XCKeyMapFiles}. If set, the keymap is used
+   * as-is: no keys are probed, and the cache is not consulted.
+   */
+
+  public static final String KEYMAP_FILE_PROPERTY =
+    "com.io7m.xoanon.keymap.file";
+
+  /**
+   * The system property that names a file to which the keymap is exported,
+   * in the format read by {@link XCKeyMapFiles}, once it has been loaded or
+   * generated. The exported file can then be used as a pre-provisioned
+   * keymap with {@link #KEYMAP_FILE_PROPERTY}.
+   */
+
+  public static final String KEYMAP_EXPORT_PROPERTY =
+    "com.io7m.xoanon.keymap.export";
+
   private static final Logger LOG =
     LoggerFactory.getLogger(XCCommander.class);
 
   private static final Set<KeyCode> ALL_KEY_CODES =
     generateAllAllowedKeyCodes();
 
+  /*
+   * The characters used to spot-check a cached keymap. These are chosen to
+   * differ between common layouts (QWERTY/QWERTZ/AZERTY, and the various
+   * placements of '@' and '#').
+   */
+
+  private static final String SPOT_CHECK_CHARACTERS =
+    "azyAZY@#2";
+
+  private static final int KEY_PROBE_BURST = 16;
+  private static final int KEY_PROBE_READ_ATTEMPTS = 8;
+
   private final ScheduledExecutorService executor;
+  private final ExecutorService keyMapExecutor;
   private final XBStrings strings;
   private final Stage stage;
   private final ObservableList<XCTestInfo> testsList;
   private final AtomicReference<XCKeyMap> keyMap;
+  private final AtomicReference<CompletableFuture<XCKeyMap>> keyMapPending;
+  private final Set<Character> keyMapUnresolvable;
   private final XCKeyMapCache keyMapCache;
+  private final XCKeyMapProber keyMapProber;
+  private final boolean keyMapLazy;
+  private final KeyMapXKBMode keyMapXKB;
   private final AtomicReference<XCRobot> robot;
   private final Robot baseRobot;
   private final AtomicBoolean testsStarted;
@@ -211,15 +280,41 @@ public final class XCCommander
         return thread;
       });
 
+    /*
+     * Keymap loading, generation, and resolution can take seconds, and so
+     * run on their own thread rather than delaying the periodic updates
+     * scheduled on the main executor.
+     */
+
+    this.keyMapExecutor =
+      Executors.newSingleThreadExecutor(runnable -> {
+        final var thread = new Thread(runnable);
+        thread.setName(
+          "com.io7m.xoanon.commander.keymap[%d]"
+            .formatted(Long.valueOf(thread.getId())));
+        thread.setDaemon(true);
+        return thread;
+      });
+
     this.testsList =
       FXCollections.observableArrayList();
     this.keyMap =
       new AtomicReference<>();
+    this.keyMapPending =
+      new AtomicReference<>();
+    this.keyMapUnresolvable =
+      ConcurrentHashMap.newKeySet();
     this.keyMapCache =
       new XCKeyMapCache(
         Clock.systemUTC(),
         Paths.get(System.getProperty("java.io.tmpdir"))
       );
+    this.keyMapProber =
+      new XCKeyMapProber(this::keyMapProbe);
+    this.keyMapLazy =
+      Boolean.getBoolean(KEYMAP_LAZY_PROPERTY);
+    this.keyMapXKB =
+      KeyMapXKBMode.ofProperty(System.getProperty(KEYMAP_XKB_PROPERTY));
     this.robot =
       new AtomicReference<>();
     this.baseRobot =
@@ -373,7 +468,7 @@ public final class XCCommander
 
     this.splash.setVisible(true);
     this.executor.schedule(
-      () -> Platform.runLater(this::splashHide),
+      () -> XCFXThread.runLater(this::splashHide),
       1L,
       TimeUnit.SECONDS
     );
@@ -434,7 +529,7 @@ public final class XCCommander
     final var usedProp =
       (double) used / (double) max;
 
-    Platform.runLater(() -> {
+    XCFXThread.runV(LOW, () -> {
       this.heapText.setText(
         String.format(
           "Heap: Used: %s Max: %s",
@@ -495,16 +590,17 @@ public final class XCCommander
   private Void shutDown()
     throws Exception
   {
-    Platform.runLater(() -> {
+    XCFXThread.runLater(() -> {
       this.status.setText("Shutting down...");
     });
 
     final var closeLatch = new CountDownLatch(1);
-    Platform.runLater(() -> {
+    XCFXThread.runLater(() -> {
       this.splashShow(closeLatch::countDown);
     });
     closeLatch.await(30L, TimeUnit.SECONDS);
 
+    this.keyMapExecutor.shutdown();
     this.executor.shutdown();
     return null;
   }
@@ -523,7 +619,7 @@ public final class XCCommander
 
     if (this.testsStarted.compareAndSet(false, true)) {
       this.executor.scheduleAtFixedRate(() -> {
-        Platform.runLater(() -> {
+        XCFXThread.runV(LOW, () -> {
           this.dataDuration.setText(
             java.time.Duration.between(
               this.timeStarted,
@@ -534,7 +630,7 @@ public final class XCCommander
       }, 0L, 1L, TimeUnit.SECONDS);
     }
 
-    Platform.runLater(() -> {
+    XCFXThread.runV(LOW, () -> {
       this.testsRegistered.add(test.id());
 
       switch (test.state()) {
@@ -563,9 +659,7 @@ public final class XCCommander
 
         }
       }
-    });
 
-    Platform.runLater(() -> {
       final var newList =
         this.tests.getItems()
           .stream()
@@ -586,11 +680,29 @@ public final class XCCommander
       return CompletableFuture.completedFuture(existing);
     }
 
+    /*
+     * Only one load or generation job runs at a time; concurrent callers
+     * share its future. A failed job is forgotten so that a later call
+     * can try again.
+     */
+
+    final var pending = this.keyMapPending.get();
+    if (pending != null) {
+      return pending;
+    }
+
     final var future = new CompletableFuture<XCKeyMap>();
-    this.executor.execute(() -> {
+    if (!this.keyMapPending.compareAndSet(null, future)) {
+      return this.keyMapPending.get();
+    }
+
+    this.keyMapExecutor.execute(() -> {
       try {
-        future.complete(this.keyMapLoadCachedOrGenerate());
+        final var map = this.keyMapLoadCachedOrGenerate();
+        keyMapExport(map);
+        future.complete(map);
       } catch (final Throwable e) {
+        this.keyMapPending.compareAndSet(future, null);
         future.completeExceptionally(e);
       }
     });
@@ -600,7 +712,7 @@ public final class XCCommander
   @Override
   public void sendToBack()
   {
-    Platform.runLater(this.stage::toBack);
+    XCFXThread.runLater(this.stage::toBack);
   }
 
   @Override
@@ -611,12 +723,23 @@ public final class XCCommander
       return CompletableFuture.completedFuture(existing);
     }
 
-    return this.keyMap()
-      .thenApply(k -> {
-        final var newRobot = new XCRobot(k, this.baseRobot);
-        this.robot.set(newRobot);
-        return newRobot;
-      });
+    /*
+     * The robot is created immediately, and only waits for the keymap the
+     * first time it needs to translate text to keys.
+     */
+
+    final Optional<XCKeyMapResolverType> resolver;
+    if (this.keyMapLazy) {
+      resolver = Optional.of(this::keyMapResolve);
+    } else {
+      resolver = Optional.empty();
+    }
+
+    final var newRobot = new XCRobot(this::keyMap, this.baseRobot, resolver);
+    if (this.robot.compareAndSet(null, newRobot)) {
+      return CompletableFuture.completedFuture(newRobot);
+    }
+    return CompletableFuture.completedFuture(this.robot.get());
   }
 
   @Override
@@ -683,7 +806,7 @@ public final class XCCommander
   public void setApplicationInfo(
     final XCApplicationInfo appInfo)
   {
-    Platform.runLater(() -> {
+    XCFXThread.runV(LOW, () -> {
       this.dataApp.setText(appInfo.name());
       this.dataVersion.setText(appInfo.version());
       this.dataCommit.setText(appInfo.build());
@@ -709,26 +832,134 @@ public final class XCCommander
     );
   }
 
+  private static void keyMapExport(
+    final XCKeyMap map)
+  {
+    final var location = System.getProperty(KEYMAP_EXPORT_PROPERTY);
+    if (location == null || location.isBlank()) {
+      return;
+    }
+
+    try {
+      XCKeyMapFiles.write(Paths.get(location.trim()), map);
+      LOG.info("exported the keymap to {}", location);
+    } catch (final IOException e) {
+      LOG.error("unable to export the keymap to {}: ", location, e);
+    }
+  }
+
   /*
    * Check if there's a suitable cached keymap. If there isn't, generate one.
+   * The cache is locked throughout, so concurrently running test JVMs
+   * generate at most one keymap between them.
    */
 
   private XCKeyMap keyMapLoadCachedOrGenerate()
+    throws Exception
   {
-    final var cached = this.keyMapCache.load();
-    if (cached.isPresent()) {
-      final var newMap = cached.get();
-      this.keyMap.set(newMap);
-      return newMap;
+    final var location = System.getProperty(KEYMAP_FILE_PROPERTY);
+    if (location != null && !location.isBlank()) {
+      final var map = XCKeyMapFiles.readLocation(location.trim());
+      LOG.info(
+        "using the keymap {} ({} keys)",
+        location,
+        Integer.valueOf(map.keys().size())
+      );
+      this.keyMap.set(map);
+      return map;
     }
 
+    final var fingerprint = XCKeyMapFingerprint.current();
+    LOG.debug("keyboard layout fingerprint: {}", fingerprint.value());
+
+    if (this.keyMapXKB == KeyMapXKBMode.TRUST) {
+      final var derived = keyMapDerive();
+      if (derived.isPresent()) {
+        final var map = derived.get();
+        LOG.info(
+          "using a keymap derived from XKB data ({} keys)",
+          Integer.valueOf(map.keys().size())
+        );
+        this.keyMap.set(map);
+        return map;
+      }
+    }
+
+    if (this.keyMapLazy) {
+      final var cached =
+        this.keyMapCache.load(fingerprint, 0)
+          .filter(this::keyMapSpotCheck);
+
+      final XCKeyMap map;
+      if (cached.isPresent()) {
+        map = cached.get();
+        this.keyMapUnresolvable.addAll(
+          this.keyMapCache.loadUnresolvable(fingerprint));
+      } else {
+        map = XCKeyMap.empty();
+      }
+
+      LOG.info(
+        "lazy keymap mode: starting with {} keys ({} unresolvable)",
+        Integer.valueOf(map.keys().size()),
+        Integer.valueOf(this.keyMapUnresolvable.size())
+      );
+      this.keyMap.set(map);
+      return map;
+    }
+
+    final var map =
+      this.keyMapCache.loadOrGenerate(
+        fingerprint,
+        this::keyMapSpotCheck,
+        this::keyMapDeriveOrGenerate
+      );
+
+    this.keyMap.set(map);
+    return map;
+  }
+
+  /*
+   * Derive a keymap from XKB data and check it against the live keyboard,
+   * falling back to interactive generation if derivation fails or the
+   * derived keymap disagrees with the keyboard.
+   */
+
+  private XCKeyMap keyMapDeriveOrGenerate()
+  {
+    if (this.keyMapXKB == KeyMapXKBMode.VERIFY) {
+      final var derived =
+        keyMapDerive().filter(this::keyMapSpotCheck);
+
+      if (derived.isPresent()) {
+        LOG.info("using a verified keymap derived from XKB data");
+        return derived.get();
+      }
+    }
+    return this.keyMapGenerateWithRetries();
+  }
+
+  private static Optional<XCKeyMap> keyMapDerive()
+  {
+    final var timeThen = System.nanoTime();
+    final var derived =
+      XCKeyMapsXKB.derive()
+        .filter(m -> m.keys().size() >= XCKeyMapCache.MINIMUM_COMPLETE_KEYS);
+    final var timeNow = System.nanoTime();
+
+    LOG.debug(
+      "xkb: derivation {} in {}ms",
+      derived.isPresent() ? "succeeded" : "failed",
+      Long.valueOf((timeNow - timeThen) / 1_000_000L)
+    );
+    return derived;
+  }
+
+  private XCKeyMap keyMapGenerateWithRetries()
+  {
     for (var attempt = 0; attempt < 3; ++attempt) {
-      final XCKeyMap generated;
       try {
-        generated = this.keyMapGenerate();
-        this.keyMap.set(generated);
-        this.keyMapCache.save(generated);
-        return generated;
+        return this.keyMapGenerate();
       } catch (final Exception e) {
         // Failed to generate a keymap
       }
@@ -737,6 +968,98 @@ public final class XCCommander
     throw new IllegalStateException("Failed to generate a keymap.");
   }
 
+  /*
+   * Check a few layout-sensitive characters of a cached keymap against the
+   * live keyboard. This takes a fraction of a second, compared to the
+   * seconds required to generate a complete keymap.
+   */
+
+  private boolean keyMapSpotCheck(
+    final XCKeyMap map)
+  {
+    var accepted = false;
+    try {
+      this.keyMapInputBegin("Checking cached keymap...");
+
+      for (final var character : SPOT_CHECK_CHARACTERS.toCharArray()) {
+        final var boxed = Character.valueOf(character);
+        final var key = map.keys().get(boxed);
+        if (key == null || key.isAlt() || key.isControl()) {
+          continue;
+        }
+
+        final var text =
+          this.keyMapProbe(List.of(key.code()), key.isShift());
+
+        if (text.isEmpty() || text.charAt(0) != character) {
+          LOG.info(
+            "spot check: '{}' expected {} but the keyboard produced '{}'",
+            boxed,
+            key,
+            text
+          );
+          return false;
+        }
+      }
+
+      accepted = true;
+      return true;
+    } catch (final Throwable e) {
+      LOG.debug("spot check: ", e);
+      return false;
+    } finally {
+      this.keyMapInputEndQuietly(
+        accepted ? "Checked cached keymap." : "Rejected cached keymap.");
+      Platform.requestNextPulse();
+      this.releaseAllKeys();
+    }
+  }
+
+  /*
+   * Bring the commander to the front and enable the input field used to
+   * observe the text produced by keys.
+   */
+
+  private void keyMapInputBegin(
+    final String message)
+    throws InterruptedException
+  {
+    XCFXThread.runLater(this.stage::toFront);
+    Thread.sleep(250L);
+
+    XCFXThread.batch()
+      .add(() -> this.input.setDisable(false))
+      .add(() -> this.input.requestFocus())
+      .add(() -> this.status.setText(message))
+      .add(this::diagnosticsUnlock)
+      .submit();
+  }
+
+  private void keyMapInputEnd(
+    final String message)
+    throws Exception
+  {
+    XCFXThread.batch()
+      .add(() -> this.status.setText(message))
+      .add(() -> this.input.clear())
+      .add(() -> this.input.setDisable(true))
+      .add(this::diagnosticsLock)
+      .submit()
+      .get();
+  }
+
+  private void keyMapInputEndQuietly(
+    final String message)
+  {
+    try {
+      this.keyMapInputEnd(message);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final Exception e) {
+      LOG.debug("unable to disable keymap input: ", e);
+    }
+  }
+
   /**
    * Generate a keymap by pressing every non-special key on the keyboard
    * and recording what happens. The mapping can then be used to work backwards
@@ -756,60 +1079,39 @@ public final class XCCommander
        * For keymap generation, the commander window must be at the front.
        */
 
-      Platform.runLater(this.stage::toFront);
-      Thread.sleep(250L);
-
-      Platform.runLater(() -> {
-        this.input.setDisable(false);
-      });
-
-      Platform.runLater(() -> {
-        this.input.requestFocus();
-      });
-
-      Platform.runLater(() -> {
-        this.status.setText("Generating keymap...");
-      });
-
-      Platform.runLater(this::diagnosticsUnlock);
+      this.keyMapInputBegin("Generating keymap...");
 
       final var newMappings =
-        new ConcurrentHashMap<Character, XCKey>();
-
-      final var index = new AtomicInteger(1);
-      final var count = ALL_KEY_CODES.size();
-
-      for (final var code : ALL_KEY_CODES) {
-        Platform.runLater(() -> {
-          this.progress.setProgress(
-            index.doubleValue() / (double) count
-          );
-        });
+        new HashMap<Character, XCKey>(ALL_KEY_CODES.size() * 2);
 
-        for (var attempt = 0; attempt < 2; ++attempt) {
-          this.keyMapGenerateOneCharacter(newMappings, code);
-        }
+      final var codes =
+        ALL_KEY_CODES.stream()
+          .sorted()
+          .toList();
 
-        Platform.requestNextPulse();
-        Platform.runLater(index::incrementAndGet);
+      final var bursts = new ArrayList<List<KeyCode>>();
+      for (int start = 0; start < codes.size(); start += KEY_PROBE_BURST) {
+        final var end = Math.min(codes.size(), start + KEY_PROBE_BURST);
+        bursts.add(codes.subList(start, end));
       }
 
-      Platform.requestNextPulse();
-      Platform.runLater(() -> {
-        this.status.setText("Generated keymap.");
-      });
-
-      Platform.runLater(() -> {
-        this.input.clear();
-      });
+      /*
+       * Probe everything without modifiers first, so that unmodified keys
+       * are preferred when a character can be produced in more than one way.
+       */
 
-      Platform.runLater(() -> {
-        this.input.setDisable(true);
-      });
+      final var count = bursts.size() * 2;
+      var index = 0;
+      for (final var shift : List.of(Boolean.FALSE, Boolean.TRUE)) {
+        for (final var burst : bursts) {
+          ++index;
+          final var progressNow = (double) index / (double) count;
+          XCFXThread.runV(LOW, () -> this.progress.setProgress(progressNow));
+          this.keyMapProber.probe(newMappings, burst, shift.booleanValue());
+        }
+      }
 
-      final var latch = new CountDownLatch(1);
-      Platform.runLater(latch::countDown);
-      latch.await();
+      this.keyMapInputEnd("Generated keymap.");
 
       LOG.debug(
         "Generated key map of size {}",
@@ -823,7 +1125,7 @@ public final class XCCommander
       this.keyMap.set(result);
       return result;
     } catch (final Throwable e) {
-      Platform.runLater(this::diagnosticsLock);
+      XCFXThread.runLater(this::diagnosticsLock);
       throw e;
     } finally {
       Platform.requestNextPulse();
@@ -831,110 +1133,222 @@ public final class XCCommander
     }
   }
 
-  private void keyMapGenerateOneCharacter(
-    final ConcurrentHashMap<Character, XCKey> newMappings,
-    final KeyCode code)
-  {
-    Platform.runLater(() -> {
-      LOG.trace("check {}", code);
-      this.status.setText("Generating keymap: Checking text for %s".formatted(
-        code));
-
-      final var bounds =
-        this.input.localToScreen(this.input.getBoundsInLocal());
-      final var target =
-        new Point2D(bounds.getCenterX(), bounds.getCenterY());
+  /*
+   * Discover keys for the given code points on demand, merging any
+   * discoveries into the current keymap and the cache. Key codes whose
+   * names suggest the characters are probed first (with and without
+   * shift), followed by all other key codes, stopping as soon as every
+   * character has been found. Characters that no key produces are
+   * remembered (and cached), so each is searched for at most once.
+   */
 
-      this.baseRobot.mouseMove(target);
-      this.baseRobot.mouseClick(MouseButton.PRIMARY);
-    });
+  private XCKeyMap keyMapResolve(
+    final Set<Integer> codePoints)
+    throws Exception
+  {
+    final var future =
+      this.keyMapExecutor.submit(() -> this.keyMapResolveNow(codePoints));
 
-    this.keyMapGenerateOneCharacterNoModifiers(newMappings, code);
-    this.keyMapGenerateOneCharacterShift(newMappings, code);
+    try {
+      return future.get(XCRobot.KEY_MAP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (final TimeoutException e) {
+      future.cancel(true);
+      throw e;
+    }
   }
 
-  private void keyMapGenerateOneCharacterShift(
-    final ConcurrentHashMap<Character, XCKey> newMappings,
-    final KeyCode code)
+  private XCKeyMap keyMapResolveNow(
+    final Set<Integer> codePoints)
+    throws Exception
   {
-    Platform.requestNextPulse();
-    Platform.runLater(() -> {
-      this.input.clear();
-    });
+    final var current =
+      Objects.requireNonNullElseGet(this.keyMap.get(), XCKeyMap::empty);
+    final var mappings =
+      new HashMap<>(current.keys());
+
+    final var wanted = this.keyMapWanted(codePoints, mappings);
+    if (wanted.isEmpty()) {
+      return current;
+    }
 
-    Platform.requestNextPulse();
-    Platform.runLater(() -> {
-      this.baseRobot.keyPress(SHIFT);
-    });
+    LOG.info("lazy keymap mode: resolving {}", wanted);
 
-    Platform.requestNextPulse();
-    Platform.runLater(() -> {
-      this.baseRobot.keyType(code);
-    });
+    try {
+      this.keyMapInputBegin("Resolving keymap...");
+
+      final var candidates = new ArrayList<KeyCode>();
+      final var others = new ArrayList<KeyCode>();
+      for (final var code : ALL_KEY_CODES.stream().sorted().toList()) {
+        if (keyMapIsCandidate(code, wanted)) {
+          candidates.add(code);
+        } else {
+          others.add(code);
+        }
+      }
 
-    pause();
+      if (!this.keyMapResolveSearch(mappings, wanted, candidates)) {
+        this.keyMapResolveSearch(mappings, wanted, others);
+      }
 
-    Platform.requestNextPulse();
-    Platform.runLater(() -> {
-      this.baseRobot.keyRelease(SHIFT);
-    });
+      this.keyMapInputEnd("Resolved keymap.");
+    } catch (final Throwable e) {
+      XCFXThread.runLater(this::diagnosticsLock);
+      throw e;
+    } finally {
+      Platform.requestNextPulse();
+      this.releaseAllKeys();
+    }
 
-    Platform.requestNextPulse();
-    Platform.runLater(() -> {
-      final var text = this.input.getText();
-      LOG.trace("SHIFT code {} -> '{}'", code, text);
-      if (text.isEmpty()) {
-        return;
+    for (final var character : wanted) {
+      if (!mappings.containsKey(character)) {
+        LOG.info("lazy keymap mode: no key produces '{}'", character);
+        this.keyMapUnresolvable.add(character);
       }
-      final var characters = text.toCharArray();
-      final var character = characters[0];
+    }
 
-      newMappings.put(
-        Character.valueOf(character),
-        new XCKey(code, true, false, false)
-      );
-    });
+    final var result = new XCKeyMap(Map.copyOf(mappings));
+    this.keyMap.set(result);
+    this.keyMapCache.save(
+      XCKeyMapFingerprint.current(),
+      result,
+      Set.copyOf(this.keyMapUnresolvable)
+    );
+    return result;
   }
 
-  private void keyMapGenerateOneCharacterNoModifiers(
-    final ConcurrentHashMap<Character, XCKey> newMappings,
-    final KeyCode code)
+  /*
+   * The characters that are worth searching for: those that are neither
+   * already mapped nor already known to be unresolvable.
+   */
+
+  private Set<Character> keyMapWanted(
+    final Set<Integer> codePoints,
+    final Map<Character, XCKey> mappings)
   {
-    Platform.requestNextPulse();
-    Platform.runLater(() -> {
-      this.input.clear();
-    });
+    final var wanted = new HashSet<Character>();
+    for (final var codePoint : codePoints) {
+      final var value = codePoint.intValue();
+      if (Character.isBmpCodePoint(value)) {
+        final var character = Character.valueOf((char) value);
+        if (!mappings.containsKey(character)
+            && !this.keyMapUnresolvable.contains(character)) {
+          wanted.add(character);
+        }
+      }
+    }
+    return wanted;
+  }
 
-    Platform.requestNextPulse();
-    Platform.runLater(() -> {
-      this.baseRobot.keyType(code);
-    });
+  private boolean keyMapResolveSearch(
+    final Map<Character, XCKey> mappings,
+    final Set<Character> wanted,
+    final List<KeyCode> codes)
+    throws Exception
+  {
+    for (final var shift : List.of(Boolean.FALSE, Boolean.TRUE)) {
+      for (int start = 0; start < codes.size(); start += KEY_PROBE_BURST) {
+        final var end = Math.min(codes.size(), start + KEY_PROBE_BURST);
+        this.keyMapProber.probe(
+          mappings, codes.subList(start, end), shift.booleanValue());
+        if (mappings.keySet().containsAll(wanted)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
 
-    pause();
+  /**
+   * @param code   The key code
+   * @param wanted The characters being resolved
+   *
+   * @return {@code true} if the name of the key code suggests that the key
+   * produces one of the given characters
+   */
 
-    Platform.requestNextPulse();
-    Platform.runLater(() -> {
-      final var text = this.input.getText();
-      LOG.trace("code {} -> '{}'", code, text);
-      if (text.isEmpty()) {
-        return;
+  public static boolean keyMapIsCandidate(
+    final KeyCode code,
+    final Set<Character> wanted)
+  {
+    final var name = code.getChar();
+    for (final var character : wanted) {
+      if (name.equalsIgnoreCase(character.toString())) {
+        return true;
       }
-      final var characters = text.toCharArray();
-      final var character = characters[0];
+    }
+    return false;
+  }
 
-      newMappings.put(
-        Character.valueOf(character),
-        new XCKey(code, false, false, false)
-      );
+  /*
+   * Clear the input, type the given keys (optionally holding shift), and
+   * return the resulting text. The text is read repeatedly until it either
+   * contains one character per key or stops changing.
+   */
+
+  private String keyMapProbe(
+    final List<KeyCode> codes,
+    final boolean shift)
+    throws Exception
+  {
+    this.keyMapFocusInput(codes);
+
+    final var batch = XCFXThread.batch();
+    batch.add(() -> this.input.clear());
+    if (shift) {
+      batch.add(() -> this.baseRobot.keyPress(SHIFT));
+    }
+    for (final var code : codes) {
+      batch.add(() -> this.baseRobot.keyType(code));
+    }
+    batch.submit();
+
+    var text = "";
+    for (var attempt = 0; attempt < KEY_PROBE_READ_ATTEMPTS; ++attempt) {
+      pause();
+      final var previous = text;
+      text = XCFXThread.runAndWait(1L, TimeUnit.SECONDS, this.input::getText);
+      if (text.length() >= codes.size()) {
+        break;
+      }
+      if (attempt > 0 && text.equals(previous)) {
+        break;
+      }
+    }
+
+    if (shift) {
+      XCFXThread.runV(() -> this.baseRobot.keyRelease(SHIFT));
+    }
+
+    LOG.trace(
+      "codes {} (shift {}) -> '{}'", codes, Boolean.valueOf(shift), text);
+    return text;
+  }
+
+  private void keyMapFocusInput(
+    final List<KeyCode> codes)
+  {
+    XCFXThread.runLater(() -> {
+      LOG.trace("check {}", codes);
+      this.status.setText("Generating keymap: Checking text for %s".formatted(
+        codes));
+
+      final var bounds =
+        this.input.localToScreen(this.input.getBoundsInLocal());
+      final var target =
+        new Point2D(bounds.getCenterX(), bounds.getCenterY());
+
+      this.baseRobot.mouseMove(target);
+      this.baseRobot.mouseClick(MouseButton.PRIMARY);
     });
   }
 
   private void releaseAllKeys()
   {
+    final var batch = XCFXThread.batch();
     for (final var code : ALL_KEY_CODES) {
-      Platform.runLater(() -> this.baseRobot.keyRelease(code));
-      Platform.requestNextPulse();
+      batch.add(() -> this.baseRobot.keyRelease(code));
     }
+    batch.submit();
   }
 
   private void diagnosticsUnlock()
@@ -948,4 +1362,24 @@ public final class XCCommander
     this.input.setFocusTraversable(false);
     this.input.setMouseTransparent(true);
   }
+
+  private enum KeyMapXKBMode
+  {
+    VERIFY,
+    TRUST,
+    DISABLED;
+
+    static KeyMapXKBMode ofProperty(
+      final String value)
+    {
+      if (value == null || value.isBlank()) {
+        return VERIFY;
+      }
+      return switch (value.trim().toLowerCase(Locale.ROOT)) {
+        case "trust" -> TRUST;
+        case "disabled", "false" -> DISABLED;
+        default -> VERIFY;
+      };
+    }
+  }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCFXThread;
+import com.io7m.xoanon.commander.api.XCOnAnyThread;
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.event.EventHandler;
+import javafx.event.EventType;
+import javafx.scene.Scene;
+import javafx.scene.input.InputEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * <p>A pacer that observes the input events that are delivered to scenes,
+ * allowing the robot to wait until injected input has actually been
+ * dispatched instead of sleeping for a fixed time.</p>
+ *
+ * <p>Each expectation is assigned a sequence number, and expectations on a
+ * given scene are acknowledged strictly in sequence order: an event delivered
+ * to the scene is counted against the oldest outstanding expectation for
+ * the event's type. An event filter is installed on each scene the first
+ * time an expectation is registered against it.</p>
+ */
+
+public final class XCInputPacer
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XCInputPacer.class);
+
+  private final WeakHashMap<Scene, SceneWatcher> watchers;
+  private long sequence;
+
+  /**
+   * A pacer that observes the input events that are delivered to scenes.
+   */
+
+  public XCInputPacer()
+  {
+    this.watchers = new WeakHashMap<>();
+  }
+
+  /**
+   * Register an expectation that {@code count} events of the given type
+   * will be delivered to the scene returned by {@code scene}. The scene is
+   * evaluated on the JavaFX thread, and the expectation is registered
+   * before any work subsequently submitted to the JavaFX thread by the
+   * calling thread is executed. The returned future completes with
+   * {@code true} when the events have been observed, or with {@code false}
+   * if there was no scene to observe (in which case the caller should fall
+   * back to a fixed pause). Cancelling the future withdraws the expectation.
+   *
+   * @param scene The scene supplier
+   * @param type  The event type
+   * @param count The number of events
+   *
+   * @return A future that completes when the events have been observed
+   */
+
+  @XCOnAnyThread
+  public CompletableFuture<Boolean> expect(
+    final Supplier<Scene> scene,
+    final EventType<? extends InputEvent> type,
+    final int count)
+  {
+    Objects.requireNonNull(scene, "scene");
+    Objects.requireNonNull(type, "type");
+
+    final var future = new CompletableFuture<Boolean>();
+    if (count <= 0) {
+      future.complete(Boolean.TRUE);
+      return future;
+    }
+
+    XCFXThread.runV(() -> this.opArm(scene.get(), type, count, future))
+      .whenComplete((ignored, exception) -> {
+        if (exception != null) {
+          future.completeExceptionally(exception);
+        }
+      });
+    return future;
+  }
+
+  @XCOnFXThread
+  private void opArm(
+    final Scene scene,
+    final EventType<? extends InputEvent> type,
+    final int count,
+    final CompletableFuture<Boolean> future)
+  {
+    if (scene == null) {
+      future.complete(Boolean.FALSE);
+      return;
+    }
+
+    var watcher = this.watchers.get(scene);
+    if (watcher == null) {
+      watcher = new SceneWatcher();
+      scene.addEventFilter(InputEvent.ANY, watcher);
+      this.watchers.put(scene, watcher);
+    }
+
+    final var expectation =
+      new Expectation(++this.sequence, type, count, future);
+
+    LOG.trace("expect {} {} ({})", count, type, expectation.sequence);
+    watcher.pending.add(expectation);
+  }
+
+  private static final class Expectation
+  {
+    private final long sequence;
+    private final EventType<? extends InputEvent> type;
+    private final CompletableFuture<Boolean> future;
+    private int remaining;
+
+    Expectation(
+      final long inSequence,
+      final EventType<? extends InputEvent> inType,
+      final int inCount,
+      final CompletableFuture<Boolean> inFuture)
+    {
+      this.sequence = inSequence;
+      this.type = Objects.requireNonNull(inType, "type");
+      this.remaining = inCount;
+      this.future = Objects.requireNonNull(inFuture, "future");
+    }
+
+    boolean matches(
+      final EventType<?> eventType)
+    {
+      for (var t = eventType; t != null; t = t.getSuperType()) {
+        if (Objects.equals(t, this.type)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class SceneWatcher
+    implements EventHandler<InputEvent>
+  {
+    private final ArrayList<Expectation> pending;
+
+    SceneWatcher()
+    {
+      this.pending = new ArrayList<>();
+    }
+
+    @Override
+    public void handle(
+      final InputEvent event)
+    {
+      if (this.pending.isEmpty()) {
+        return;
+      }
+
+      this.pending.removeIf(e -> e.future.isDone());
+
+      final var eventType = event.getEventType();
+      for (int index = 0; index < this.pending.size(); ++index) {
+        final var expectation = this.pending.get(index);
+        if (expectation.matches(eventType)) {
+          --expectation.remaining;
+          if (expectation.remaining <= 0) {
+            LOG.trace("acknowledged {}", expectation.sequence);
+            this.pending.remove(index);
+            expectation.future.complete(Boolean.TRUE);
+          }
+          return;
+        }
+      }
+    }
+  }
+}
@@ -14,111 +14,428 @@
  * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
  */
 
+
 package com.io7m.xoanon.commander.internal;
 
+import com.io7m.xoanon.commander.api.XCKey;
 import com.io7m.xoanon.commander.api.XCKeyMap;
+import javafx.scene.input.KeyCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.FileTime;
 import java.time.Clock;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
- * A simple cache for key maps.
+ * <p>A simple cache for key maps.</p>
+ *
+ * <p>The cache holds keymaps for several keyboard layouts, each keyed by a
+ * {@link XCKeyMapFingerprint}. When more than {@link #MAXIMUM_ENTRIES}
+ * layouts are stored, the least recently used layout is evicted. Entries
+ * do not expire; callers are expected to validate a loaded keymap against
+ * the live keyboard before trusting it.</p>
+ *
+ * <p>The cache may be shared by several processes (such as forked test
+ * JVMs). All access to the cache file is serialized by an exclusive lock
+ * on a separate lock file (and by an in-process lock, because file locks
+ * are held on behalf of the entire JVM). The cache file is written to a
+ * temporary file and atomically renamed into place, so readers never
+ * observe a partially written file.</p>
+ *
+ * <p>The cache file uses a compact, versioned binary format:</p>
+ *
+ * <pre>
+ * file    := magic:u32 version:u32 count:u32 entry[count]
+ * entry   := fingerprint:utf lastUsed:i64
+ *            paletteCount:u16 palette[paletteCount]
+ *            keyCount:u32 key[keyCount]
+ *            unresolvableCount:u32 character:u16[unresolvableCount]
+ * palette := code:utf modifiers:u8
+ * key     := character:u16 paletteIndex:u16
+ * </pre>
+ *
+ * <p>The unresolvable characters of an entry are those that lazy key map
+ * population has already searched for and found that no key produces.</p>
  */
 
 public final class XCKeyMapCache
 {
+  /**
+   * The maximum number of layouts held in the cache.
+   */
+
+  public static final int MAXIMUM_ENTRIES = 4;
+
+  /**
+   * The minimum number of keys in a complete key map.
+   */
+
+  public static final int MINIMUM_COMPLETE_KEYS = 88;
+
+  /**
+   * The default maximum time spent waiting for the cache lock. This is
+   * deliberately shorter than the time the robot is prepared to wait for a
+   * key map, so that a process stuck behind a lock held by a hung process
+   * still has time to generate its own key map.
+   */
+
+  public static final Duration DEFAULT_LOCK_TIMEOUT =
+    Duration.ofSeconds(20L);
+
+  private static final long LOCK_POLL_MILLISECONDS = 50L;
+
   private static final Logger LOG =
     LoggerFactory.getLogger(XCKeyMapCache.class);
 
+  private static final int FILE_MAGIC = 0x584F4B4D;
+  private static final int FILE_VERSION = 2;
+  private static final int MODIFIER_SHIFT = 0b001;
+  private static final int MODIFIER_ALT = 0b010;
+  private static final int MODIFIER_CONTROL = 0b100;
+
   private static final StandardOpenOption[] FILE_OPTIONS = {
     WRITE, CREATE, TRUNCATE_EXISTING,
   };
 
+  private static final Comparator<Entry> MOST_RECENT_FIRST =
+    Comparator.comparingLong((Entry e) -> e.lastUsed).reversed();
+
+  private static final ReentrantLock PROCESS_LOCK =
+    new ReentrantLock();
+
   private final Path temporaryDirectory;
   private final Clock clock;
+  private final Duration lockTimeout;
 
   /**
    * A simple cache for key maps.
    *
-   * @param inClock The clock
+   * @param inClock     The clock used to track entry usage
    * @param inDirectory The temporary directory
    */
 
   public XCKeyMapCache(
     final Clock inClock,
     final Path inDirectory)
+  {
+    this(inClock, inDirectory, DEFAULT_LOCK_TIMEOUT);
+  }
+
+  /**
+   * A simple cache for key maps.
+   *
+   * @param inClock       The clock used to track entry usage
+   * @param inDirectory   The temporary directory
+   * @param inLockTimeout The maximum time spent waiting for the cache lock
+   */
+
+  public XCKeyMapCache(
+    final Clock inClock,
+    final Path inDirectory,
+    final Duration inLockTimeout)
   {
     this.clock =
       Objects.requireNonNull(inClock, "inClock");
     this.temporaryDirectory =
       Objects.requireNonNull(inDirectory, "temporaryDirectory");
+    this.lockTimeout =
+      Objects.requireNonNull(inLockTimeout, "inLockTimeout");
+  }
+
+  /**
+   * Load the cached key map for the given layout, if one exists and is
+   * complete (that is, contains at least {@link #MINIMUM_COMPLETE_KEYS}
+   * keys).
+   *
+   * @param fingerprint The layout fingerprint
+   *
+   * @return The cached map
+   */
+
+  public Optional<XCKeyMap> load(
+    final XCKeyMapFingerprint fingerprint)
+  {
+    return this.load(fingerprint, MINIMUM_COMPLETE_KEYS);
   }
 
   /**
-   * Load a cached key map, if one exists.
+   * Load the cached key map for the given layout, if one exists and
+   * contains at least {@code minimumKeys} keys. A minimum of zero accepts
+   * the partial key maps produced by lazy key map population.
+   *
+   * @param fingerprint The layout fingerprint
+   * @param minimumKeys The minimum acceptable number of keys
    *
    * @return The cached map
    */
 
-  public Optional<XCKeyMap> load()
+  public Optional<XCKeyMap> load(
+    final XCKeyMapFingerprint fingerprint,
+    final int minimumKeys)
   {
+    Objects.requireNonNull(fingerprint, "fingerprint");
+
     try {
-      final var xoanonDir =
-        Files.createDirectories(this.temporaryDirectory.resolve("xoanon"));
-      final var keyMapFile =
-        xoanonDir.resolve("keymap.bin");
-
-      final var time =
-        Files.getLastModifiedTime(keyMapFile);
-      final var timeOldest =
-        Instant.now(this.clock).minus(1L, ChronoUnit.HOURS);
-      final var timeOldestAcceptable =
-        FileTime.from(timeOldest);
-
-      if (time.compareTo(timeOldestAcceptable) < 0) {
-        LOG.info(
-          "keymap cache file {} is older than {}, ignoring it",
-          keyMapFile,
-          time);
-        return Optional.empty();
-      }
+      return this.withLock(() -> this.loadLocked(fingerprint, minimumKeys));
+    } catch (final Exception e) {
+      LOG.debug("failed to lock keymap cache: ", e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Load the characters recorded as unresolvable for the given layout.
+   *
+   * @param fingerprint The layout fingerprint
+   *
+   * @return The unresolvable characters, or the empty set if there are none
+   *
+   * @see #save(XCKeyMapFingerprint, XCKeyMap, Set)
+   */
 
-      try (var input = Files.newInputStream(keyMapFile)) {
-        try (var objectInput = new ObjectInputStream(input)) {
-          final var map = (XCKeyMap) objectInput.readObject();
-          final var keyCount = map.keys().size();
-          if (keyCount < 88) {
-            LOG.info(
-              "keymap cache file {} only contains {} keys; ignoring it",
-              keyMapFile,
-              Integer.valueOf(keyCount)
-            );
-            return Optional.empty();
+  public Set<Character> loadUnresolvable(
+    final XCKeyMapFingerprint fingerprint)
+  {
+    Objects.requireNonNull(fingerprint, "fingerprint");
+
+    try {
+      return this.withLock(() -> {
+        final var key = fingerprint.value();
+        for (final var entry : readEntries(this.file())) {
+          if (Objects.equals(entry.fingerprint, key)) {
+            return entry.unresolvable;
           }
+        }
+        return Set.<Character>of();
+      });
+    } catch (final Exception e) {
+      LOG.debug("failed to read keymap cache file: ", e);
+      return Set.of();
+    }
+  }
+
+  /**
+   * Load the cached key map for the given layout if one exists and is
+   * accepted by the given validator. Otherwise, generate a new key map
+   * and save it to the cache. The cache remains locked throughout, so if
+   * several processes call this method at the same time, exactly one of
+   * them generates a key map and the others load the result. A process
+   * that cannot acquire the lock within the lock timeout (because the
+   * holder is hung, for example) generates a key map without the lock
+   * and then attempts to publish it.
+   *
+   * @param fingerprint The layout fingerprint
+   * @param validator   A validator for cached key maps
+   * @param generator   A key map generator
+   *
+   * @return A key map
+   *
+   * @throws Exception On errors raised by the generator
+   */
+
+  public XCKeyMap loadOrGenerate(
+    final XCKeyMapFingerprint fingerprint,
+    final Predicate<XCKeyMap> validator,
+    final XCKeyMapGeneratorType generator)
+    throws Exception
+  {
+    Objects.requireNonNull(fingerprint, "fingerprint");
+    Objects.requireNonNull(validator, "validator");
+    Objects.requireNonNull(generator, "generator");
 
+    try {
+      return this.withLock(() -> {
+        final var cached =
+          this.loadLocked(fingerprint, MINIMUM_COMPLETE_KEYS);
+        if (cached.isPresent()) {
+          final var map = cached.get();
+          if (validator.test(map)) {
+            return map;
+          }
+          LOG.info("cached keymap failed validation; generating a new one");
+        }
+
+        final var generated = generator.generate();
+        this.saveLocked(fingerprint, generated, Set.of());
+        return generated;
+      });
+    } catch (final LockTimeoutException e) {
+      LOG.warn("{}; generating a keymap without the cache", e.getMessage());
+      final var generated = generator.generate();
+      this.save(fingerprint, generated);
+      return generated;
+    }
+  }
+
+  /*
+   * Raised when the cache lock could not be acquired in time.
+   */
+
+  private static final class LockTimeoutException extends Exception
+  {
+    LockTimeoutException(
+      final Path file)
+    {
+      super("timed out waiting for the keymap cache lock %s".formatted(file));
+    }
+  }
+
+  private interface LockedOperationType<T>
+  {
+    T execute()
+      throws Exception;
+  }
+
+  /*
+   * Execute the given operation whilst holding both the process lock and
+   * the file lock. The file lock is only acquired by the outermost call on
+   * a given thread, because file locks are not reentrant. Neither lock is
+   * waited for indefinitely: the operation is abandoned with a
+   * LockTimeoutException if both cannot be acquired within the lock
+   * timeout. The operation always reads the cache file after acquiring
+   * the locks, so it observes anything published while it was waiting.
+   */
+
+  private <T> T withLock(
+    final LockedOperationType<T> operation)
+    throws Exception
+  {
+    final var lockFile =
+      this.directory().resolve("keymaps.lock");
+    final var deadline =
+      System.nanoTime() + this.lockTimeout.toNanos();
+
+    if (!PROCESS_LOCK.tryLock(
+      this.lockTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+      throw new LockTimeoutException(lockFile);
+    }
+
+    try {
+      if (PROCESS_LOCK.getHoldCount() > 1) {
+        return operation.execute();
+      }
+
+      try (var channel = FileChannel.open(lockFile, WRITE, CREATE)) {
+        LOG.debug("waiting for keymap cache lock {}", lockFile);
+        try (var ignored = tryLockUntil(channel, lockFile, deadline)) {
+          LOG.debug("acquired keymap cache lock {}", lockFile);
+          return operation.execute();
+        }
+      }
+    } finally {
+      PROCESS_LOCK.unlock();
+    }
+  }
+
+  /*
+   * Poll for the file lock until the given deadline. FileChannel offers
+   * no timed lock operation, and an untimed lock would wait forever on a
+   * lock held by a hung process. An OverlappingFileLockException means
+   * that another channel in this JVM holds the lock, which is treated as
+   * contention like any other.
+   */
+
+  private static FileLock tryLockUntil(
+    final FileChannel channel,
+    final Path lockFile,
+    final long deadline)
+    throws IOException, InterruptedException, LockTimeoutException
+  {
+    while (true) {
+      try {
+        final var lock = channel.tryLock();
+        if (lock != null) {
+          return lock;
+        }
+      } catch (final OverlappingFileLockException e) {
+        LOG.trace("keymap cache lock is held within this process");
+      }
+
+      if (System.nanoTime() - deadline >= 0L) {
+        throw new LockTimeoutException(lockFile);
+      }
+      Thread.sleep(LOCK_POLL_MILLISECONDS);
+    }
+  }
+
+  private Optional<XCKeyMap> loadLocked(
+    final XCKeyMapFingerprint fingerprint,
+    final int minimumKeys)
+  {
+    try {
+      final var keyMapFile = this.file();
+      final var entries = readEntries(keyMapFile);
+      final var key = fingerprint.value();
+
+      for (final var entry : entries) {
+        if (!Objects.equals(entry.fingerprint, key)) {
+          continue;
+        }
+
+        final var keyCount = entry.keyMap.keys().size();
+        if (keyCount < minimumKeys) {
           LOG.info(
-            "loaded keymap cache from {} ({} keys)",
+            "keymap cache file {} only contains {} keys; ignoring it",
             keyMapFile,
             Integer.valueOf(keyCount)
           );
-          return Optional.of(map);
+          return Optional.empty();
         }
+
+        /*
+         * Entries are stored most recently used first. Recording a use of
+         * the first entry cannot change the eviction order, so the file is
+         * only rewritten when some other entry is used. This keeps the
+         * common case (every test JVM loading the same layout) read-only.
+         */
+
+        if (entries.get(0) != entry) {
+          entry.lastUsed = this.clock.millis();
+          entries.sort(MOST_RECENT_FIRST);
+          writeEntries(keyMapFile, entries);
+        }
+
+        LOG.info(
+          "loaded keymap cache from {} ({} keys)",
+          keyMapFile,
+          Integer.valueOf(keyCount)
+        );
+        return Optional.of(entry.keyMap);
       }
+
+      LOG.info("keymap cache file {} has no entry for this layout", keyMapFile);
+      return Optional.empty();
     } catch (final Exception e) {
       LOG.debug("failed to read keymap cache file: ", e);
       return Optional.empty();
@@ -126,32 +443,258 @@ public final class XCKeyMapCache
   }
 
   /**
-   * Save the key map to the cache.
+   * Save the key map for the given layout to the cache, evicting the least
+   * recently used layout if necessary.
    *
-   * @param keyMap The key map
+   * @param fingerprint The layout fingerprint
+   * @param keyMap      The key map
    */
 
   public void save(
+    final XCKeyMapFingerprint fingerprint,
     final XCKeyMap keyMap)
   {
+    this.save(fingerprint, keyMap, Set.of());
+  }
+
+  /**
+   * Save the key map for the given layout to the cache, along with the
+   * characters that are known not to be produced by any key, evicting the
+   * least recently used layout if necessary.
+   *
+   * @param fingerprint  The layout fingerprint
+   * @param keyMap       The key map
+   * @param unresolvable The unresolvable characters
+   */
+
+  public void save(
+    final XCKeyMapFingerprint fingerprint,
+    final XCKeyMap keyMap,
+    final Set<Character> unresolvable)
+  {
+    Objects.requireNonNull(fingerprint, "fingerprint");
     Objects.requireNonNull(keyMap, "keyMap");
+    Objects.requireNonNull(unresolvable, "unresolvable");
 
     try {
-      final var xoanonDir =
-        Files.createDirectories(this.temporaryDirectory.resolve("xoanon"));
-      final var keyMapFile =
-        xoanonDir.resolve("keymap.bin");
-
-      try (var output = Files.newOutputStream(keyMapFile, FILE_OPTIONS)) {
-        try (var objectOutput = new ObjectOutputStream(output)) {
-          objectOutput.writeObject(keyMap);
-          objectOutput.flush();
-        }
+      this.withLock(() -> {
+        this.saveLocked(fingerprint, keyMap, unresolvable);
+        return null;
+      });
+    } catch (final Exception e) {
+      LOG.debug("failed to lock keymap cache: ", e);
+    }
+  }
+
+  private void saveLocked(
+    final XCKeyMapFingerprint fingerprint,
+    final XCKeyMap keyMap,
+    final Set<Character> unresolvable)
+  {
+    try {
+      final var keyMapFile = this.file();
+      final var key = fingerprint.value();
+
+      List<Entry> entries;
+      try {
+        entries = readEntries(keyMapFile);
+      } catch (final IOException e) {
+        LOG.debug("discarding unreadable keymap cache file: ", e);
+        entries = new ArrayList<>();
       }
 
+      entries.removeIf(e -> Objects.equals(e.fingerprint, key));
+      entries.add(
+        new Entry(key, this.clock.millis(), keyMap, Set.copyOf(unresolvable)));
+      entries.sort(MOST_RECENT_FIRST);
+      while (entries.size() > MAXIMUM_ENTRIES) {
+        final var evicted = entries.remove(entries.size() - 1);
+        LOG.info("evicting keymap cache entry {}", evicted.fingerprint);
+      }
+
+      writeEntries(keyMapFile, entries);
       LOG.info("wrote keymap cache to {}", keyMapFile);
     } catch (final Exception e) {
       LOG.debug("failed to write keymap cache file: ", e);
     }
   }
+
+  private Path directory()
+    throws IOException
+  {
+    return Files.createDirectories(this.temporaryDirectory.resolve("xoanon"));
+  }
+
+  private Path file()
+    throws IOException
+  {
+    return this.directory().resolve("keymaps.bin");
+  }
+
+  private static List<Entry> readEntries(
+    final Path file)
+    throws IOException
+  {
+    final var entries = new ArrayList<Entry>();
+    try (var input = new DataInputStream(
+      new BufferedInputStream(Files.newInputStream(file)))) {
+      final var magic = input.readInt();
+      if (magic != FILE_MAGIC) {
+        throw new IOException(
+          "Unrecognized magic number 0x%08x".formatted(Integer.valueOf(magic)));
+      }
+      final var version = input.readInt();
+      if (version != FILE_VERSION) {
+        throw new IOException(
+          "Unsupported version %d".formatted(Integer.valueOf(version)));
+      }
+
+      final var count = input.readInt();
+      for (int index = 0; index < count; ++index) {
+        entries.add(readEntry(input));
+      }
+    } catch (final NoSuchFileException e) {
+      return entries;
+    }
+    return entries;
+  }
+
+  private static Entry readEntry(
+    final DataInputStream input)
+    throws IOException
+  {
+    final var fingerprint = input.readUTF();
+    final var lastUsed = input.readLong();
+
+    final var paletteCount = input.readUnsignedShort();
+    final var palette = new XCKey[paletteCount];
+    for (int index = 0; index < paletteCount; ++index) {
+      final var code = KeyCode.valueOf(input.readUTF());
+      final var modifiers = input.readUnsignedByte();
+      palette[index] = new XCKey(
+        code,
+        (modifiers & MODIFIER_SHIFT) != 0,
+        (modifiers & MODIFIER_ALT) != 0,
+        (modifiers & MODIFIER_CONTROL) != 0
+      );
+    }
+
+    final var keyCount = input.readInt();
+    final var keys = new HashMap<Character, XCKey>(keyCount);
+    for (int index = 0; index < keyCount; ++index) {
+      final var character = input.readChar();
+      final var paletteIndex = input.readUnsignedShort();
+      if (paletteIndex >= paletteCount) {
+        throw new IOException(
+          "Palette index %d out of range".formatted(
+            Integer.valueOf(paletteIndex)));
+      }
+      keys.put(Character.valueOf(character), palette[paletteIndex]);
+    }
+
+    final var unresolvableCount = input.readInt();
+    final var unresolvable = new HashSet<Character>(unresolvableCount);
+    for (int index = 0; index < unresolvableCount; ++index) {
+      unresolvable.add(Character.valueOf(input.readChar()));
+    }
+
+    return new Entry(
+      fingerprint,
+      lastUsed,
+      new XCKeyMap(Map.copyOf(keys)),
+      Set.copyOf(unresolvable)
+    );
+  }
+
+  private static void writeEntries(
+    final Path file,
+    final List<Entry> entries)
+    throws IOException
+  {
+    final var temporary =
+      Files.createTempFile(file.getParent(), "keymaps", ".tmp");
+
+    try {
+      try (var output = new DataOutputStream(
+        new BufferedOutputStream(
+          Files.newOutputStream(temporary, FILE_OPTIONS)))) {
+        output.writeInt(FILE_MAGIC);
+        output.writeInt(FILE_VERSION);
+        output.writeInt(entries.size());
+        for (final var entry : entries) {
+          writeEntry(output, entry);
+        }
+        output.flush();
+      }
+
+      try {
+        Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+      } catch (final AtomicMoveNotSupportedException e) {
+        Files.move(temporary, file, REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private static void writeEntry(
+    final DataOutputStream output,
+    final Entry entry)
+    throws IOException
+  {
+    output.writeUTF(entry.fingerprint);
+    output.writeLong(entry.lastUsed);
+
+    final var keys = entry.keyMap.keys();
+    final var paletteIndices = new HashMap<XCKey, Integer>();
+    final var palette = new ArrayList<XCKey>();
+    for (final var key : keys.values()) {
+      if (!paletteIndices.containsKey(key)) {
+        paletteIndices.put(key, Integer.valueOf(palette.size()));
+        palette.add(key);
+      }
+    }
+
+    output.writeShort(palette.size());
+    for (final var key : palette) {
+      var modifiers = 0;
+      modifiers |= key.isShift() ? MODIFIER_SHIFT : 0;
+      modifiers |= key.isAlt() ? MODIFIER_ALT : 0;
+      modifiers |= key.isControl() ? MODIFIER_CONTROL : 0;
+      output.writeUTF(key.code().name());
+      output.writeByte(modifiers);
+    }
+
+    output.writeInt(keys.size());
+    for (final var mapping : keys.entrySet()) {
+      output.writeChar(mapping.getKey().charValue());
+      output.writeShort(paletteIndices.get(mapping.getValue()).intValue());
+    }
+
+    output.writeInt(entry.unresolvable.size());
+    for (final var character : entry.unresolvable) {
+      output.writeChar(character.charValue());
+    }
+  }
+
+  private static final class Entry
+  {
+    private final String fingerprint;
+    private final XCKeyMap keyMap;
+    private final Set<Character> unresolvable;
+    private long lastUsed;
+
+    Entry(
+      final String inFingerprint,
+      final long inLastUsed,
+      final XCKeyMap inKeyMap,
+      final Set<Character> inUnresolvable)
+    {
+      this.fingerprint = Objects.requireNonNull(inFingerprint, "fingerprint");
+      this.lastUsed = inLastUsed;
+      this.keyMap = Objects.requireNonNull(inKeyMap, "keyMap");
+      this.unresolvable =
+        Objects.requireNonNull(inUnresolvable, "unresolvable");
+    }
+  }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * <p>A fingerprint of the keyboard layout in effect for the current
+ * process.</p>
+ *
+ * <p>Keymaps generated under one fingerprint are not expected to be valid
+ * under any other fingerprint. The fingerprint consists of the default
+ * locale, the display, the XKB-related environment variables (which
+ * determine the layout on X11 and many Wayland compositors), the JavaFX
+ * version, and the operating system.</p>
+ *
+ * @param locale      The default locale
+ * @param display     The display
+ * @param environment The layout-related environment variables
+ * @param javaFX      The JavaFX runtime version
+ * @param os          The operating system
+ */
+
+public record XCKeyMapFingerprint(
+  String locale,
+  String display,
+  Map<String, String> environment,
+  String javaFX,
+  String os)
+{
+  /**
+   * A fingerprint of the keyboard layout in effect for the current process.
+   *
+   * @param locale      The default locale
+   * @param display     The display
+   * @param environment The layout-related environment variables
+   * @param javaFX      The JavaFX runtime version
+   * @param os          The operating system
+   */
+
+  public XCKeyMapFingerprint
+  {
+    Objects.requireNonNull(locale, "locale");
+    Objects.requireNonNull(display, "display");
+    environment = Map.copyOf(environment);
+    Objects.requireNonNull(javaFX, "javaFX");
+    Objects.requireNonNull(os, "os");
+  }
+
+  /**
+   * @return The fingerprint of the current process
+   */
+
+  public static XCKeyMapFingerprint current()
+  {
+    return of(System.getenv());
+  }
+
+  /**
+   * Compute a fingerprint using the given environment.
+   *
+   * @param environment The environment
+   *
+   * @return The fingerprint
+   */
+
+  public static XCKeyMapFingerprint of(
+    final Map<String, String> environment)
+  {
+    Objects.requireNonNull(environment, "environment");
+
+    final var layoutEnvironment = new TreeMap<String, String>();
+    for (final var entry : environment.entrySet()) {
+      final var name = entry.getKey();
+      if (name.startsWith("XKB_") || name.equals("XDG_SESSION_TYPE")) {
+        layoutEnvironment.put(name, entry.getValue());
+      }
+    }
+
+    final var display =
+      environment.getOrDefault(
+        "WAYLAND_DISPLAY",
+        environment.getOrDefault("DISPLAY", "")
+      );
+
+    return new XCKeyMapFingerprint(
+      Locale.getDefault().toLanguageTag(),
+      display,
+      layoutEnvironment,
+      System.getProperty("javafx.runtime.version", ""),
+      "%s %s %s".formatted(
+        System.getProperty("os.name"),
+        System.getProperty("os.version"),
+        System.getProperty("os.arch")
+      )
+    );
+  }
+
+  /**
+   * @return The fingerprint as a single canonical string
+   */
+
+  public String value()
+  {
+    final var text = new StringBuilder(128);
+    text.append("locale=").append(this.locale);
+    text.append(";display=").append(this.display);
+    new TreeMap<>(this.environment).forEach((name, value) -> {
+      text.append(';').append(name).append('=').append(value);
+    });
+    text.append(";javafx=").append(this.javaFX);
+    text.append(";os=").append(this.os);
+    return text.toString();
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import javafx.scene.input.KeyCode;
+
+import java.util.List;
+
+/**
+ * A function that types keys and reports the resulting text.
+ */
+
+@FunctionalInterface
+public interface XCKeyMapProbeType
+{
+  /**
+   * Clear the input, type the given keys in order (optionally holding
+   * shift), and return the resulting text.
+   *
+   * @param codes The keys
+   * @param shift {@code true} if shift should be held
+   *
+   * @return The text produced
+   *
+   * @throws Exception On errors
+   */
+
+  String probe(
+    List<KeyCode> codes,
+    boolean shift)
+    throws Exception;
+}
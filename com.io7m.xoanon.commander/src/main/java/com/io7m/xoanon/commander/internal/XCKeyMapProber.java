@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCKey;
+import javafx.scene.input.KeyCode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Discovers the characters produced by keys by typing bursts of keys and
+ * decoding the resulting text.</p>
+ *
+ * <p>A burst of distinct keys is typed in one sequence and the resulting
+ * text is decoded positionally. If the text does not contain exactly one
+ * character per key (because of dead keys, keys that produce no text, or a
+ * dead key left pending by a previous burst), the burst is split in half
+ * and each half is probed again, down to single keys.</p>
+ *
+ * <p>A text of the right length is not proof that the decoding is correct:
+ * a key that produces nothing and a key that produces two characters
+ * cancel out. A positionally decoded character is therefore only accepted
+ * if it occurs once in the text and is not already produced by a different
+ * key; otherwise, the key is probed again on its own. Keys observed to
+ * produce no text on their own (dead keys) are remembered and are never
+ * included in later bursts.</p>
+ */
+
+public final class XCKeyMapProber
+{
+  private final XCKeyMapProbeType probe;
+  private final Set<KeyCode> deadKeys;
+
+  /**
+   * A key map prober.
+   *
+   * @param inProbe The function used to type keys
+   */
+
+  public XCKeyMapProber(
+    final XCKeyMapProbeType inProbe)
+  {
+    this.probe =
+      Objects.requireNonNull(inProbe, "inProbe");
+    this.deadKeys =
+      ConcurrentHashMap.newKeySet();
+  }
+
+  /**
+   * @return The keys that have been observed to be dead keys
+   */
+
+  public Set<KeyCode> deadKeys()
+  {
+    return Set.copyOf(this.deadKeys);
+  }
+
+  /**
+   * Probe the given keys, recording the characters they produce in the
+   * given mappings. Characters produced with shift held do not replace
+   * existing mappings, so that unmodified keys are preferred when a
+   * character can be produced in more than one way.
+   *
+   * @param mappings The mappings
+   * @param codes    The keys
+   * @param shift    {@code true} if shift should be held
+   *
+   * @throws Exception On errors
+   */
+
+  public void probe(
+    final Map<Character, XCKey> mappings,
+    final List<KeyCode> codes,
+    final boolean shift)
+    throws Exception
+  {
+    Objects.requireNonNull(mappings, "mappings");
+    Objects.requireNonNull(codes, "codes");
+
+    final var burst = new ArrayList<KeyCode>(codes.size());
+    final var singles = new ArrayList<KeyCode>();
+    for (final var code : codes) {
+      if (this.deadKeys.contains(code)) {
+        singles.add(code);
+      } else {
+        burst.add(code);
+      }
+    }
+
+    if (!burst.isEmpty()) {
+      this.probeBurst(mappings, burst, shift);
+    }
+    for (final var code : singles) {
+      this.probeSingle(mappings, code, shift);
+    }
+  }
+
+  private void probeBurst(
+    final Map<Character, XCKey> mappings,
+    final List<KeyCode> codes,
+    final boolean shift)
+    throws Exception
+  {
+    final var text = this.probe.probe(codes, shift);
+    if (text.length() == codes.size()) {
+      for (int index = 0; index < codes.size(); ++index) {
+        final var code = codes.get(index);
+        if (isConfirmed(mappings, text, index, code)) {
+          record(mappings, text.charAt(index), code, shift);
+        } else {
+          this.probeSingle(mappings, code, shift);
+        }
+      }
+      return;
+    }
+
+    if (codes.size() == 1) {
+      this.decodeSingle(mappings, codes.get(0), shift, text);
+      return;
+    }
+
+    final var half = codes.size() / 2;
+    this.probeBurst(mappings, codes.subList(0, half), shift);
+    this.probeBurst(mappings, codes.subList(half, codes.size()), shift);
+  }
+
+  /**
+   * @param mappings The existing mappings
+   * @param text     The text produced by a burst
+   * @param index    The position of the key within the burst
+   * @param code     The key
+   *
+   * @return {@code true} if the character at {@code index} can be trusted
+   * to have been produced by {@code code}
+   */
+
+  public static boolean isConfirmed(
+    final Map<Character, XCKey> mappings,
+    final String text,
+    final int index,
+    final KeyCode code)
+  {
+    final var character = text.charAt(index);
+    if (text.indexOf(character) != text.lastIndexOf(character)) {
+      return false;
+    }
+
+    final var existing = mappings.get(Character.valueOf(character));
+    return existing == null || existing.code() == code;
+  }
+
+  private void probeSingle(
+    final Map<Character, XCKey> mappings,
+    final KeyCode code,
+    final boolean shift)
+    throws Exception
+  {
+    this.decodeSingle(
+      mappings, code, shift, this.probe.probe(List.of(code), shift));
+  }
+
+  /*
+   * Handle the text produced by a single key. A key that produced nothing
+   * is a dead key, and is probed once more; typing a dead key twice
+   * typically produces the dead character itself. A key that produced
+   * more than one character has usually been prefixed by a dead key left
+   * pending by an earlier probe, and is also probed once more, with
+   * nothing pending.
+   */
+
+  private void decodeSingle(
+    final Map<Character, XCKey> mappings,
+    final KeyCode code,
+    final boolean shift,
+    final String firstText)
+    throws Exception
+  {
+    var text = firstText;
+    if (text.length() != 1) {
+      if (text.isEmpty()) {
+        this.deadKeys.add(code);
+      }
+      text = this.probe.probe(List.of(code), shift);
+    }
+    if (!text.isEmpty()) {
+      record(mappings, text.charAt(0), code, shift);
+    }
+  }
+
+  private static void record(
+    final Map<Character, XCKey> mappings,
+    final char character,
+    final KeyCode code,
+    final boolean shift)
+  {
+    final var key = new XCKey(code, shift, false, false);
+    if (shift) {
+      mappings.putIfAbsent(Character.valueOf(character), key);
+    } else {
+      mappings.put(Character.valueOf(character), key);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCKeyMap;
+
+import java.util.Set;
+
+/**
+ * A resolver that can discover the keys for characters that are missing
+ * from a key map.
+ */
+
+@FunctionalInterface
+public interface XCKeyMapResolverType
+{
+  /**
+   * Discover keys for the given code points, and return a key map
+   * containing all previously known keys along with any newly discovered
+   * keys. Code points for which no key can be found are simply absent
+   * from the result.
+   *
+   * @param codePoints The missing code points
+   *
+   * @return The updated key map
+   *
+   * @throws Exception On errors
+   */
+
+  XCKeyMap resolve(Set<Integer> codePoints)
+    throws Exception;
+}
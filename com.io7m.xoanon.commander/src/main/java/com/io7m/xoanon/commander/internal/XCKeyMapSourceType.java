@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCKeyMap;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A source of key maps. The robot consults the source the first time it
+ * needs a key map, so that robots can be created before a key map is
+ * available.
+ */
+
+@FunctionalInterface
+public interface XCKeyMapSourceType
+{
+  /**
+   * @return The key map, possibly still being loaded or generated
+   */
+
+  CompletableFuture<XCKeyMap> keyMap();
+
+  /**
+   * @param map The key map
+   *
+   * @return A source that always provides the given key map
+   */
+
+  static XCKeyMapSourceType constant(
+    final XCKeyMap map)
+  {
+    final var future =
+      CompletableFuture.completedFuture(Objects.requireNonNull(map, "map"));
+    return () -> future;
+  }
+}
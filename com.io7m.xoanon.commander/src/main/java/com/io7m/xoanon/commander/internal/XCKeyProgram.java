@@ -0,0 +1,377 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.api.XCKeyBuffer;
+import javafx.scene.input.KeyCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static javafx.scene.input.KeyCode.ALT;
+import static javafx.scene.input.KeyCode.CONTROL;
+import static javafx.scene.input.KeyCode.SHIFT;
+
+/**
+ * <p>A compiled sequence of key events.</p>
+ *
+ * <p>A program is compiled from a sequence of keys. Modifier keys are
+ * pressed only when the modifier state changes between consecutive keys,
+ * and are held across runs of keys that share the same modifiers. All
+ * modifiers that are held at the end of the program are released.</p>
+ *
+ * <p>Instructions are held in parallel opcode and key code arrays, so
+ * compiling and executing a program does not allocate anything per
+ * instruction.</p>
+ */
+
+public final class XCKeyProgram
+{
+  private static final Opcode[] OPCODES = Opcode.values();
+
+  private final byte[] opcodes;
+  private final KeyCode[] codes;
+  private final int size;
+  private final int keyCount;
+
+  private XCKeyProgram(
+    final byte[] inOpcodes,
+    final KeyCode[] inCodes,
+    final int inSize,
+    final int inKeyCount)
+  {
+    this.opcodes = inOpcodes;
+    this.codes = inCodes;
+    this.size = inSize;
+    this.keyCount = inKeyCount;
+  }
+
+  /**
+   * The kind of instruction.
+   */
+
+  public enum Opcode
+  {
+    /**
+     * Press and hold a key.
+     */
+
+    PRESS,
+
+    /**
+     * Release a held key.
+     */
+
+    RELEASE,
+
+    /**
+     * Press and release a key.
+     */
+
+    TYPE
+  }
+
+  /**
+   * A single instruction.
+   *
+   * @param opcode The opcode
+   * @param code   The key code
+   */
+
+  public record Instruction(
+    Opcode opcode,
+    KeyCode code)
+  {
+    /**
+     * A single instruction.
+     */
+
+    public Instruction
+    {
+      Objects.requireNonNull(opcode, "opcode");
+      Objects.requireNonNull(code, "code");
+    }
+  }
+
+  /**
+   * @return The number of instructions in the program
+   */
+
+  public int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * @return The number of (non-modifier) keys typed by the program
+   */
+
+  public int keyCount()
+  {
+    return this.keyCount;
+  }
+
+  /**
+   * @param index The instruction index
+   *
+   * @return The opcode of the instruction at the given index
+   */
+
+  public Opcode opcode(
+    final int index)
+  {
+    return OPCODES[this.opcodes[Objects.checkIndex(index, this.size)]];
+  }
+
+  /**
+   * @param index The instruction index
+   *
+   * @return The key code of the instruction at the given index
+   */
+
+  public KeyCode code(
+    final int index)
+  {
+    return this.codes[Objects.checkIndex(index, this.size)];
+  }
+
+  /**
+   * Find the end of the range of instructions that starts at the given
+   * index and contains the given number of typed keys. The range ends
+   * immediately after its last typed key, or at the end of the program if
+   * the program types fewer keys than requested.
+   *
+   * @param start The index of the first instruction in the range
+   * @param keys  The number of keys
+   *
+   * @return The (exclusive) end index of the range
+   */
+
+  public int endAfterKeys(
+    final int start,
+    final int keys)
+  {
+    Objects.checkFromToIndex(start, this.size, this.size);
+
+    var remaining = keys;
+    for (int index = start; index < this.size; ++index) {
+      if (this.opcodes[index] == Opcode.TYPE.ordinal()) {
+        --remaining;
+        if (remaining <= 0) {
+          return index + 1;
+        }
+      }
+    }
+    return this.size;
+  }
+
+  /**
+   * @param start The (inclusive) start index
+   * @param end   The (exclusive) end index
+   *
+   * @return The number of key releases performed by the given range of
+   * instructions (including the release implied by a typed key)
+   */
+
+  public int releaseCount(
+    final int start,
+    final int end)
+  {
+    Objects.checkFromToIndex(start, end, this.size);
+
+    var count = 0;
+    for (int index = start; index < end; ++index) {
+      if (this.opcodes[index] != Opcode.PRESS.ordinal()) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Produce a list of the instructions in the program. This allocates an
+   * object per instruction, and is intended for diagnostics and testing;
+   * use {@link #opcode(int)} and {@link #code(int)} to execute a program.
+   *
+   * @return The instructions
+   */
+
+  public List<Instruction> instructions()
+  {
+    final var result = new ArrayList<Instruction>(this.size);
+    for (int index = 0; index < this.size; ++index) {
+      result.add(new Instruction(this.opcode(index), this.codes[index]));
+    }
+    return List.copyOf(result);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[XCKeyProgram %s]".formatted(this.instructions());
+  }
+
+  /**
+   * Compile a program from the given sequence of keys.
+   *
+   * @param keys The keys
+   *
+   * @return A compiled program
+   */
+
+  public static XCKeyProgram compile(
+    final List<XCKey> keys)
+  {
+    Objects.requireNonNull(keys, "keys");
+
+    final var compiler = new Compiler(keys.size());
+    for (final var key : keys) {
+      compiler.key(key);
+    }
+    return compiler.finish();
+  }
+
+  /**
+   * Compile a program from the keys in the given buffer.
+   *
+   * @param keys The keys
+   *
+   * @return A compiled program
+   */
+
+  public static XCKeyProgram compile(
+    final XCKeyBuffer keys)
+  {
+    Objects.requireNonNull(keys, "keys");
+
+    final var size = keys.size();
+    final var compiler = new Compiler(size);
+    for (int index = 0; index < size; ++index) {
+      compiler.key(keys.get(index));
+    }
+    return compiler.finish();
+  }
+
+  private static final class Compiler
+  {
+    private byte[] opcodes;
+    private KeyCode[] codes;
+    private int size;
+    private boolean shift;
+    private boolean alt;
+    private boolean control;
+    private int keyCount;
+
+    Compiler(
+      final int sizeHint)
+    {
+      /*
+       * Most text needs at most one modifier change per key, so this
+       * capacity normally avoids growing the arrays at all.
+       */
+
+      final var capacity = (sizeHint * 2) + 6;
+      this.opcodes = new byte[capacity];
+      this.codes = new KeyCode[capacity];
+    }
+
+    void key(
+      final XCKey key)
+    {
+      /*
+       * Release any modifiers that are no longer required before pressing
+       * any newly required modifiers, so that a modifier is never briefly
+       * combined with the wrong key.
+       */
+
+      this.releaseUnwanted(key);
+      this.pressWanted(key);
+      this.emit(Opcode.TYPE, key.code());
+      ++this.keyCount;
+    }
+
+    private void releaseUnwanted(
+      final XCKey key)
+    {
+      if (this.control && !key.isControl()) {
+        this.emit(Opcode.RELEASE, CONTROL);
+        this.control = false;
+      }
+      if (this.alt && !key.isAlt()) {
+        this.emit(Opcode.RELEASE, ALT);
+        this.alt = false;
+      }
+      if (this.shift && !key.isShift()) {
+        this.emit(Opcode.RELEASE, SHIFT);
+        this.shift = false;
+      }
+    }
+
+    private void pressWanted(
+      final XCKey key)
+    {
+      if (!this.shift && key.isShift()) {
+        this.emit(Opcode.PRESS, SHIFT);
+        this.shift = true;
+      }
+      if (!this.alt && key.isAlt()) {
+        this.emit(Opcode.PRESS, ALT);
+        this.alt = true;
+      }
+      if (!this.control && key.isControl()) {
+        this.emit(Opcode.PRESS, CONTROL);
+        this.control = true;
+      }
+    }
+
+    XCKeyProgram finish()
+    {
+      if (this.control) {
+        this.emit(Opcode.RELEASE, CONTROL);
+      }
+      if (this.alt) {
+        this.emit(Opcode.RELEASE, ALT);
+      }
+      if (this.shift) {
+        this.emit(Opcode.RELEASE, SHIFT);
+      }
+      return new XCKeyProgram(
+        this.opcodes,
+        this.codes,
+        this.size,
+        this.keyCount
+      );
+    }
+
+    private void emit(
+      final Opcode opcode,
+      final KeyCode code)
+    {
+      if (this.size == this.opcodes.length) {
+        final var capacity = this.size * 2;
+        this.opcodes = Arrays.copyOf(this.opcodes, capacity);
+        this.codes = Arrays.copyOf(this.codes, capacity);
+      }
+      this.opcodes[this.size] = (byte) opcode.ordinal();
+      this.codes[this.size] = code;
+      ++this.size;
+    }
+  }
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCNodeLookup;
+import com.io7m.xoanon.commander.api.XCNodeQuery;
+import com.io7m.xoanon.commander.api.XCOnAnyThread;
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.control.Labeled;
+import javafx.stage.Stage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * <p>The node lookup operations used by the robot.</p>
+ *
+ * <p>All lookups run on the JavaFX thread. If the scene index is enabled,
+ * lookups by id, style class, text, and type consult the per-scene index
+ * instead of traversing the scene graph.</p>
+ */
+
+public final class XCNodeFinder
+{
+  private final XCWindowOrder windowOrder;
+  private volatile boolean sceneIndex;
+
+  /**
+   * The node lookup operations used by the robot.
+   */
+
+  public XCNodeFinder()
+  {
+    this.windowOrder = new XCWindowOrder();
+    this.sceneIndex = false;
+  }
+
+  /**
+   * @return {@code true} if lookups consult the scene index
+   */
+
+  @XCOnAnyThread
+  public boolean isSceneIndexEnabled()
+  {
+    return this.sceneIndex;
+  }
+
+  /**
+   * Enable or disable the scene index.
+   *
+   * @param enabled {@code true} if lookups should consult the scene index
+   */
+
+  @XCOnAnyThread
+  public void setSceneIndexEnabled(
+    final boolean enabled)
+  {
+    this.sceneIndex = enabled;
+  }
+
+  /*
+   * Obtain the index for the scene containing the given node, if indexing
+   * is enabled and the node is in a scene.
+   */
+
+  @XCOnFXThread
+  XCSceneIndex opIndexOf(
+    final Node node)
+  {
+    if (!this.sceneIndex) {
+      return null;
+    }
+    final var scene = node.getScene();
+    if (scene == null) {
+      return null;
+    }
+    return XCSceneIndex.of(scene);
+  }
+
+  @XCOnFXThread
+  <T> List<T> opFindAll(
+    final Class<T> clazz,
+    final Parent root)
+  {
+    final var index = this.opIndexOf(root);
+    if (index != null) {
+      return index.withType(root, clazz)
+        .stream()
+        .map(clazz::cast)
+        .toList();
+    }
+
+    return XCNodeTraversal.all(root, clazz);
+  }
+
+  @XCOnFXThread
+  <T> List<T> opFindAllWithClass(
+    final Class<T> clazz,
+    final Parent root,
+    final String cssClass)
+  {
+    final var index = this.opIndexOf(root);
+    if (index != null) {
+      return index.withClass(root, cssClass)
+        .stream()
+        .filter(clazz::isInstance)
+        .map(clazz::cast)
+        .toList();
+    }
+
+    return XCNodeTraversal.collect(
+      root,
+      clazz,
+      n -> hasStyleClass(n, cssClass),
+      XCNodeTraversal.UNLIMITED,
+      XCNodeTraversal.UNLIMITED
+    );
+  }
+
+  @XCOnFXThread
+  Node opFindWithId(
+    final Parent root,
+    final String id)
+  {
+    final var index = this.opIndexOf(root);
+    if (index != null) {
+      final var results = index.withId(root, id);
+      return results.isEmpty() ? null : results.get(0);
+    }
+    return root.lookup("#" + id);
+  }
+
+  @XCOnFXThread
+  Node opFindWithText(
+    final Parent root,
+    final String text)
+  {
+    final var index = this.opIndexOf(root);
+    if (index != null) {
+      final var results = index.withText(root, text);
+      return results.isEmpty() ? null : results.get(0);
+    }
+    return XCNodeTraversal.first(
+      root,
+      Labeled.class,
+      n -> Objects.equals(n.getText(), text)
+    );
+  }
+
+  /*
+   * Find the first node with the given id in the given subtrees, searching
+   * the subtrees in order.
+   */
+
+  @XCOnFXThread
+  <T extends Node> T opRequireWithId(
+    final Class<T> clazz,
+    final List<Parent> roots,
+    final String id)
+  {
+    for (final var root : roots) {
+      final var result = this.opFindWithId(root, id);
+      if (result != null) {
+        return clazz.cast(result);
+      }
+    }
+
+    throw new NoSuchElementException(
+      "No element with id '%s'".formatted(id)
+    );
+  }
+
+  /*
+   * Find the first node with the given text in the given subtrees, searching
+   * the subtrees in order.
+   */
+
+  @XCOnFXThread
+  <T extends Node> T opRequireWithText(
+    final Class<T> clazz,
+    final List<Parent> roots,
+    final String text)
+  {
+    for (final var root : roots) {
+      final var result = this.opFindWithText(root, text);
+      if (result != null) {
+        return clazz.cast(result);
+      }
+    }
+
+    throw new NoSuchElementException(
+      "No element with text '%s'".formatted(text)
+    );
+  }
+
+  /*
+   * Find the first node of the given type, optionally with the given style
+   * class, in the given subtrees, searching the subtrees in order.
+   */
+
+  @XCOnFXThread
+  <T extends Node> T opRequireFirst(
+    final Class<T> clazz,
+    final List<Parent> roots,
+    final String cssClass)
+  {
+    for (final var root : roots) {
+      final var result = this.opFindFirst(clazz, root, cssClass);
+      if (result != null) {
+        return result;
+      }
+    }
+    return requireFound(null, clazz, cssClass);
+  }
+
+  /*
+   * Find the first node of the given type, optionally with the given
+   * style class.
+   */
+
+  @XCOnFXThread
+  <T> T opFindFirst(
+    final Class<T> clazz,
+    final Parent root,
+    final String cssClass)
+  {
+    final var index = this.opIndexOf(root);
+    if (index != null) {
+      final var candidates =
+        cssClass == null
+          ? index.withType(root, clazz)
+          : index.withClass(root, cssClass);
+
+      for (final var node : candidates) {
+        if (clazz.isInstance(node)) {
+          return clazz.cast(node);
+        }
+      }
+      return null;
+    }
+
+    if (cssClass == null) {
+      return XCNodeTraversal.first(root, clazz, n -> true);
+    }
+    return XCNodeTraversal.first(root, clazz, n -> hasStyleClass(n, cssClass));
+  }
+
+  /*
+   * Evaluate a compiled query against the subtree at the given root,
+   * stopping after the given number of results. If the scene index is
+   * enabled and the query names an id or a style class, only the indexed
+   * candidates are examined.
+   */
+
+  @XCOnFXThread
+  <T extends Node> List<T> opQuery(
+    final XCNodeQuery<T> query,
+    final Parent root,
+    final int limit)
+  {
+    final var index = this.opIndexOf(root);
+    if (index != null) {
+      final var id = query.requiredId();
+      final var styleClass = query.requiredStyleClass();
+      List<Node> candidates = null;
+      if (id.isPresent()) {
+        candidates = index.withId(root, id.get());
+      } else if (styleClass.isPresent()) {
+        candidates = index.withClass(root, styleClass.get());
+      }
+      if (candidates != null) {
+        return candidates.stream()
+          .filter(query::matches)
+          .limit(limit)
+          .map(query.type()::cast)
+          .toList();
+      }
+    }
+
+    return XCNodeTraversal.collect(
+      root,
+      query.type(),
+      query::matches,
+      limit,
+      XCNodeTraversal.UNLIMITED
+    );
+  }
+
+  /*
+   * The root of the scene of the given stage, if it has one.
+   */
+
+  @XCOnFXThread
+  static List<Parent> opRootsOf(
+    final Stage stage)
+  {
+    final var scene = stage.getScene();
+    return scene == null ? List.of() : List.of(scene.getRoot());
+  }
+
+  /*
+   * The roots of the scenes of all showing windows, in search order.
+   */
+
+  @XCOnFXThread
+  List<Parent> opSearchRoots()
+  {
+    return this.windowOrder.opSearchRoots();
+  }
+
+  @XCOnFXThread
+  <T extends Node> List<T> opQueryAll(
+    final XCNodeQuery<T> query,
+    final List<Parent> roots,
+    final int limit)
+  {
+    final var results = new ArrayList<T>();
+    for (final var root : roots) {
+      if (results.size() >= limit) {
+        break;
+      }
+      results.addAll(this.opQuery(query, root, limit - results.size()));
+    }
+    return results;
+  }
+
+  /*
+   * Resolve the entries of a lookup that are not already present in the
+   * given results against the subtree at the given root. If the scene index
+   * is enabled, entries that name an id or a style class are resolved using
+   * the index. All other entries are resolved together in a single traversal
+   * that stops as soon as every entry has been resolved.
+   */
+
+  @XCOnFXThread
+  void opLookup(
+    final XCNodeLookup lookup,
+    final Parent root,
+    final Map<String, Node> results)
+  {
+    final var index = this.opIndexOf(root);
+    final var pending = new ArrayList<XCNodeLookup.Key<?>>();
+
+    for (final var key : lookup.keys()) {
+      if (results.containsKey(key.name())) {
+        continue;
+      }
+
+      final var query = key.query();
+      final var indexed =
+        query.requiredId().isPresent()
+        || query.requiredStyleClass().isPresent();
+
+      if (index != null && indexed) {
+        final var found = this.opQuery(query, root, 1);
+        if (!found.isEmpty()) {
+          results.put(key.name(), found.get(0));
+        }
+      } else {
+        pending.add(key);
+      }
+    }
+
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    /*
+     * The filter records matches as a side effect, and only accepts a node
+     * once every entry has been resolved, which ends the traversal.
+     */
+
+    XCNodeTraversal.collect(
+      root,
+      Node.class,
+      node -> {
+        final var iter = pending.iterator();
+        while (iter.hasNext()) {
+          final var key = iter.next();
+          if (key.query().matches(node)) {
+            results.put(key.name(), node);
+            iter.remove();
+          }
+        }
+        return pending.isEmpty();
+      },
+      1,
+      XCNodeTraversal.UNLIMITED
+    );
+  }
+
+  private static boolean hasStyleClass(
+    final Object node,
+    final String cssClass)
+  {
+    return ((Node) node).getStyleClass().contains(cssClass);
+  }
+
+  static <T> T requireFound(
+    final T result,
+    final Class<T> clazz,
+    final String cssClass)
+  {
+    if (result != null) {
+      return result;
+    }
+
+    if (cssClass == null) {
+      throw new NoSuchElementException(
+        "No element of type %s".formatted(clazz.getName())
+      );
+    }
+    throw new NoSuchElementException(
+      "No element of type %s with class '%s'"
+        .formatted(clazz.getName(), cssClass)
+    );
+  }
+
+  static <T extends Node> List<T> requireResults(
+    final List<T> results,
+    final XCNodeQuery<T> query,
+    final boolean required)
+  {
+    if (required && results.isEmpty()) {
+      throw new NoSuchElementException(
+        "No element matches %s".formatted(query)
+      );
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * <p>An iterative traversal of the scene graph.</p>
+ *
+ * <p>Nodes are visited in document order (depth-first, pre-order, children
+ * in list order) using an explicit work stack, so arbitrarily deep scene
+ * graphs can be traversed without risk of stack exhaustion. Traversals can
+ * be bounded by a maximum number of results (stopping as soon as enough
+ * results have been found) and by a maximum depth below the root.</p>
+ */
+
+public final class XCNodeTraversal
+{
+  /**
+   * No limit on the number of results or the depth of a traversal.
+   */
+
+  public static final int UNLIMITED = Integer.MAX_VALUE;
+
+  private XCNodeTraversal()
+  {
+
+  }
+
+  /**
+   * Find the first node (in document order) in the subtree at {@code root}
+   * that is of type {@code clazz} and satisfies {@code filter}.
+   *
+   * @param root   The root node
+   * @param clazz  The node type
+   * @param filter The filter
+   * @param <T>    The node type
+   *
+   * @return The node, or {@code null} if no node matches
+   */
+
+  @XCOnFXThread
+  public static <T> T first(
+    final Node root,
+    final Class<T> clazz,
+    final Predicate<? super T> filter)
+  {
+    final var results = collect(root, clazz, filter, 1, UNLIMITED);
+    return results.isEmpty() ? null : results.get(0);
+  }
+
+  /**
+   * Find all nodes in the subtree at {@code root} that are of type
+   * {@code clazz}.
+   *
+   * @param root  The root node
+   * @param clazz The node type
+   * @param <T>   The node type
+   *
+   * @return The nodes, in document order
+   */
+
+  @XCOnFXThread
+  public static <T> List<T> all(
+    final Node root,
+    final Class<T> clazz)
+  {
+    return collect(root, clazz, x -> true, UNLIMITED, UNLIMITED);
+  }
+
+  /**
+   * Find the nodes in the subtree at {@code root} that are of type
+   * {@code clazz} and satisfy {@code filter}.
+   *
+   * @param root           The root node
+   * @param clazz          The node type
+   * @param filter         The filter
+   * @param maximumResults The maximum number of results; the traversal
+   *                       stops as soon as this many have been found
+   * @param maximumDepth   The maximum depth below the root to visit, where
+   *                       the root is at depth zero
+   * @param <T>            The node type
+   *
+   * @return The nodes, in document order
+   */
+
+  @XCOnFXThread
+  public static <T> List<T> collect(
+    final Node root,
+    final Class<T> clazz,
+    final Predicate<? super T> filter,
+    final int maximumResults,
+    final int maximumDepth)
+  {
+    Objects.requireNonNull(root, "root");
+    Objects.requireNonNull(clazz, "clazz");
+    Objects.requireNonNull(filter, "filter");
+
+    if (maximumResults <= 0 || maximumDepth < 0) {
+      return List.of();
+    }
+
+    final var results = new ArrayList<T>();
+    final var stack = new Stack();
+    stack.push(root, 0);
+
+    while (!stack.isEmpty()) {
+      final var depth = stack.topDepth();
+      final var node = stack.pop();
+
+      if (clazz.isInstance(node)) {
+        final var cast = clazz.cast(node);
+        if (filter.test(cast)) {
+          results.add(cast);
+          if (results.size() >= maximumResults) {
+            break;
+          }
+        }
+      }
+
+      if (depth < maximumDepth && node instanceof final Parent parent) {
+        stack.pushChildren(parent.getChildrenUnmodifiable(), depth + 1);
+      }
+    }
+    return results;
+  }
+
+  /*
+   * A stack of nodes and their depths. Children are pushed in reverse order
+   * so that they are popped (and therefore visited) in list order.
+   */
+
+  private static final class Stack
+  {
+    private Node[] nodes;
+    private int[] depths;
+    private int size;
+
+    Stack()
+    {
+      this.nodes = new Node[64];
+      this.depths = new int[64];
+    }
+
+    boolean isEmpty()
+    {
+      return this.size == 0;
+    }
+
+    void push(
+      final Node node,
+      final int depth)
+    {
+      if (this.size == this.nodes.length) {
+        final var capacity = this.size * 2;
+        this.nodes = Arrays.copyOf(this.nodes, capacity);
+        this.depths = Arrays.copyOf(this.depths, capacity);
+      }
+      this.nodes[this.size] = node;
+      this.depths[this.size] = depth;
+      ++this.size;
+    }
+
+    void pushChildren(
+      final List<Node> children,
+      final int depth)
+    {
+      for (int index = children.size() - 1; index >= 0; --index) {
+        this.push(children.get(index), depth);
+      }
+    }
+
+    int topDepth()
+    {
+      return this.depths[this.size - 1];
+    }
+
+    Node pop()
+    {
+      --this.size;
+      final var node = this.nodes[this.size];
+      this.nodes[this.size] = null;
+      return node;
+    }
+  }
+}
@@ -17,38 +17,63 @@
 package com.io7m.xoanon.commander.internal;
 
 import com.io7m.xoanon.commander.api.XCFXThread;
+import com.io7m.xoanon.commander.api.XCFXThreadBatch;
 import com.io7m.xoanon.commander.api.XCFXThreadOperationType;
 import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.api.XCKeyBuffer;
 import com.io7m.xoanon.commander.api.XCKeyMap;
+import com.io7m.xoanon.commander.api.XCKeyMapCompiled;
+import com.io7m.xoanon.commander.api.XCNodeLookup;
+import com.io7m.xoanon.commander.api.XCNodeLookupResult;
+import com.io7m.xoanon.commander.api.XCNodeQuery;
 import com.io7m.xoanon.commander.api.XCOnFXThread;
 import com.io7m.xoanon.commander.api.XCRobotType;
-import javafx.application.Platform;
+import javafx.beans.value.ObservableValue;
+import javafx.event.EventType;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.Parent;
-import javafx.scene.control.Labeled;
+import javafx.scene.Scene;
+import javafx.scene.control.Control;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TreeCell;
+import javafx.scene.control.TreeView;
+import javafx.scene.input.InputEvent;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.robot.Robot;
 import javafx.stage.Stage;
 import javafx.stage.Window;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+import static com.io7m.xoanon.commander.internal.XCNodeFinder.opRootsOf;
+import static com.io7m.xoanon.commander.internal.XCNodeTraversal.UNLIMITED;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static javafx.scene.input.KeyCode.ALT;
 import static javafx.scene.input.KeyCode.CONTROL;
@@ -63,6 +88,23 @@ public final class XCRobot implements XCRobotType
   private static final Logger LOG =
     LoggerFactory.getLogger(XCRobot.class);
 
+  private static final String CONDITION_TIMED_OUT =
+    "Condition did not become true before the desired timeout.";
+
+  private static final int KEY_PROGRAM_KEYS_PER_BATCH = 16;
+
+  /*
+   * Key map generation can take several seconds, so the first keymap
+   * dependent operation waits far longer than the usual robot timeout.
+   */
+
+  /**
+   * The maximum time that the robot waits for a key map to be loaded,
+   * generated, or extended.
+   */
+
+  static final long KEY_MAP_TIMEOUT_SECONDS = 30L;
+
   private static final KeyCode[] ALL_KEY_CODES =
     KeyCode.values();
 
@@ -71,9 +113,19 @@ public final class XCRobot implements XCRobotType
       .filter(b -> b != MouseButton.NONE)
       .toList();
 
-  private final XCKeyMap keyMap;
+  private final XCKeyMapSourceType keyMapSource;
+  private final Object keyMapLock;
+  private final Optional<XCKeyMapResolverType> keyMapResolver;
+  private final Set<Integer> keyMapUnresolvable;
+  private volatile XCKeyMapCompiled keyMap;
+  private final ThreadLocal<XCKeyBuffer> keyBuffers;
   private final Robot robot;
+  private final XCWaitEngine waits;
+  private final XCInputPacer pacer;
   private final AtomicBoolean slowMotion;
+  private final AtomicBoolean acknowledgedPacing;
+  private final AtomicBoolean snapshotSearch;
+  private final XCNodeFinder finder;
   private volatile long timeout;
   private volatile long timePauseAfterMouseOp;
   private volatile long timePauseBetweenDoubleClick;
@@ -90,10 +142,63 @@ public final class XCRobot implements XCRobotType
     final XCKeyMap inKeyMap,
     final Robot inBaseRobot)
   {
-    this.keyMap =
-      Objects.requireNonNull(inKeyMap, "keyMap");
+    this(inKeyMap, inBaseRobot, Optional.empty());
+  }
+
+  /**
+   * The basic bot implementation.
+   *
+   * @param inKeyMap         The keyboard map
+   * @param inBaseRobot      The base JavaFX robot
+   * @param inKeyMapResolver A resolver used to discover keys for characters
+   *                         that are missing from the keyboard map
+   */
+
+  public XCRobot(
+    final XCKeyMap inKeyMap,
+    final Robot inBaseRobot,
+    final Optional<XCKeyMapResolverType> inKeyMapResolver)
+  {
+    this(
+      XCKeyMapSourceType.constant(inKeyMap),
+      inBaseRobot,
+      inKeyMapResolver
+    );
+  }
+
+  /**
+   * The basic bot implementation. The key map is requested from the given
+   * source only when an operation first requires one (such as
+   * {@link #typeText(String)}), so operations that do not type text never
+   * wait for a key map.
+   *
+   * @param inKeyMapSource   The source of the keyboard map
+   * @param inBaseRobot      The base JavaFX robot
+   * @param inKeyMapResolver A resolver used to discover keys for characters
+   *                         that are missing from the keyboard map
+   */
+
+  public XCRobot(
+    final XCKeyMapSourceType inKeyMapSource,
+    final Robot inBaseRobot,
+    final Optional<XCKeyMapResolverType> inKeyMapResolver)
+  {
+    this.keyMapSource =
+      Objects.requireNonNull(inKeyMapSource, "keyMapSource");
+    this.keyMapLock =
+      new Object();
+    this.keyMapResolver =
+      Objects.requireNonNull(inKeyMapResolver, "keyMapResolver");
+    this.keyMapUnresolvable =
+      ConcurrentHashMap.newKeySet();
+    this.keyBuffers =
+      ThreadLocal.withInitial(XCKeyBuffer::new);
     this.robot =
       Objects.requireNonNull(inBaseRobot, "inBaseRobot");
+    this.waits =
+      new XCWaitEngine();
+    this.pacer =
+      new XCInputPacer();
     this.timeout =
       1000L;
     this.timePauseAfterMouseOp =
@@ -105,118 +210,32 @@ public final class XCRobot implements XCRobotType
 
     this.slowMotion =
       new AtomicBoolean(false);
+    this.acknowledgedPacing =
+      new AtomicBoolean(false);
+    this.snapshotSearch =
+      new AtomicBoolean(false);
+    this.finder =
+      new XCNodeFinder();
   }
 
   @XCOnFXThread
-  private static Node opSearchWithText(
-    final Node node,
-    final String text)
+  private static Scene opFocusedScene()
   {
-    if (node instanceof final Labeled label) {
-      if (Objects.equals(label.getText(), text)) {
-        return label;
-      }
-    }
-
-    if (node instanceof final Parent parent) {
-      for (final var child : parent.getChildrenUnmodifiable()) {
-        final var result = opSearchWithText(child, text);
-        if (result != null) {
-          return result;
-        }
+    for (final var window : Window.getWindows()) {
+      if (window.isFocused()) {
+        return window.getScene();
       }
     }
-
     return null;
   }
 
-  @XCOnFXThread
-  private static <T> void opSearchWithClass(
-    final LinkedList<T> results,
-    final Class<T> clazz,
-    final Node node,
-    final String cssClass)
-  {
-    final boolean ofType =
-      clazz.isAssignableFrom(node.getClass());
-    final boolean hasClass =
-      node.getStyleClass().contains(cssClass);
-
-    if (ofType && hasClass) {
-      results.add(clazz.cast(node));
-    }
-
-    if (node instanceof final Parent parent) {
-      for (final var child : parent.getChildrenUnmodifiable()) {
-        opSearchWithClass(results, clazz, child, cssClass);
-      }
-    }
-  }
-
-  @XCOnFXThread
-  private static <T> void opSearchWithType(
-    final Collection<T> results,
-    final Class<T> clazz,
-    final Node node)
-  {
-    if (clazz.isAssignableFrom(node.getClass())) {
-      results.add(clazz.cast(node));
-    }
-
-    if (node instanceof final Parent parent) {
-      for (final var child : parent.getChildrenUnmodifiable()) {
-        opSearchWithType(results, clazz, child);
-      }
-    }
-  }
-
-  @XCOnFXThread
-  private static void opBringStageToFront(
-    final Node node)
-  {
-    final var scene = node.getScene();
-    final var window = scene.getWindow();
-    final var stage = (Stage) window;
-
-    final var title = stage.getTitle();
-    LOG.trace("bringing stage {} ({}) to front", stage, title);
-    stage.toFront();
-    stage.requestFocus();
-  }
-
-  @XCOnFXThread
-  private static boolean opStageIsFront(
-    final Node node)
-  {
-    final var scene = node.getScene();
-    final var window = scene.getWindow();
-    return window.isShowing() && window.isFocused();
-  }
-
-  @XCOnFXThread
-  private static <T> List<T> findAllInner(
-    final Class<T> clazz,
-    final Parent root)
-  {
-    final var results = new LinkedList<T>();
-    opSearchWithType(results, clazz, root);
-    return results;
-  }
-
-
-  @XCOnFXThread
-  private static <T> List<T> findAllWithClassInner(
-    final Class<T> clazz,
-    final Parent root,
-    final String cssClass)
-  {
-    final var results = new LinkedList<T>();
-    opSearchWithClass(results, clazz, root, cssClass);
-    return results;
-  }
+  /*
+   * Point the mouse at the center of the given node. Returns false if the
+   * mouse was already there, in which case no mouse event will be generated.
+   */
 
   @XCOnFXThread
-  private void opPointMouseAt(
+  private boolean opPointMouseAt(
     final Node node)
   {
     final var bounds =
@@ -234,8 +253,13 @@ public final class XCRobot implements XCRobotType
     );
 
     if (Double.isFinite(centerX) && Double.isFinite(centerY)) {
+      final var atX = Math.abs(this.robot.getMouseX() - centerX) < 1.0;
+      final var atY = Math.abs(this.robot.getMouseY() - centerY) < 1.0;
+      if (atX && atY) {
+        return false;
+      }
       this.robot.mouseMove(new Point2D(centerX, centerY));
-      return;
+      return true;
     }
 
     throw new IllegalStateException(
@@ -284,32 +308,193 @@ public final class XCRobot implements XCRobotType
     this.robot.mouseRelease(button);
   }
 
-  private void typeKey(
-    final XCKey code)
+  @XCOnFXThread
+  private void opKeyProgramRange(
+    final XCKeyProgram program,
+    final int start,
+    final int end)
+  {
+    for (int index = start; index < end; ++index) {
+      final var code = program.code(index);
+      switch (program.opcode(index)) {
+        case PRESS -> this.opKeyPress(code);
+        case RELEASE -> this.opKeyRelease(code);
+        case TYPE -> this.opKeyType(code);
+      }
+    }
+  }
+
+  private void typeKeys(
+    final List<XCKey> codes)
+    throws Exception
+  {
+    for (final var code : codes) {
+      LOG.trace("code {}", code);
+    }
+
+    this.typeKeyProgram(XCKeyProgram.compile(codes));
+  }
+
+  /*
+   * Execute a compiled key program. Each batch submitted to the FX thread
+   * is a single operation that executes a range of instructions containing
+   * a bounded number of typed keys, and the robot waits for a pulse between
+   * batches so that the resulting events can be delivered. The usual
+   * keyboard pause is applied once at the end of the program instead of
+   * after every key. In slow motion mode, each key is submitted in its own
+   * batch and followed by a pause. If
+   * acknowledged pacing is enabled, the robot instead waits for the key
+   * releases of each batch to be observed by the focused scene.
+   */
+
+  private void typeKeyProgram(
+    final XCKeyProgram program)
+    throws Exception
+  {
+    final var slow =
+      this.slowMotion.get();
+    final var keysPerBatch =
+      slow ? 1 : KEY_PROGRAM_KEYS_PER_BATCH;
+    final var batch =
+      XCFXThread.batch();
+
+    var acknowledged = false;
+    try {
+      var start = 0;
+      while (start < program.size()) {
+        final var from = start;
+        final var to = program.endAfterKeys(from, keysPerBatch);
+        batch.add(() -> this.opKeyProgramRange(program, from, to));
+        acknowledged = this.typeKeyProgramFlush(
+          batch, program.releaseCount(from, to), slow);
+        start = to;
+      }
+    } catch (final Exception e) {
+      XCFXThread.batch()
+        .add(() -> this.opKeyRelease(CONTROL))
+        .add(() -> this.opKeyRelease(ALT))
+        .add(() -> this.opKeyRelease(SHIFT))
+        .submit();
+      throw e;
+    }
+
+    if (!slow && !acknowledged) {
+      this.pauseAfterKeyboardOp();
+    }
+  }
+
+  private boolean typeKeyProgramFlush(
+    final XCFXThreadBatch batch,
+    final int releases,
+    final boolean slow)
+    throws Exception
   {
-    if (code.isShift()) {
-      Platform.runLater(() -> this.opKeyPress(SHIFT));
+    final var ack =
+      this.expect(XCRobot::opFocusedScene, KeyEvent.KEY_RELEASED, releases);
+
+    try {
+      batch.submit().get(this.timeout, MILLISECONDS);
+    } catch (final Exception e) {
+      ack.cancel(false);
+      throw e;
+    } finally {
+      batch.clear();
     }
-    if (code.isAlt()) {
-      Platform.runLater(() -> this.opKeyPress(ALT));
+
+    if (slow) {
+      this.pauseAfterKeyboardOp();
+      return false;
     }
-    if (code.isControl()) {
-      Platform.runLater(() -> this.opKeyPress(CONTROL));
+    if (awaitAcknowledgement(ack, this.timePauseAfterKeyboardOp)) {
+      return true;
     }
+    this.waitForFrames(1);
+    return false;
+  }
 
-    Platform.runLater(() -> this.opKeyType(code.code()));
+  /*
+   * Register an expectation of input events with the pacer if acknowledged
+   * pacing is enabled. Otherwise, return an expectation that tells the
+   * caller to fall back to a fixed pause.
+   */
 
-    if (code.isControl()) {
-      Platform.runLater(() -> this.opKeyRelease(CONTROL));
+  private CompletableFuture<Boolean> expect(
+    final Supplier<Scene> scene,
+    final EventType<? extends InputEvent> type,
+    final int count)
+  {
+    if (this.acknowledgedPacing.get() && !this.slowMotion.get()) {
+      return this.pacer.expect(scene, type, count);
     }
-    if (code.isAlt()) {
-      Platform.runLater(() -> this.opKeyRelease(ALT));
+    return CompletableFuture.completedFuture(Boolean.FALSE);
+  }
+
+  /*
+   * Wait for an acknowledgement for at most the given upper bound. Returns
+   * false if the caller should fall back to a fixed pause: pacing was
+   * disabled, or there was no scene to observe.
+   */
+
+  private static boolean awaitAcknowledgement(
+    final CompletableFuture<Boolean> ack,
+    final long upperBound)
+  {
+    try {
+      return ack.get(upperBound, MILLISECONDS).booleanValue();
+    } catch (final TimeoutException e) {
+      LOG.trace("input was not acknowledged within {}ms", upperBound);
+      return true;
+    } catch (final ExecutionException e) {
+      LOG.debug("error: ", e);
+      return false;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return true;
+    } finally {
+      ack.cancel(false);
     }
-    if (code.isShift()) {
-      Platform.runLater(() -> this.opKeyRelease(SHIFT));
+  }
+
+  private void executeExpecting(
+    final CompletableFuture<Boolean> ack,
+    final Runnable f)
+    throws Exception
+  {
+    try {
+      this.execute(f);
+    } catch (final Exception e) {
+      ack.cancel(false);
+      throw e;
     }
+  }
+
+  private void pointMouseAt(
+    final Node node)
+    throws Exception
+  {
+    final var ack =
+      this.expect(node::getScene, MouseEvent.ANY, 1);
+
+    this.executeExpecting(ack, () -> {
+      if (!this.opPointMouseAt(node)) {
+        ack.complete(Boolean.TRUE);
+      }
+    });
+    this.pauseAfterMouseOp(ack);
+  }
+
+  private CompletableFuture<Boolean> clickPrimary(
+    final Node node)
+    throws Exception
+  {
+    final var ack =
+      this.expect(node::getScene, MouseEvent.MOUSE_RELEASED, 1);
 
-    this.pauseAfterKeyboardOp();
+    this.executeExpecting(ack, () -> {
+      this.opMousePress(MouseButton.PRIMARY);
+      this.opMouseRelease(MouseButton.PRIMARY);
+    });
+    return ack;
   }
 
   @Override
@@ -342,6 +527,68 @@ public final class XCRobot implements XCRobotType
     this.slowMotion.set(true);
   }
 
+  @Override
+  public void acknowledgedPacingDisable()
+  {
+    this.acknowledgedPacing.set(false);
+  }
+
+  @Override
+  public void acknowledgedPacingEnable()
+  {
+    this.acknowledgedPacing.set(true);
+  }
+
+  @Override
+  public boolean isAcknowledgedPacingEnabled()
+  {
+    return this.acknowledgedPacing.get();
+  }
+
+  @Override
+  public void sceneIndexDisable()
+  {
+    this.finder.setSceneIndexEnabled(false);
+    XCFXThread.runLater(() -> {
+      for (final var window : Window.getWindows()) {
+        final var scene = window.getScene();
+        if (scene != null) {
+          XCSceneIndex.detach(scene);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void sceneIndexEnable()
+  {
+    this.finder.setSceneIndexEnabled(true);
+  }
+
+  @Override
+  public boolean isSceneIndexEnabled()
+  {
+    return this.finder.isSceneIndexEnabled();
+  }
+
+  @Override
+  public void snapshotSearchDisable()
+  {
+    this.snapshotSearch.set(false);
+  }
+
+  @Override
+  public void snapshotSearchEnable()
+  {
+    this.snapshotSearch.set(true);
+  }
+
+  @Override
+  public boolean isSnapshotSearchEnabled()
+  {
+    return this.snapshotSearch.get();
+  }
+
   @Override
   public long timeoutMilliseconds()
   {
@@ -400,19 +647,45 @@ public final class XCRobot implements XCRobotType
     final long milliseconds)
     throws Exception
   {
-    for (var t = 0L; t < milliseconds; ++t) {
-      if (stage.isShowing()) {
-        Thread.sleep(1L);
-      } else {
-        return;
-      }
-    }
+    Objects.requireNonNull(stage, "stage");
 
-    throw new TimeoutException(
+    waitFor(
+      this.waits.waitUntil(stage.showingProperty(), v -> !v.booleanValue()),
+      milliseconds,
       "Timed out waiting for the stage to close."
     );
   }
 
+  @Override
+  public void waitForStageShown(
+    final Stage stage,
+    final long milliseconds)
+    throws Exception
+  {
+    Objects.requireNonNull(stage, "stage");
+
+    waitFor(
+      this.waits.waitUntil(stage.showingProperty(), Boolean::booleanValue),
+      milliseconds,
+      "Timed out waiting for the stage to be shown."
+    );
+  }
+
+  @Override
+  public void waitForStageFocused(
+    final Stage stage,
+    final long milliseconds)
+    throws Exception
+  {
+    Objects.requireNonNull(stage, "stage");
+
+    waitFor(
+      this.waits.waitUntil(stage.focusedProperty(), Boolean::booleanValue),
+      milliseconds,
+      "Timed out waiting for the stage to be focused."
+    );
+  }
+
   @Override
   public Robot robot()
   {
@@ -428,7 +701,7 @@ public final class XCRobot implements XCRobotType
     return this.evaluate(() -> {
       final var scene = stage.getScene();
       if (scene != null) {
-        return findAllInner(clazz, scene.getRoot());
+        return this.finder.opFindAll(clazz, scene.getRoot());
       }
       return List.of();
     });
@@ -440,7 +713,7 @@ public final class XCRobot implements XCRobotType
     final Parent parent)
     throws Exception
   {
-    return this.evaluate(() -> findAllInner(clazz, parent));
+    return this.evaluate(() -> this.finder.opFindAll(clazz, parent));
   }
 
   @Override
@@ -451,17 +724,7 @@ public final class XCRobot implements XCRobotType
     throws Exception
   {
     return this.evaluate(() -> {
-      final var scene = stage.getScene();
-      if (scene != null) {
-        final var result = scene.getRoot().lookup("#" + id);
-        if (result != null) {
-          return clazz.cast(result);
-        }
-      }
-
-      throw new NoSuchElementException(
-        "No element with id '%s'".formatted(id)
-      );
+      return this.finder.opRequireWithId(clazz, opRootsOf(stage), id);
     });
   }
 
@@ -473,14 +736,7 @@ public final class XCRobot implements XCRobotType
     throws Exception
   {
     return this.evaluate(() -> {
-      final var result = root.lookup("#" + id);
-      if (result != null) {
-        return clazz.cast(result);
-      }
-
-      throw new NoSuchElementException(
-        "No element with id '%s'".formatted(id)
-      );
+      return this.finder.opRequireWithId(clazz, List.of(root), id);
     });
   }
 
@@ -491,26 +747,8 @@ public final class XCRobot implements XCRobotType
     throws Exception
   {
     return this.evaluate(() -> {
-      final var windows =
-        Window.getWindows()
-          .stream()
-          .map(w -> (Stage) w)
-          .filter(Window::isShowing)
-          .toList();
-
-      for (final var window : windows) {
-        final var scene = window.getScene();
-        if (scene != null) {
-          final var result = opSearchWithText(scene.getRoot(), text);
-          if (result != null) {
-            return clazz.cast(result);
-          }
-        }
-      }
-
-      throw new NoSuchElementException(
-        "No element with text '%s'".formatted(text)
-      );
+      final var roots = this.finder.opSearchRoots();
+      return this.finder.opRequireWithText(clazz, roots, text);
     });
   }
 
@@ -522,17 +760,7 @@ public final class XCRobot implements XCRobotType
     throws Exception
   {
     return this.evaluate(() -> {
-      final var scene = stage.getScene();
-      if (scene != null) {
-        final var result = opSearchWithText(scene.getRoot(), text);
-        if (result != null) {
-          return clazz.cast(result);
-        }
-      }
-
-      throw new NoSuchElementException(
-        "No element with text '%s'".formatted(text)
-      );
+      return this.finder.opRequireWithText(clazz, opRootsOf(stage), text);
     });
   }
 
@@ -544,14 +772,7 @@ public final class XCRobot implements XCRobotType
     throws Exception
   {
     return this.evaluate(() -> {
-      final var result = opSearchWithText(parent, text);
-      if (result != null) {
-        return clazz.cast(result);
-      }
-
-      throw new NoSuchElementException(
-        "No element with text '%s'".formatted(text)
-      );
+      return this.finder.opRequireWithText(clazz, List.of(parent), text);
     });
   }
 
@@ -562,26 +783,8 @@ public final class XCRobot implements XCRobotType
     throws Exception
   {
     return this.evaluate(() -> {
-      final var windows =
-        Window.getWindows()
-          .stream()
-          .map(w -> (Stage) w)
-          .filter(Window::isShowing)
-          .toList();
-
-      for (final var window : windows) {
-        final var scene = window.getScene();
-        if (scene != null) {
-          final var result = scene.getRoot().lookup("#" + id);
-          if (result != null) {
-            return clazz.cast(result);
-          }
-        }
-      }
-
-      throw new NoSuchElementException(
-        "No element with id '%s'".formatted(id)
-      );
+      final var roots = this.finder.opSearchRoots();
+      return this.finder.opRequireWithId(clazz, roots, id);
     });
   }
 
@@ -595,7 +798,7 @@ public final class XCRobot implements XCRobotType
     return this.evaluate(() -> {
       final var scene = stage.getScene();
       if (scene != null) {
-        return findAllWithClassInner(clazz, scene.getRoot(), cssClass);
+        return this.finder.opFindAllWithClass(clazz, scene.getRoot(), cssClass);
       }
       return List.of();
     });
@@ -608,7 +811,9 @@ public final class XCRobot implements XCRobotType
     final String cssClass)
     throws Exception
   {
-    return this.evaluate(() -> findAllWithClassInner(clazz, parent, cssClass));
+    return this.evaluate(() -> {
+      return this.finder.opFindAllWithClass(clazz, parent, cssClass);
+    });
   }
 
   @Override
@@ -618,36 +823,339 @@ public final class XCRobot implements XCRobotType
     throws Exception
   {
     return this.evaluate(() -> {
-      final var windows =
-        Window.getWindows()
-          .stream()
-          .map(w -> (Stage) w)
-          .filter(Window::isShowing)
-          .toList();
-
-      final var results = new LinkedList<T>();
-      for (final var window : windows) {
-        final var scene = window.getScene();
-        if (scene != null) {
-          opSearchWithClass(results, clazz, scene.getRoot(), cssClass);
-        }
+      final var results = new ArrayList<T>();
+      for (final var root : this.finder.opSearchRoots()) {
+        results.addAll(this.finder.opFindAllWithClass(clazz, root, cssClass));
       }
       return results;
     });
   }
 
+  @Override
+  public <T extends Node> T findFirstInStage(
+    final Class<T> clazz,
+    final Stage stage)
+    throws Exception
+  {
+    return this.evaluate(() -> {
+      return this.finder.opRequireFirst(clazz, opRootsOf(stage), null);
+    });
+  }
+
+  @Override
+  public <T extends Node> T findFirst(
+    final Class<T> clazz,
+    final Parent parent)
+    throws Exception
+  {
+    return this.evaluate(() -> {
+      return this.finder.opRequireFirst(clazz, List.of(parent), null);
+    });
+  }
+
+  @Override
+  public <T extends Node> T findFirstWithClassInStage(
+    final Class<T> clazz,
+    final Stage stage,
+    final String cssClass)
+    throws Exception
+  {
+    Objects.requireNonNull(cssClass, "cssClass");
+    return this.evaluate(() -> {
+      return this.finder.opRequireFirst(clazz, opRootsOf(stage), cssClass);
+    });
+  }
+
+  @Override
+  public <T extends Node> T findFirstWithClass(
+    final Class<T> clazz,
+    final Parent parent,
+    final String cssClass)
+    throws Exception
+  {
+    Objects.requireNonNull(cssClass, "cssClass");
+    return this.evaluate(() -> {
+      return this.finder.opRequireFirst(clazz, List.of(parent), cssClass);
+    });
+  }
+
+  @Override
+  public <T extends Node> T findFirstWithClassInAnyStage(
+    final Class<T> clazz,
+    final String cssClass)
+    throws Exception
+  {
+    Objects.requireNonNull(cssClass, "cssClass");
+    return this.evaluate(() -> {
+      final var roots = this.finder.opSearchRoots();
+      return this.finder.opRequireFirst(clazz, roots, cssClass);
+    });
+  }
+
+  @Override
+  public <T extends Node> List<T> findAll(
+    final XCNodeQuery<T> query,
+    final Parent parent)
+    throws Exception
+  {
+    Objects.requireNonNull(parent, "parent");
+    return this.query(query, () -> List.of(parent), UNLIMITED, false);
+  }
+
+  @Override
+  public <T extends Node> List<T> findAllInStage(
+    final XCNodeQuery<T> query,
+    final Stage stage)
+    throws Exception
+  {
+    Objects.requireNonNull(stage, "stage");
+    return this.query(query, () -> opRootsOf(stage), UNLIMITED, false);
+  }
+
+  @Override
+  public <T extends Node> List<T> findAllInAnyStage(
+    final XCNodeQuery<T> query)
+    throws Exception
+  {
+    return this.query(query, this.finder::opSearchRoots, UNLIMITED, false);
+  }
+
+  @Override
+  public <T extends Node> T findFirst(
+    final XCNodeQuery<T> query,
+    final Parent parent)
+    throws Exception
+  {
+    Objects.requireNonNull(parent, "parent");
+    return this.query(query, () -> List.of(parent), 1, true).get(0);
+  }
+
+  @Override
+  public <T extends Node> T findFirstInStage(
+    final XCNodeQuery<T> query,
+    final Stage stage)
+    throws Exception
+  {
+    Objects.requireNonNull(stage, "stage");
+    return this.query(query, () -> opRootsOf(stage), 1, true).get(0);
+  }
+
+  @Override
+  public <T extends Node> T findFirstInAnyStage(
+    final XCNodeQuery<T> query)
+    throws Exception
+  {
+    return this.query(query, this.finder::opSearchRoots, 1, true).get(0);
+  }
+
+  @Override
+  public <T> ListCell<?> findListCell(
+    final ListView<T> view,
+    final Predicate<? super T> item)
+    throws Exception
+  {
+    Objects.requireNonNull(item, "item");
+    return (ListCell<?>) this.findCell(view, ListCell.class, () -> {
+      return Integer.valueOf(XCVirtualCells.opScrollTo(view, item));
+    });
+  }
+
+  @Override
+  public <T> TableRow<?> findTableRow(
+    final TableView<T> view,
+    final Predicate<? super T> item)
+    throws Exception
+  {
+    Objects.requireNonNull(item, "item");
+    return (TableRow<?>) this.findCell(view, TableRow.class, () -> {
+      return Integer.valueOf(XCVirtualCells.opScrollTo(view, item));
+    });
+  }
+
+  @Override
+  public <T> TreeCell<?> findTreeCell(
+    final TreeView<T> view,
+    final Predicate<? super T> item)
+    throws Exception
+  {
+    Objects.requireNonNull(item, "item");
+    return (TreeCell<?>) this.findCell(view, TreeCell.class, () -> {
+      return Integer.valueOf(XCVirtualCells.opScrollTo(view, item));
+    });
+  }
+
+  /*
+   * Scroll a virtualized control to a model index, and then resolve the
+   * realized cell with that index. The cell is looked for immediately and
+   * then once per pulse, so it is normally resolved after the single pulse
+   * in which the control lays out its cells.
+   */
+
+  private IndexedCell<?> findCell(
+    final Control view,
+    final Class<?> cellClass,
+    final XCFXThreadOperationType<Integer> scroll)
+    throws Exception
+  {
+    Objects.requireNonNull(view, "view");
+
+    final int index = this.evaluate(scroll).intValue();
+    final var cell = new AtomicReference<IndexedCell<?>>();
+    final var realized = this.waits.waitUntil(() -> {
+      cell.set(XCVirtualCells.opRealizedCell(view, cellClass, index));
+      return cell.get() != null;
+    });
+
+    waitFor(
+      realized,
+      this.timeout,
+      "Cell %d was not displayed before the desired timeout."
+        .formatted(Integer.valueOf(index))
+    );
+    return cell.get();
+  }
+
+  /*
+   * Evaluate a query against the subtrees at the given roots, stopping after
+   * the given number of results. If snapshot searching is enabled, the
+   * subtrees are captured in one JavaFX task and searched off the JavaFX
+   * thread; criteria that can only be checked against live nodes are then
+   * checked against the remaining candidates in a second, short task.
+   */
+
+  private <T extends Node> List<T> query(
+    final XCNodeQuery<T> query,
+    final XCFXThreadOperationType<List<Parent>> roots,
+    final int limit,
+    final boolean required)
+    throws Exception
+  {
+    Objects.requireNonNull(query, "query");
+
+    if (!this.snapshotSearch.get()) {
+      return this.evaluate(() -> {
+        return XCNodeFinder.requireResults(
+          this.finder.opQueryAll(query, roots.execute(), limit),
+          query,
+          required
+        );
+      });
+    }
+
+    final var snapshot =
+      this.evaluate(() -> XCSceneSnapshot.capture(roots.execute(), query));
+    final var live =
+      query.requiresFXThread();
+    final var candidates =
+      snapshot.search(query, live ? UNLIMITED : limit);
+
+    if (!live && !(required && candidates.isEmpty())) {
+      return candidates;
+    }
+
+    return this.evaluate(() -> {
+      return XCNodeFinder.requireResults(
+        candidates.stream().filter(query::matches).limit(limit).toList(),
+        query,
+        required
+      );
+    });
+  }
+
+  @Override
+  public XCNodeLookupResult lookup(
+    final XCNodeLookup lookup,
+    final Parent parent)
+    throws Exception
+  {
+    Objects.requireNonNull(parent, "parent");
+    return this.lookupIn(lookup, () -> List.of(parent));
+  }
+
+  @Override
+  public XCNodeLookupResult lookupInStage(
+    final XCNodeLookup lookup,
+    final Stage stage)
+    throws Exception
+  {
+    Objects.requireNonNull(stage, "stage");
+    return this.lookupIn(lookup, () -> opRootsOf(stage));
+  }
+
+  @Override
+  public XCNodeLookupResult lookupInAnyStage(
+    final XCNodeLookup lookup)
+    throws Exception
+  {
+    return this.lookupIn(lookup, this.finder::opSearchRoots);
+  }
+
+  private XCNodeLookupResult lookupIn(
+    final XCNodeLookup lookup,
+    final XCFXThreadOperationType<List<Parent>> roots)
+    throws Exception
+  {
+    Objects.requireNonNull(lookup, "lookup");
+    return this.evaluate(() -> {
+      final var results = new HashMap<String, Node>();
+      for (final var root : roots.execute()) {
+        this.finder.opLookup(lookup, root, results);
+      }
+      return new XCNodeLookupResult(lookup, results);
+    });
+  }
+
+  @Override
+  public <T extends Node> T findFirstEventually(
+    final long ms,
+    final XCNodeQuery<T> query,
+    final Parent parent)
+    throws TimeoutException, Exception
+  {
+    Objects.requireNonNull(query, "query");
+    Objects.requireNonNull(parent, "parent");
+
+    final var future =
+      XCSubtreeWatch.watch(parent, () -> {
+        final var results = this.finder.opQuery(query, parent, 1);
+        return results.isEmpty() ? null : results.get(0);
+      });
+
+    return waitFor(
+      future,
+      ms,
+      "No element matching %s appeared before the desired timeout."
+        .formatted(query)
+    );
+  }
+
+  @Override
+  public <T extends Node> T findFirstEventuallyInStage(
+    final long ms,
+    final XCNodeQuery<T> query,
+    final Stage stage)
+    throws TimeoutException, Exception
+  {
+    Objects.requireNonNull(stage, "stage");
+
+    final var root = this.evaluate(() -> {
+      final var scene = stage.getScene();
+      if (scene == null) {
+        throw new IllegalStateException("Stage has no scene.");
+      }
+      return scene.getRoot();
+    });
+    return this.findFirstEventually(ms, query, root);
+  }
+
   @Override
   public void click(
     final Node node)
     throws Exception
   {
-    Platform.runLater(() -> opBringStageToFront(node));
-    this.waitUntil(this.timeout, () -> opStageIsFront(node));
-    this.execute(() -> this.opPointMouseAt(node));
-    this.pauseAfterMouseOp();
-    this.execute(() -> this.opMousePress(MouseButton.PRIMARY));
-    this.execute(() -> this.opMouseRelease(MouseButton.PRIMARY));
-    this.pauseAfterMouseOp();
+    this.bringToFront(node);
+    this.pointMouseAt(node);
+    this.pauseAfterMouseOp(this.clickPrimary(node));
   }
 
   @Override
@@ -655,15 +1163,14 @@ public final class XCRobot implements XCRobotType
     final Node node)
     throws Exception
   {
-    Platform.runLater(() -> opBringStageToFront(node));
-    this.waitUntil(this.timeout, () -> opStageIsFront(node));
+    this.bringToFront(node);
     this.execute(() -> this.opPointMouseAt(node));
-    this.execute(() -> this.opMousePress(MouseButton.PRIMARY));
-    this.execute(() -> this.opMouseRelease(MouseButton.PRIMARY));
-    Thread.sleep(this.timePauseBetweenDoubleClick);
-    this.execute(() -> this.opMousePress(MouseButton.PRIMARY));
-    this.execute(() -> this.opMouseRelease(MouseButton.PRIMARY));
-    this.pauseAfterMouseOp();
+
+    final var first = this.clickPrimary(node);
+    if (!awaitAcknowledgement(first, this.timePauseBetweenDoubleClick)) {
+      Thread.sleep(this.timePauseBetweenDoubleClick);
+    }
+    this.pauseAfterMouseOp(this.clickPrimary(node));
   }
 
   @Override
@@ -671,10 +1178,8 @@ public final class XCRobot implements XCRobotType
     final Node node)
     throws Exception
   {
-    Platform.runLater(() -> opBringStageToFront(node));
-    this.waitUntil(this.timeout, () -> opStageIsFront(node));
-    this.execute(() -> this.opPointMouseAt(node));
-    this.pauseAfterMouseOp();
+    this.bringToFront(node);
+    this.pointMouseAt(node);
   }
 
   private void pauseAfterKeyboardOp()
@@ -688,6 +1193,22 @@ public final class XCRobot implements XCRobotType
     }
   }
 
+  private void pauseAfterKeyboardOp(
+    final CompletableFuture<Boolean> ack)
+  {
+    if (!awaitAcknowledgement(ack, this.timePauseAfterKeyboardOp)) {
+      this.pauseAfterKeyboardOp();
+    }
+  }
+
+  private void pauseAfterMouseOp(
+    final CompletableFuture<Boolean> ack)
+  {
+    if (!awaitAcknowledgement(ack, this.timePauseAfterMouseOp)) {
+      this.pauseAfterMouseOp();
+    }
+  }
+
   private void pauseAfterMouseOp()
   {
     try {
@@ -699,63 +1220,145 @@ public final class XCRobot implements XCRobotType
     }
   }
 
-  @Override
-  public void type(
-    final Node node,
-    final List<XCKey> codes)
+  /*
+   * Bring the window containing the given node to the front, and wait
+   * until it is focused.
+   */
+
+  private void bringToFront(
+    final Node node)
     throws Exception
   {
-    Platform.runLater(() -> opBringStageToFront(node));
-    this.waitUntil(this.timeout, () -> opStageIsFront(node));
-    this.execute(() -> this.opPointMouseAt(node));
-    this.pauseAfterMouseOp();
+    XCFXThread.runLater(() -> XCWindowOrder.opBringToFront(node));
+    this.waitUntil(this.timeout, () -> XCWindowOrder.opIsFront(node));
+  }
 
-    for (final var code : codes) {
-      LOG.trace("code {}", code);
+  private void focusForTyping(
+    final Node node)
+    throws Exception
+  {
+    this.bringToFront(node);
+    this.pointMouseAt(node);
+  }
+
+  /*
+   * Obtain the compiled key map, waiting for the key map source the first
+   * time that one is required.
+   */
+
+  private XCKeyMapCompiled compiledKeyMap()
+    throws Exception
+  {
+    final var existing = this.keyMap;
+    if (existing != null) {
+      return existing;
     }
 
-    for (final var code : codes) {
-      this.typeKey(code);
+    synchronized (this.keyMapLock) {
+      if (this.keyMap == null) {
+        this.keyMap =
+          this.keyMapSource.keyMap()
+            .get(KEY_MAP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .compile();
+      }
+      return this.keyMap;
     }
   }
 
+  /*
+   * Translate text to a key program using the compiled keymap and a
+   * per-thread key buffer, so that no per-character objects are created.
+   */
+
+  private XCKeyProgram compileText(
+    final String text)
+    throws Exception
+  {
+    if (this.keyMapResolver.isPresent()) {
+      this.resolveMissing(this.keyMapResolver.get(), text);
+    }
+
+    final var buffer = this.keyBuffers.get();
+    this.compiledKeyMap().translate(text, buffer);
+    final var program = XCKeyProgram.compile(buffer);
+    buffer.clear();
+    return program;
+  }
+
+  /*
+   * Ask the resolver to discover keys for any characters in the text that
+   * are missing from the keymap. Resolution types into the commander's own
+   * window, so focus is returned to the previously focused window
+   * afterwards. Characters that the resolver could not find are not asked
+   * for again, so text containing them fails immediately.
+   */
+
+  private void resolveMissing(
+    final XCKeyMapResolverType resolver,
+    final String text)
+    throws Exception
+  {
+    final var current = this.compiledKeyMap();
+    final var missing = new HashSet<Integer>();
+    text.codePoints()
+      .filter(c -> !current.contains(c))
+      .mapToObj(Integer::valueOf)
+      .filter(c -> !this.keyMapUnresolvable.contains(c))
+      .forEach(missing::add);
+
+    if (missing.isEmpty()) {
+      return;
+    }
+
+    final var focused =
+      this.evaluate(() -> Optional.ofNullable(opFocusedScene()));
+
+    final var resolved = resolver.resolve(missing).compile();
+    missing.removeIf(c -> resolved.contains(c.intValue()));
+    this.keyMapUnresolvable.addAll(missing);
+    this.keyMap = resolved;
+
+    if (focused.isPresent()) {
+      final var root = focused.get().getRoot();
+      this.bringToFront(root);
+    }
+  }
+
+  @Override
+  public void type(
+    final Node node,
+    final List<XCKey> codes)
+    throws Exception
+  {
+    this.focusForTyping(node);
+    this.typeKeys(codes);
+  }
+
   @Override
   public void typeText(
     final Node node,
     final String text)
     throws Exception
   {
-    final var characters =
-      text.chars()
-        .mapToObj(i -> Character.valueOf((char) i))
-        .toList();
-
-    this.type(node, this.keyMap.toCodes(characters));
+    final var program = this.compileText(text);
+    this.focusForTyping(node);
+    this.typeKeyProgram(program);
   }
 
   @Override
   public void type(
     final List<XCKey> codes)
+    throws Exception
   {
-    for (final var code : codes) {
-      LOG.trace("code {}", code);
-    }
-
-    for (final var code : codes) {
-      this.typeKey(code);
-    }
+    this.typeKeys(codes);
   }
 
   @Override
   public void typeText(
     final String text)
+    throws Exception
   {
-    final var characters =
-      text.chars()
-        .mapToObj(i -> Character.valueOf((char) i))
-        .toList();
-
-    this.type(this.keyMap.toCodes(characters));
+    this.typeKeyProgram(this.compileText(text));
   }
 
   @Override
@@ -763,8 +1366,7 @@ public final class XCRobot implements XCRobotType
     final KeyCode code)
     throws Exception
   {
-    this.execute(() -> this.robot.keyType(code));
-    this.pauseAfterKeyboardOp();
+    this.typeRawKey(code);
   }
 
   @Override
@@ -773,12 +1375,20 @@ public final class XCRobot implements XCRobotType
     final KeyCode code)
     throws Exception
   {
-    Platform.runLater(() -> opBringStageToFront(node));
-    this.waitUntil(this.timeout, () -> opStageIsFront(node));
-    this.execute(() -> this.opPointMouseAt(node));
-    this.pauseAfterMouseOp();
-    this.execute(() -> this.robot.keyType(code));
-    this.pauseAfterKeyboardOp();
+    this.bringToFront(node);
+    this.pointMouseAt(node);
+    this.typeRawKey(code);
+  }
+
+  private void typeRawKey(
+    final KeyCode code)
+    throws Exception
+  {
+    final var ack =
+      this.expect(XCRobot::opFocusedScene, KeyEvent.KEY_RELEASED, 1);
+
+    this.executeExpecting(ack, () -> this.robot.keyType(code));
+    this.pauseAfterKeyboardOp(ack);
   }
 
   @Override
@@ -786,12 +1396,11 @@ public final class XCRobot implements XCRobotType
     final int frames)
     throws Exception
   {
-    for (var index = 0; index < frames; ++index) {
-      XCFXThread.run(() -> {
-        Thread.sleep(1L);
-        return null;
-      }).get(this.timeout, MILLISECONDS);
-    }
+    waitFor(
+      this.waits.waitForPulses(frames),
+      this.timeout * Math.max(1L, frames),
+      "Timed out waiting for %d frames.".formatted(Integer.valueOf(frames))
+    );
   }
 
   @Override
@@ -800,28 +1409,40 @@ public final class XCRobot implements XCRobotType
     final BooleanSupplier predicate)
     throws TimeoutException, Exception
   {
-    final var duration =
-      Duration.of(ms, ChronoUnit.MILLIS);
-    final var timeThen =
-      Instant.now();
+    Objects.requireNonNull(predicate, "predicate");
+    waitFor(this.waits.waitUntil(predicate), ms, CONDITION_TIMED_OUT);
+  }
 
-    while (true) {
-      try {
-        final var isTrue =
-          XCFXThread.run(() -> Boolean.valueOf(predicate.getAsBoolean()))
-            .get(1L, MILLISECONDS);
+  @Override
+  public <T> T waitUntil(
+    final long ms,
+    final ObservableValue<T> observable,
+    final Predicate<? super T> predicate)
+    throws TimeoutException, Exception
+  {
+    Objects.requireNonNull(observable, "observable");
+    Objects.requireNonNull(predicate, "predicate");
+    return waitFor(
+      this.waits.waitUntil(observable, predicate),
+      ms,
+      CONDITION_TIMED_OUT
+    );
+  }
 
-        if (isTrue.booleanValue()) {
-          return;
-        }
-      } catch (final TimeoutException e) {
-        // Ignore.
-      }
-      final var timeNow = Instant.now();
-      if (Duration.between(timeThen, timeNow).compareTo(duration) >= 0) {
-        throw new TimeoutException(
-          "Condition did not become true before the desired timeout.");
-      }
+  private static <T> T waitFor(
+    final CompletableFuture<T> future,
+    final long ms,
+    final String message)
+    throws Exception
+  {
+    try {
+      return future.get(ms, MILLISECONDS);
+    } catch (final TimeoutException e) {
+      future.cancel(false);
+      throw new TimeoutException(message);
+    } catch (final InterruptedException e) {
+      future.cancel(false);
+      throw e;
     }
   }
 
@@ -837,18 +1458,18 @@ public final class XCRobot implements XCRobotType
         final var actual = window.get();
         final var scene = actual.getScene();
         final var root = scene.getRoot();
-        opBringStageToFront(root);
+        XCWindowOrder.opBringToFront(root);
         this.opPointMouseAt(root);
       });
     }
 
+    final var batch = XCFXThread.batch();
     for (final var code : ALL_KEY_CODES) {
-      Platform.runLater(() -> this.opKeyRelease(code));
-      Platform.requestNextPulse();
+      batch.add(() -> this.opKeyRelease(code));
     }
     for (final var button : ALL_MOUSE_BUTTONS) {
-      Platform.runLater(() -> this.opMouseRelease(button));
-      Platform.requestNextPulse();
+      batch.add(() -> this.opMouseRelease(button));
     }
+    batch.submit().get(this.timeout, MILLISECONDS);
   }
 }
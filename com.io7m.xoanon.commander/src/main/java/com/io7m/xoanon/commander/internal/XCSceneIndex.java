@@ -0,0 +1,481 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.control.Labeled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>An index of the nodes in a scene, by id, style class, node type, and
+ * {@link Labeled} text.</p>
+ *
+ * <p>The index is built with a single traversal of the scene the first time
+ * it is requested, and is subsequently kept current by listeners on the
+ * children, id, style classes, and text of every indexed node, and on the
+ * root of the scene. The index is stored in the scene's property map, and
+ * so lives exactly as long as the scene. All methods must be called on the
+ * JavaFX thread.</p>
+ *
+ * <p>Queries return nodes in document order (the order in which a
+ * depth-first, pre-order traversal of the scene would visit them).</p>
+ */
+
+public final class XCSceneIndex
+{
+  private static final Object KEY = XCSceneIndex.class;
+
+  private final Scene scene;
+  private final IdentityHashMap<Node, Entry> entries;
+  private final HashMap<String, Set<Node>> byId;
+  private final HashMap<String, Set<Node>> byClass;
+  private final HashMap<String, Set<Node>> byText;
+  private final HashMap<Class<?>, Set<Node>> byType;
+  private final ChangeListener<Parent> rootListener;
+
+  private XCSceneIndex(
+    final Scene inScene)
+  {
+    this.scene =
+      Objects.requireNonNull(inScene, "scene");
+    this.entries =
+      new IdentityHashMap<>();
+    this.byId =
+      new HashMap<>();
+    this.byClass =
+      new HashMap<>();
+    this.byText =
+      new HashMap<>();
+    this.byType =
+      new HashMap<>();
+    this.rootListener =
+      (o, oldRoot, newRoot) -> this.onRootChanged(oldRoot, newRoot);
+  }
+
+  /**
+   * Obtain the index for the given scene, creating it if necessary.
+   *
+   * @param scene The scene
+   *
+   * @return The index
+   */
+
+  @XCOnFXThread
+  public static XCSceneIndex of(
+    final Scene scene)
+  {
+    Objects.requireNonNull(scene, "scene");
+
+    final var existing = scene.getProperties().get(KEY);
+    if (existing instanceof final XCSceneIndex index) {
+      return index;
+    }
+
+    final var index = new XCSceneIndex(scene);
+    scene.rootProperty().addListener(index.rootListener);
+    if (scene.getRoot() != null) {
+      index.add(scene.getRoot());
+    }
+    scene.getProperties().put(KEY, index);
+    return index;
+  }
+
+  /**
+   * Remove the index (and all of its listeners) from the given scene, if
+   * the scene has one.
+   *
+   * @param scene The scene
+   */
+
+  @XCOnFXThread
+  public static void detach(
+    final Scene scene)
+  {
+    Objects.requireNonNull(scene, "scene");
+
+    final var existing = scene.getProperties().remove(KEY);
+    if (existing instanceof final XCSceneIndex index) {
+      scene.rootProperty().removeListener(index.rootListener);
+      if (scene.getRoot() != null) {
+        index.remove(scene.getRoot());
+      }
+    }
+  }
+
+  /**
+   * @return The number of indexed nodes
+   */
+
+  @XCOnFXThread
+  public int size()
+  {
+    return this.entries.size();
+  }
+
+  /**
+   * Find nodes with the given id within the subtree at {@code root}.
+   *
+   * @param root The root of the subtree
+   * @param id   The id
+   *
+   * @return The nodes, in document order
+   */
+
+  @XCOnFXThread
+  public List<Node> withId(
+    final Node root,
+    final String id)
+  {
+    return this.within(root, this.byId.getOrDefault(id, Set.of()));
+  }
+
+  /**
+   * Find nodes with the given style class within the subtree at
+   * {@code root}.
+   *
+   * @param root     The root of the subtree
+   * @param cssClass The style class
+   *
+   * @return The nodes, in document order
+   */
+
+  @XCOnFXThread
+  public List<Node> withClass(
+    final Node root,
+    final String cssClass)
+  {
+    return this.within(root, this.byClass.getOrDefault(cssClass, Set.of()));
+  }
+
+  /**
+   * Find {@link Labeled} nodes with the given text within the subtree at
+   * {@code root}.
+   *
+   * @param root The root of the subtree
+   * @param text The text
+   *
+   * @return The nodes, in document order
+   */
+
+  @XCOnFXThread
+  public List<Node> withText(
+    final Node root,
+    final String text)
+  {
+    return this.within(root, this.byText.getOrDefault(text, Set.of()));
+  }
+
+  /**
+   * Find nodes that are of type {@code clazz} (or some subtype of it) within
+   * the subtree at {@code root}.
+   *
+   * @param root  The root of the subtree
+   * @param clazz The type
+   *
+   * @return The nodes, in document order
+   */
+
+  @XCOnFXThread
+  public List<Node> withType(
+    final Node root,
+    final Class<?> clazz)
+  {
+    final var candidates = new ArrayList<Node>();
+    for (final var entry : this.byType.entrySet()) {
+      if (clazz.isAssignableFrom(entry.getKey())) {
+        candidates.addAll(entry.getValue());
+      }
+    }
+    return this.within(root, candidates);
+  }
+
+  private List<Node> within(
+    final Node root,
+    final Collection<Node> candidates)
+  {
+    if (candidates.isEmpty()) {
+      return List.of();
+    }
+
+    final var results = new ArrayList<Node>(candidates.size());
+    for (final var node : candidates) {
+      if (isWithin(root, node)) {
+        results.add(node);
+      }
+    }
+    if (results.size() > 1) {
+      results.sort(documentOrder());
+    }
+    return results;
+  }
+
+  private static boolean isWithin(
+    final Node root,
+    final Node node)
+  {
+    for (var current = node; current != null; current = current.getParent()) {
+      if (current == root) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Comparator<Node> documentOrder()
+  {
+    final var paths = new IdentityHashMap<Node, int[]>();
+    return (a, b) -> {
+      final var pathA = paths.computeIfAbsent(a, XCSceneIndex::pathOf);
+      final var pathB = paths.computeIfAbsent(b, XCSceneIndex::pathOf);
+      return Arrays.compare(pathA, pathB);
+    };
+  }
+
+  private static int[] pathOf(
+    final Node node)
+  {
+    final var reversed = new ArrayList<Integer>();
+    var current = node;
+    while (current.getParent() != null) {
+      final var parent = current.getParent();
+      reversed.add(
+        Integer.valueOf(parent.getChildrenUnmodifiable().indexOf(current)));
+      current = parent;
+    }
+
+    final var path = new int[reversed.size()];
+    for (int index = 0; index < path.length; ++index) {
+      path[index] = reversed.get(path.length - 1 - index).intValue();
+    }
+    return path;
+  }
+
+  private void onRootChanged(
+    final Parent oldRoot,
+    final Parent newRoot)
+  {
+    if (oldRoot != null) {
+      this.remove(oldRoot);
+    }
+    if (newRoot != null) {
+      this.add(newRoot);
+    }
+  }
+
+  /*
+   * Index the subtree at the given node. An explicit stack is used, as
+   * scene graphs can be deep.
+   */
+
+  private void add(
+    final Node root)
+  {
+    final var stack = new ArrayList<Node>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      final var node = stack.remove(stack.size() - 1);
+      if (this.entries.containsKey(node)) {
+        continue;
+      }
+      this.entries.put(node, new Entry(node));
+      if (node instanceof final Parent parent) {
+        stack.addAll(parent.getChildrenUnmodifiable());
+      }
+    }
+  }
+
+  private void remove(
+    final Node root)
+  {
+    final var stack = new ArrayList<Node>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      final var node = stack.remove(stack.size() - 1);
+      final var entry = this.entries.remove(node);
+      if (entry == null) {
+        continue;
+      }
+      entry.close();
+      if (node instanceof final Parent parent) {
+        stack.addAll(parent.getChildrenUnmodifiable());
+      }
+    }
+  }
+
+  private void onChildrenChanged(
+    final ListChangeListener.Change<? extends Node> change)
+  {
+    while (change.next()) {
+      for (final var removed : change.getRemoved()) {
+        if (!this.isIndexedParent(removed.getParent())) {
+          this.remove(removed);
+        }
+      }
+      for (final var added : change.getAddedSubList()) {
+        this.add(added);
+      }
+    }
+  }
+
+  /*
+   * A removed node might have been moved to another indexed parent, in
+   * which case it must stay in the index.
+   */
+
+  private boolean isIndexedParent(
+    final Parent parent)
+  {
+    return parent != null
+      && parent.getScene() == this.scene
+      && this.entries.containsKey(parent);
+  }
+
+  private static void put(
+    final Map<String, Set<Node>> map,
+    final String key,
+    final Node node)
+  {
+    if (key != null) {
+      map.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(node);
+    }
+  }
+
+  private static void drop(
+    final Map<String, Set<Node>> map,
+    final String key,
+    final Node node)
+  {
+    if (key == null) {
+      return;
+    }
+    final var nodes = map.get(key);
+    if (nodes != null) {
+      nodes.remove(node);
+      if (nodes.isEmpty()) {
+        map.remove(key);
+      }
+    }
+  }
+
+  private final class Entry
+  {
+    private final Node node;
+    private final ChangeListener<String> idListener;
+    private final ListChangeListener<String> classListener;
+    private final ChangeListener<String> textListener;
+    private final ListChangeListener<Node> childListener;
+    private final ArrayList<String> classes;
+
+    Entry(
+      final Node inNode)
+    {
+      this.node = inNode;
+      this.classes = new ArrayList<>(inNode.getStyleClass());
+
+      this.idListener = (o, oldId, newId) -> {
+        drop(XCSceneIndex.this.byId, oldId, this.node);
+        put(XCSceneIndex.this.byId, newId, this.node);
+      };
+      this.classListener = c -> this.onClassesChanged();
+
+      put(XCSceneIndex.this.byId, inNode.getId(), inNode);
+      for (final var cssClass : this.classes) {
+        put(XCSceneIndex.this.byClass, cssClass, inNode);
+      }
+      XCSceneIndex.this.byType
+        .computeIfAbsent(inNode.getClass(), k -> new LinkedHashSet<>())
+        .add(inNode);
+
+      inNode.idProperty().addListener(this.idListener);
+      inNode.getStyleClass().addListener(this.classListener);
+
+      if (inNode instanceof final Labeled labeled) {
+        this.textListener = (o, oldText, newText) -> {
+          drop(XCSceneIndex.this.byText, oldText, this.node);
+          put(XCSceneIndex.this.byText, newText, this.node);
+        };
+        put(XCSceneIndex.this.byText, labeled.getText(), inNode);
+        labeled.textProperty().addListener(this.textListener);
+      } else {
+        this.textListener = null;
+      }
+
+      if (inNode instanceof final Parent parent) {
+        this.childListener = XCSceneIndex.this::onChildrenChanged;
+        parent.getChildrenUnmodifiable().addListener(this.childListener);
+      } else {
+        this.childListener = null;
+      }
+    }
+
+    private void onClassesChanged()
+    {
+      for (final var cssClass : this.classes) {
+        drop(XCSceneIndex.this.byClass, cssClass, this.node);
+      }
+      this.classes.clear();
+      this.classes.addAll(this.node.getStyleClass());
+      for (final var cssClass : this.classes) {
+        put(XCSceneIndex.this.byClass, cssClass, this.node);
+      }
+    }
+
+    void close()
+    {
+      this.node.idProperty().removeListener(this.idListener);
+      this.node.getStyleClass().removeListener(this.classListener);
+
+      drop(XCSceneIndex.this.byId, this.node.getId(), this.node);
+      for (final var cssClass : this.classes) {
+        drop(XCSceneIndex.this.byClass, cssClass, this.node);
+      }
+
+      final var types = XCSceneIndex.this.byType.get(this.node.getClass());
+      if (types != null) {
+        types.remove(this.node);
+        if (types.isEmpty()) {
+          XCSceneIndex.this.byType.remove(this.node.getClass());
+        }
+      }
+
+      if (this.node instanceof final Labeled labeled) {
+        labeled.textProperty().removeListener(this.textListener);
+        drop(XCSceneIndex.this.byText, labeled.getText(), this.node);
+      }
+      if (this.node instanceof final Parent parent) {
+        parent.getChildrenUnmodifiable().removeListener(this.childListener);
+      }
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCNodeProperties;
+import com.io7m.xoanon.commander.api.XCNodeQuery;
+import com.io7m.xoanon.commander.api.XCOnAnyThread;
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>An immutable snapshot of the searchable properties of every node in
+ * one or more subtrees of the scene graph.</p>
+ *
+ * <p>A snapshot is captured on the JavaFX thread in a single traversal that
+ * only copies node properties, and can then be searched on any thread. A
+ * snapshot captured for a specific query holds only the nodes of the
+ * query's type, and only the properties that the query's criteria examine,
+ * so that the time spent on the JavaFX thread is proportional to what the
+ * query needs rather than to the size of the scene. The
+ * search is executed as a parallel stream on the common fork/join pool, so
+ * expensive criteria (such as regular expressions) over very large scenes
+ * do not block the JavaFX thread. Results are returned in document
+ * order.</p>
+ */
+
+public final class XCSceneSnapshot
+{
+  private final List<XCNodeProperties> nodes;
+
+  private XCSceneSnapshot(
+    final List<XCNodeProperties> inNodes)
+  {
+    this.nodes = List.copyOf(inNodes);
+  }
+
+  /**
+   * Capture a snapshot of the subtrees at the given roots. Nodes appear in
+   * the snapshot in document order, with the subtrees in the order given.
+   *
+   * @param roots The roots
+   *
+   * @return A snapshot
+   */
+
+  @XCOnFXThread
+  public static XCSceneSnapshot capture(
+    final List<? extends Parent> roots)
+  {
+    return capture(roots, Node.class, Fields.ALL);
+  }
+
+  /**
+   * Capture a snapshot of the subtrees at the given roots that is
+   * sufficient to search for {@code query}. Only nodes of the query's type
+   * are captured (although the descendants of other nodes are still
+   * visited), and properties that none of the query's criteria examine are
+   * left empty. The snapshot must therefore only be searched with
+   * {@code query}.
+   *
+   * @param roots The roots
+   * @param query The query
+   *
+   * @return A snapshot
+   */
+
+  @XCOnFXThread
+  public static XCSceneSnapshot capture(
+    final List<? extends Parent> roots,
+    final XCNodeQuery<?> query)
+  {
+    return capture(roots, query.type(), Fields.of(query));
+  }
+
+  @XCOnFXThread
+  private static XCSceneSnapshot capture(
+    final List<? extends Parent> roots,
+    final Class<? extends Node> type,
+    final Fields fields)
+  {
+    final var nodes = new ArrayList<XCNodeProperties>();
+    for (final var root : roots) {
+      for (final var node : XCNodeTraversal.all(root, type)) {
+        nodes.add(fields.capture(node));
+      }
+    }
+    return new XCSceneSnapshot(nodes);
+  }
+
+  /**
+   * @return The number of nodes in the snapshot
+   */
+
+  public int size()
+  {
+    return this.nodes.size();
+  }
+
+  /**
+   * Search the snapshot for nodes that match {@code query}. If the query
+   * {@link XCNodeQuery#requiresFXThread()}, the results are only candidates
+   * that must be checked against the live nodes on the JavaFX thread.
+   *
+   * @param query The query
+   * @param limit The maximum number of results
+   * @param <T>   The type of nodes
+   *
+   * @return The matching nodes, in document order
+   */
+
+  @XCOnAnyThread
+  public <T extends Node> List<T> search(
+    final XCNodeQuery<T> query,
+    final int limit)
+  {
+    final var type = query.type();
+    return this.nodes.parallelStream()
+      .filter(query::matchesProperties)
+      .limit(limit)
+      .map(p -> type.cast(p.node()))
+      .toList();
+  }
+
+  /*
+   * The set of node properties that are copied into a snapshot.
+   */
+
+  private record Fields(
+    boolean id,
+    boolean styleClasses,
+    boolean pseudoClasses,
+    boolean text)
+  {
+    static final Fields ALL =
+      new Fields(true, true, true, true);
+
+    static Fields of(
+      final XCNodeQuery<?> query)
+    {
+      var id = false;
+      var styleClasses = false;
+      var pseudoClasses = false;
+      var text = false;
+
+      for (final var criterion : query.criteria()) {
+        switch (criterion) {
+          case final XCNodeQuery.WithId c -> {
+            id = true;
+          }
+          case final XCNodeQuery.WithStyleClass c -> {
+            styleClasses = true;
+          }
+          case final XCNodeQuery.WithPseudoClass c -> {
+            pseudoClasses = true;
+          }
+          case final XCNodeQuery.WithText c -> {
+            text = true;
+          }
+          case final XCNodeQuery.WithTextPrefix c -> {
+            text = true;
+          }
+          case final XCNodeQuery.WithTextMatching c -> {
+            text = true;
+          }
+          case final XCNodeQuery.WithPredicate c -> {
+            /* Predicates are only evaluated against live nodes. */
+          }
+        }
+      }
+      return new Fields(id, styleClasses, pseudoClasses, text);
+    }
+
+    @XCOnFXThread
+    XCNodeProperties capture(
+      final Node node)
+    {
+      return new XCNodeProperties(
+        node,
+        this.id ? node.getId() : null,
+        this.styleClasses ? node.getStyleClass() : List.of(),
+        this.pseudoClasses ? node.getPseudoClassStates() : Set.of(),
+        this.text ? XCNodeQuery.textOf(node) : null
+      );
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCFXThread;
+import com.io7m.xoanon.commander.api.XCOnAnyThread;
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.beans.InvalidationListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.control.Labeled;
+import javafx.scene.control.TextInputControl;
+import javafx.scene.text.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * <p>A watch that evaluates a search over a subtree of the scene graph
+ * until the search produces a result.</p>
+ *
+ * <p>The search is evaluated once immediately. If it produces no result,
+ * listeners are attached to every node in the subtree: to the child lists
+ * of parents, and to the id, style class, pseudo-class, and text of each
+ * node. Any change schedules a single re-evaluation of the search on the
+ * JavaFX thread, so a burst of changes (such as a dialog populating its
+ * contents) results in one re-evaluation rather than one per change. Nodes
+ * are watched as they are added to the subtree, and are no longer watched
+ * once removed. All listeners are removed when the returned future
+ * completes, including when it is cancelled.</p>
+ *
+ * @param <T> The type of search results
+ */
+
+public final class XCSubtreeWatch<T>
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XCSubtreeWatch.class);
+
+  private final CompletableFuture<T> future;
+  private final Node root;
+  private final Supplier<T> search;
+  private final IdentityHashMap<Node, Runnable> watched;
+  private final InvalidationListener changed;
+  private final ListChangeListener<Node> childrenChanged;
+  private boolean scheduled;
+  private int evaluations;
+
+  private XCSubtreeWatch(
+    final Node inRoot,
+    final Supplier<T> inSearch)
+  {
+    this.root =
+      Objects.requireNonNull(inRoot, "root");
+    this.search =
+      Objects.requireNonNull(inSearch, "search");
+    this.future =
+      new CompletableFuture<>();
+    this.watched =
+      new IdentityHashMap<>();
+    this.changed =
+      ignored -> this.opSchedule();
+    this.childrenChanged =
+      this::opChildrenChanged;
+  }
+
+  /**
+   * Evaluate {@code search} on the JavaFX thread now, and again whenever the
+   * subtree at {@code root} changes, until the search returns a non-null
+   * result.
+   *
+   * @param root   The root of the watched subtree
+   * @param search The search
+   * @param <T>    The type of search results
+   *
+   * @return A future that completes with the first non-null search result
+   */
+
+  @XCOnAnyThread
+  public static <T> CompletableFuture<T> watch(
+    final Node root,
+    final Supplier<T> search)
+  {
+    final var watch = new XCSubtreeWatch<>(root, search);
+    XCFXThread.runV(watch::opStart)
+      .whenComplete((ignored, exception) -> {
+        if (exception != null) {
+          watch.future.completeExceptionally(exception);
+        }
+      });
+    return watch.future;
+  }
+
+  @XCOnFXThread
+  private void opStart()
+  {
+    if (this.opEvaluate()) {
+      return;
+    }
+
+    this.opAttach(this.root);
+    this.future.whenComplete((ignored, exception) -> {
+      XCFXThread.runV(this::opDetachAll);
+    });
+  }
+
+  @XCOnFXThread
+  private boolean opEvaluate()
+  {
+    if (this.future.isDone()) {
+      return true;
+    }
+
+    ++this.evaluations;
+    try {
+      final var result = this.search.get();
+      if (result != null) {
+        LOG.trace("search succeeded after {} evaluations", this.evaluations);
+        this.future.complete(result);
+        return true;
+      }
+      return false;
+    } catch (final Throwable e) {
+      LOG.debug("error: ", e);
+      this.future.completeExceptionally(e);
+      return true;
+    }
+  }
+
+  @XCOnFXThread
+  private void opSchedule()
+  {
+    if (this.scheduled || this.future.isDone()) {
+      return;
+    }
+
+    this.scheduled = true;
+    XCFXThread.runLater(() -> {
+      this.scheduled = false;
+      this.opEvaluate();
+    });
+  }
+
+  @XCOnFXThread
+  private void opChildrenChanged(
+    final ListChangeListener.Change<? extends Node> change)
+  {
+    while (change.next()) {
+      for (final var node : change.getRemoved()) {
+        this.opDetach(node);
+      }
+      for (final var node : change.getAddedSubList()) {
+        this.opAttach(node);
+      }
+    }
+    this.opSchedule();
+  }
+
+  /*
+   * Attach listeners to every node in the subtree at the given node that
+   * is not already watched.
+   */
+
+  @XCOnFXThread
+  private void opAttach(
+    final Node start)
+  {
+    final var stack = new ArrayDeque<Node>();
+    stack.push(start);
+
+    while (!stack.isEmpty()) {
+      final var node = stack.pop();
+      if (this.watched.containsKey(node)) {
+        continue;
+      }
+
+      final var text = textPropertyOf(node);
+      node.idProperty().addListener(this.changed);
+      node.getStyleClass().addListener(this.changed);
+      node.getPseudoClassStates().addListener(this.changed);
+      if (text != null) {
+        text.addListener(this.changed);
+      }
+
+      if (node instanceof final Parent parent) {
+        final var children = parent.getChildrenUnmodifiable();
+        children.addListener(this.childrenChanged);
+        children.forEach(stack::push);
+      }
+
+      this.watched.put(node, () -> {
+        node.idProperty().removeListener(this.changed);
+        node.getStyleClass().removeListener(this.changed);
+        node.getPseudoClassStates().removeListener(this.changed);
+        if (text != null) {
+          text.removeListener(this.changed);
+        }
+        if (node instanceof final Parent parent) {
+          parent.getChildrenUnmodifiable()
+            .removeListener(this.childrenChanged);
+        }
+      });
+    }
+  }
+
+  /*
+   * Remove listeners from every watched node in the subtree at the given
+   * node.
+   */
+
+  @XCOnFXThread
+  private void opDetach(
+    final Node start)
+  {
+    final var stack = new ArrayDeque<Node>();
+    stack.push(start);
+
+    while (!stack.isEmpty()) {
+      final var node = stack.pop();
+      final var detach = this.watched.remove(node);
+      if (detach != null) {
+        detach.run();
+      }
+      if (node instanceof final Parent parent) {
+        parent.getChildrenUnmodifiable().forEach(stack::push);
+      }
+    }
+  }
+
+  @XCOnFXThread
+  private void opDetachAll()
+  {
+    this.watched.values().forEach(Runnable::run);
+    this.watched.clear();
+  }
+
+  private static ObservableValue<String> textPropertyOf(
+    final Node node)
+  {
+    if (node instanceof final Labeled labeled) {
+      return labeled.textProperty();
+    }
+    if (node instanceof final TextInputControl input) {
+      return input.textProperty();
+    }
+    if (node instanceof final Text text) {
+      return text.textProperty();
+    }
+    return null;
+  }
+}
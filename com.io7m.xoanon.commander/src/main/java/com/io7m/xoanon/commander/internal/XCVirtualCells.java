@@ -0,0 +1,237 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.scene.Node;
+import javafx.scene.control.Control;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * <p>Model-aware lookups of cells in virtualized controls.</p>
+ *
+ * <p>Virtualized controls such as {@link ListView}, {@link TableView}, and
+ * {@link TreeView} only realize cells for the rows that are currently
+ * visible, so searching the scene graph for a row that has been scrolled out
+ * of view cannot succeed. Instead, the item is located in the control's
+ * model, the control is scrolled to the item's index, and then the realized
+ * cell with that index is resolved once the control has laid out its cells
+ * on the next pulse.</p>
+ */
+
+public final class XCVirtualCells
+{
+  private XCVirtualCells()
+  {
+
+  }
+
+  /**
+   * Find the index of the first item that matches {@code predicate}.
+   *
+   * @param items     The items
+   * @param predicate The predicate
+   * @param <T>       The type of items
+   *
+   * @return The index of the item
+   *
+   * @throws NoSuchElementException If no item matches
+   */
+
+  public static <T> int indexOf(
+    final List<T> items,
+    final Predicate<? super T> predicate)
+    throws NoSuchElementException
+  {
+    final var size = items.size();
+    for (int index = 0; index < size; ++index) {
+      if (predicate.test(items.get(index))) {
+        return index;
+      }
+    }
+    throw new NoSuchElementException("No item matches the given predicate.");
+  }
+
+  /**
+   * Find the first tree item (in depth-first, pre-order) in the tree at
+   * {@code root} whose value matches {@code predicate}. Collapsed items are
+   * searched.
+   *
+   * @param root      The root of the tree
+   * @param predicate The predicate
+   * @param <T>       The type of item values
+   *
+   * @return The tree item
+   *
+   * @throws NoSuchElementException If no item matches
+   */
+
+  public static <T> TreeItem<T> treeItemOf(
+    final TreeItem<T> root,
+    final Predicate<? super T> predicate)
+    throws NoSuchElementException
+  {
+    final var stack = new ArrayDeque<TreeItem<T>>();
+    if (root != null) {
+      stack.push(root);
+    }
+
+    while (!stack.isEmpty()) {
+      final var item = stack.pop();
+      if (predicate.test(item.getValue())) {
+        return item;
+      }
+      final var children = item.getChildren();
+      for (int index = children.size() - 1; index >= 0; --index) {
+        stack.push(children.get(index));
+      }
+    }
+    throw new NoSuchElementException("No item matches the given predicate.");
+  }
+
+  /**
+   * Scroll the list to the first item that matches {@code predicate}.
+   *
+   * @param view      The list
+   * @param predicate The predicate
+   * @param <T>       The type of items
+   *
+   * @return The index of the item
+   */
+
+  @XCOnFXThread
+  public static <T> int opScrollTo(
+    final ListView<T> view,
+    final Predicate<? super T> predicate)
+  {
+    final var index = indexOf(view.getItems(), predicate);
+    view.scrollTo(index);
+    return index;
+  }
+
+  /**
+   * Scroll the table to the first item that matches {@code predicate}.
+   *
+   * @param view      The table
+   * @param predicate The predicate
+   * @param <T>       The type of items
+   *
+   * @return The index of the item
+   */
+
+  @XCOnFXThread
+  public static <T> int opScrollTo(
+    final TableView<T> view,
+    final Predicate<? super T> predicate)
+  {
+    final var index = indexOf(view.getItems(), predicate);
+    view.scrollTo(index);
+    return index;
+  }
+
+  /**
+   * Scroll the tree to the first item whose value matches
+   * {@code predicate}, expanding the item's ancestors as necessary.
+   *
+   * @param view      The tree
+   * @param predicate The predicate
+   * @param <T>       The type of item values
+   *
+   * @return The row index of the item
+   */
+
+  @XCOnFXThread
+  public static <T> int opScrollTo(
+    final TreeView<T> view,
+    final Predicate<? super T> predicate)
+  {
+    final var item = treeItemOf(view.getRoot(), predicate);
+    var parent = item.getParent();
+    while (parent != null) {
+      parent.setExpanded(true);
+      parent = parent.getParent();
+    }
+
+    final var row = view.getRow(item);
+    if (row < 0) {
+      throw new NoSuchElementException(
+        "The matching item is not displayed (the tree root is hidden).");
+    }
+    view.scrollTo(row);
+    return row;
+  }
+
+  /**
+   * Find the realized, visible, non-empty cell of type {@code cellClass}
+   * with the given index in the given control.
+   *
+   * @param view      The control
+   * @param cellClass The type of cell
+   * @param index     The index
+   *
+   * @return The cell, or {@code null} if no such cell is realized
+   */
+
+  @XCOnFXThread
+  public static IndexedCell<?> opRealizedCell(
+    final Control view,
+    final Class<?> cellClass,
+    final int index)
+  {
+    return XCNodeTraversal.first(
+      view,
+      IndexedCell.class,
+      cell -> {
+        return cellClass.isInstance(cell)
+               && cell.getIndex() == index
+               && !cell.isEmpty()
+               && isVisibleWithin(cell, view);
+      }
+    );
+  }
+
+  /*
+   * Virtual flows keep spare cells in invisible containers, so a cell is
+   * only considered if it and all of its ancestors up to the control are
+   * visible.
+   */
+
+  private static boolean isVisibleWithin(
+    final Node node,
+    final Node root)
+  {
+    for (var current = node; current != null; current = current.getParent()) {
+      if (!current.isVisible()) {
+        return false;
+      }
+      if (current == root) {
+        return true;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCFXThread;
+import com.io7m.xoanon.commander.api.XCOnAnyThread;
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.animation.AnimationTimer;
+import javafx.beans.InvalidationListener;
+import javafx.beans.value.ObservableValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * <p>An engine that evaluates wait conditions on the JavaFX thread.</p>
+ *
+ * <p>Predicates are evaluated at most once per JavaFX pulse using a single
+ * animation timer that is only running whilst there are conditions being
+ * waited upon. Conditions over observable values are evaluated only when
+ * the observable values change. Each condition completes exactly one
+ * future; cancelling the future (for example, when a caller gives up
+ * waiting) removes the condition from the engine.</p>
+ */
+
+public final class XCWaitEngine
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XCWaitEngine.class);
+
+  private final ArrayList<PulseConditionType> conditions;
+  private AnimationTimer timer;
+  private boolean timerRunning;
+
+  /**
+   * An engine that evaluates wait conditions on the JavaFX thread.
+   */
+
+  public XCWaitEngine()
+  {
+    this.conditions = new ArrayList<>();
+  }
+
+  /**
+   * Wait until the given predicate returns {@code true}. The predicate is
+   * evaluated once immediately, and then once per JavaFX pulse until it
+   * returns {@code true}, raises an exception, or the returned future is
+   * cancelled.
+   *
+   * @param predicate The predicate
+   *
+   * @return A future that completes when the predicate returns {@code true}
+   */
+
+  @XCOnAnyThread
+  public CompletableFuture<Void> waitUntil(
+    final BooleanSupplier predicate)
+  {
+    Objects.requireNonNull(predicate, "predicate");
+
+    final var future = new CompletableFuture<Void>();
+    this.submit(new PredicateCondition(future, predicate));
+    return future;
+  }
+
+  /**
+   * Wait for the given number of JavaFX pulses to occur. Nothing is executed
+   * on the JavaFX thread other than a counter update per pulse.
+   *
+   * @param pulses The number of pulses
+   *
+   * @return A future that completes after {@code pulses} pulses
+   */
+
+  @XCOnAnyThread
+  public CompletableFuture<Void> waitForPulses(
+    final int pulses)
+  {
+    final var future = new CompletableFuture<Void>();
+    if (pulses <= 0) {
+      future.complete(null);
+      return future;
+    }
+
+    this.submit(new PulseCounter(future, pulses));
+    return future;
+  }
+
+  /**
+   * Wait until the given predicate returns {@code true} for the current
+   * value of the given observable. The predicate is evaluated once
+   * immediately, and then again each time the observable value is
+   * invalidated.
+   *
+   * @param observable The observable value
+   * @param predicate  The predicate
+   * @param <T>        The type of observed values
+   *
+   * @return A future that completes with the value that satisfied the
+   * predicate
+   */
+
+  @XCOnAnyThread
+  public <T> CompletableFuture<T> waitUntil(
+    final ObservableValue<T> observable,
+    final Predicate<? super T> predicate)
+  {
+    Objects.requireNonNull(observable, "observable");
+    Objects.requireNonNull(predicate, "predicate");
+
+    final var future = new CompletableFuture<T>();
+    XCFXThread.runV(() -> opWatch(future, observable, predicate))
+      .whenComplete((ignored, exception) -> {
+        if (exception != null) {
+          future.completeExceptionally(exception);
+        }
+      });
+    return future;
+  }
+
+  @XCOnFXThread
+  private static <T> void opWatch(
+    final CompletableFuture<T> future,
+    final ObservableValue<T> observable,
+    final Predicate<? super T> predicate)
+  {
+    if (future.isDone()) {
+      return;
+    }
+
+    if (opEvaluateObservable(future, observable, predicate)) {
+      return;
+    }
+
+    final InvalidationListener listener = ignored -> {
+      opEvaluateObservable(future, observable, predicate);
+    };
+
+    observable.addListener(listener);
+    future.whenComplete((ignored, exception) -> {
+      XCFXThread.runV(() -> observable.removeListener(listener));
+    });
+  }
+
+  @XCOnFXThread
+  private static <T> boolean opEvaluateObservable(
+    final CompletableFuture<T> future,
+    final ObservableValue<T> observable,
+    final Predicate<? super T> predicate)
+  {
+    if (future.isDone()) {
+      return true;
+    }
+
+    try {
+      final var value = observable.getValue();
+      if (predicate.test(value)) {
+        future.complete(value);
+        return true;
+      }
+      return false;
+    } catch (final Throwable e) {
+      LOG.debug("error: ", e);
+      future.completeExceptionally(e);
+      return true;
+    }
+  }
+
+  private void submit(
+    final PulseConditionType condition)
+  {
+    XCFXThread.runV(() -> this.opAdd(condition))
+      .whenComplete((ignored, exception) -> {
+        if (exception != null) {
+          condition.fail(exception);
+        }
+      });
+  }
+
+  @XCOnFXThread
+  private void opAdd(
+    final PulseConditionType condition)
+  {
+    if (condition.evaluateInitial()) {
+      return;
+    }
+
+    this.conditions.add(condition);
+    if (!this.timerRunning) {
+      if (this.timer == null) {
+        this.timer = new PulseTimer(this);
+      }
+      this.timer.start();
+      this.timerRunning = true;
+    }
+  }
+
+  @XCOnFXThread
+  private void opPulse()
+  {
+    this.conditions.removeIf(PulseConditionType::evaluate);
+
+    if (this.conditions.isEmpty()) {
+      this.timer.stop();
+      this.timerRunning = false;
+    }
+  }
+
+  private interface PulseConditionType
+  {
+    /**
+     * Evaluate the condition.
+     *
+     * @return {@code true} if the condition is finished and should be removed
+     */
+
+    @XCOnFXThread
+    boolean evaluate();
+
+    /**
+     * Evaluate the condition upon submission, before any pulse has occurred.
+     *
+     * @return {@code true} if the condition is finished and should not be
+     * added
+     */
+
+    @XCOnFXThread
+    boolean evaluateInitial();
+
+    void fail(Throwable exception);
+  }
+
+  private static final class PulseCounter implements PulseConditionType
+  {
+    private final CompletableFuture<Void> future;
+    private int remaining;
+
+    PulseCounter(
+      final CompletableFuture<Void> inFuture,
+      final int inPulses)
+    {
+      this.future =
+        Objects.requireNonNull(inFuture, "future");
+      this.remaining =
+        inPulses;
+    }
+
+    @Override
+    public boolean evaluate()
+    {
+      if (this.future.isDone()) {
+        return true;
+      }
+
+      --this.remaining;
+      if (this.remaining <= 0) {
+        this.future.complete(null);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public boolean evaluateInitial()
+    {
+      return this.future.isDone();
+    }
+
+    @Override
+    public void fail(
+      final Throwable exception)
+    {
+      this.future.completeExceptionally(exception);
+    }
+  }
+
+  private static final class PulseTimer extends AnimationTimer
+  {
+    private final XCWaitEngine engine;
+
+    PulseTimer(
+      final XCWaitEngine inEngine)
+    {
+      this.engine = Objects.requireNonNull(inEngine, "engine");
+    }
+
+    @Override
+    public void handle(
+      final long now)
+    {
+      this.engine.opPulse();
+    }
+  }
+
+  private record PredicateCondition(
+    CompletableFuture<Void> future,
+    BooleanSupplier predicate)
+    implements PulseConditionType
+  {
+    PredicateCondition
+    {
+      Objects.requireNonNull(future, "future");
+      Objects.requireNonNull(predicate, "predicate");
+    }
+
+    @Override
+    public boolean evaluate()
+    {
+      if (this.future.isDone()) {
+        return true;
+      }
+
+      try {
+        if (this.predicate.getAsBoolean()) {
+          this.future.complete(null);
+          return true;
+        }
+        return false;
+      } catch (final Throwable e) {
+        LOG.debug("error: ", e);
+        this.future.completeExceptionally(e);
+        return true;
+      }
+    }
+
+    @Override
+    public boolean evaluateInitial()
+    {
+      return this.evaluate();
+    }
+
+    @Override
+    public void fail(
+      final Throwable exception)
+    {
+      this.future.completeExceptionally(exception);
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import com.io7m.xoanon.commander.api.XCOnFXThread;
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.stage.PopupWindow;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * <p>Determines the order in which windows are searched by searches that
+ * span all windows.</p>
+ *
+ * <p>Every kind of {@link Window} is searched, including popups such as
+ * context menus and tooltips. The focused window is searched first,
+ * followed by the windows (such as popups and dialogs) owned by it, with
+ * the most recently shown first. The remaining windows are searched in order
+ * of how recently they held focus, which approximates their stacking order
+ * under a click-to-focus window manager; windows that have never held focus
+ * since tracking began are searched last, most recently shown first.</p>
+ */
+
+public final class XCWindowOrder
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XCWindowOrder.class);
+
+  private final IdentityHashMap<Window, Long> focusTimes;
+  private final ChangeListener<Boolean> focusListener;
+  private long focusClock;
+  private boolean tracking;
+
+  /**
+   * Determines the order in which windows are searched.
+   */
+
+  public XCWindowOrder()
+  {
+    this.focusTimes =
+      new IdentityHashMap<>();
+    this.focusListener =
+      (observable, wasFocused, isFocused) -> {
+        final var property = (ReadOnlyProperty<?>) observable;
+        if (isFocused.booleanValue()
+            && property.getBean() instanceof final Window window) {
+          this.opFocusRecord(window);
+        }
+      };
+  }
+
+  /**
+   * @return The roots of the scenes of all showing windows, in search order
+   */
+
+  @XCOnFXThread
+  public List<Parent> opSearchRoots()
+  {
+    this.opTrackingStart();
+
+    final var windows = Window.getWindows();
+    final var ranked = new ArrayList<Ranked>(windows.size());
+    final var focused =
+      windows.stream()
+        .filter(Window::isFocused)
+        .findFirst()
+        .orElse(null);
+
+    for (int index = 0; index < windows.size(); ++index) {
+      final var window = windows.get(index);
+      if (!window.isShowing() || window.getScene() == null) {
+        continue;
+      }
+
+      final int group;
+      if (window == focused) {
+        group = 0;
+      } else if (focused != null && isOwnedBy(window, focused)) {
+        group = 1;
+      } else {
+        group = 2;
+      }
+
+      final var time = this.focusTimes.get(window);
+      ranked.add(new Ranked(
+        window,
+        group,
+        time == null ? -1L : time.longValue(),
+        index
+      ));
+    }
+
+    ranked.sort(
+      Comparator.comparingInt(Ranked::group)
+        .thenComparing(Comparator.comparingLong(Ranked::focusTime).reversed())
+        .thenComparing(Comparator.comparingInt(Ranked::index).reversed())
+    );
+
+    return ranked.stream()
+      .map(r -> r.window().getScene().getRoot())
+      .toList();
+  }
+
+  /*
+   * Start tracking focus changes, the first time that the window order is
+   * required.
+   */
+
+  @XCOnFXThread
+  private void opTrackingStart()
+  {
+    if (this.tracking) {
+      return;
+    }
+    this.tracking = true;
+
+    final var windows = Window.getWindows();
+    windows.addListener((ListChangeListener<Window>) change -> {
+      while (change.next()) {
+        for (final var window : change.getRemoved()) {
+          window.focusedProperty().removeListener(this.focusListener);
+          this.focusTimes.remove(window);
+        }
+        for (final var window : change.getAddedSubList()) {
+          window.focusedProperty().addListener(this.focusListener);
+        }
+      }
+    });
+
+    for (final var window : windows) {
+      window.focusedProperty().addListener(this.focusListener);
+      if (window.isFocused()) {
+        this.opFocusRecord(window);
+      }
+    }
+  }
+
+  @XCOnFXThread
+  private void opFocusRecord(
+    final Window window)
+  {
+    this.focusTimes.put(window, Long.valueOf(++this.focusClock));
+  }
+
+  /**
+   * Bring the window containing the given node to the front and focus it.
+   * Popups (such as context menus and the lists of combo boxes) cannot be
+   * focused, so for a node in a popup, the stage that ultimately owns the
+   * popup is brought to the front instead.
+   *
+   * @param node The node
+   */
+
+  @XCOnFXThread
+  public static void opBringToFront(
+    final Node node)
+  {
+    final var stage = stageOf(node.getScene().getWindow());
+    if (stage == null) {
+      return;
+    }
+
+    LOG.trace("bringing stage {} ({}) to front", stage, stage.getTitle());
+    stage.toFront();
+    stage.requestFocus();
+  }
+
+  /**
+   * @param node The node
+   *
+   * @return {@code true} if the window containing the given node is
+   * showing, and it (or, for a popup, the stage that owns it) is focused
+   *
+   * @see #opBringToFront(Node)
+   */
+
+  @XCOnFXThread
+  public static boolean opIsFront(
+    final Node node)
+  {
+    final var window = node.getScene().getWindow();
+    if (!window.isShowing()) {
+      return false;
+    }
+
+    final var stage = stageOf(window);
+    return stage != null && stage.isShowing() && stage.isFocused();
+  }
+
+  /*
+   * Walk the owner chain of the given window up to the nearest stage.
+   */
+
+  private static Stage stageOf(
+    final Window window)
+  {
+    var current = window;
+    while (current != null) {
+      if (current instanceof final Stage stage) {
+        return stage;
+      }
+      current = ownerOf(current);
+    }
+    return null;
+  }
+
+  private static boolean isOwnedBy(
+    final Window window,
+    final Window owner)
+  {
+    var current = ownerOf(window);
+    while (current != null) {
+      if (current == owner) {
+        return true;
+      }
+      current = ownerOf(current);
+    }
+    return false;
+  }
+
+  private static Window ownerOf(
+    final Window window)
+  {
+    if (window instanceof final PopupWindow popup) {
+      return popup.getOwnerWindow();
+    }
+    if (window instanceof final Stage stage) {
+      return stage.getOwner();
+    }
+    return null;
+  }
+
+  private record Ranked(
+    Window window,
+    int group,
+    long focusTime,
+    int index)
+  {
+
+  }
+}
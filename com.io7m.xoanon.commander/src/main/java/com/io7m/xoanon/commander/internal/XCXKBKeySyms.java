@@ -0,0 +1,332 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import javafx.scene.input.KeyCode;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalInt;
+
+import static javafx.scene.input.KeyCode.ADD;
+import static javafx.scene.input.KeyCode.AMPERSAND;
+import static javafx.scene.input.KeyCode.ASTERISK;
+import static javafx.scene.input.KeyCode.BACK_QUOTE;
+import static javafx.scene.input.KeyCode.BACK_SLASH;
+import static javafx.scene.input.KeyCode.BRACELEFT;
+import static javafx.scene.input.KeyCode.BRACERIGHT;
+import static javafx.scene.input.KeyCode.CIRCUMFLEX;
+import static javafx.scene.input.KeyCode.CLOSE_BRACKET;
+import static javafx.scene.input.KeyCode.COLON;
+import static javafx.scene.input.KeyCode.COMMA;
+import static javafx.scene.input.KeyCode.DECIMAL;
+import static javafx.scene.input.KeyCode.DIVIDE;
+import static javafx.scene.input.KeyCode.DOLLAR;
+import static javafx.scene.input.KeyCode.EQUALS;
+import static javafx.scene.input.KeyCode.EURO_SIGN;
+import static javafx.scene.input.KeyCode.EXCLAMATION_MARK;
+import static javafx.scene.input.KeyCode.GREATER;
+import static javafx.scene.input.KeyCode.LEFT_PARENTHESIS;
+import static javafx.scene.input.KeyCode.LESS;
+import static javafx.scene.input.KeyCode.MINUS;
+import static javafx.scene.input.KeyCode.NUMBER_SIGN;
+import static javafx.scene.input.KeyCode.OPEN_BRACKET;
+import static javafx.scene.input.KeyCode.PERIOD;
+import static javafx.scene.input.KeyCode.PLUS;
+import static javafx.scene.input.KeyCode.POUND;
+import static javafx.scene.input.KeyCode.QUOTE;
+import static javafx.scene.input.KeyCode.QUOTEDBL;
+import static javafx.scene.input.KeyCode.RIGHT_PARENTHESIS;
+import static javafx.scene.input.KeyCode.SEMICOLON;
+import static javafx.scene.input.KeyCode.SLASH;
+import static javafx.scene.input.KeyCode.STAR;
+import static javafx.scene.input.KeyCode.SUBTRACT;
+import static javafx.scene.input.KeyCode.UNDERSCORE;
+
+/**
+ * <p>Tables relating JavaFX key codes, XKB keysyms, and XKB physical keys.</p>
+ *
+ * <p>The JavaFX robot on Linux translates a key code to a keysym, and then
+ * presses the first physical key (in keycode order) that can produce that
+ * keysym at any level. The tables here model that behaviour.</p>
+ */
+
+public final class XCXKBKeySyms
+{
+  /*
+   * The alphanumeric and keypad keys, in evdev keycode order.
+   */
+
+  private static final List<String> PHYSICAL_KEYS =
+    List.of(
+      "AE01", "AE02", "AE03", "AE04", "AE05", "AE06",
+      "AE07", "AE08", "AE09", "AE10", "AE11", "AE12",
+      "AD01", "AD02", "AD03", "AD04", "AD05", "AD06",
+      "AD07", "AD08", "AD09", "AD10", "AD11", "AD12",
+      "AC01", "AC02", "AC03", "AC04", "AC05", "AC06",
+      "AC07", "AC08", "AC09", "AC10", "AC11",
+      "TLDE",
+      "BKSL",
+      "AB01", "AB02", "AB03", "AB04", "AB05",
+      "AB06", "AB07", "AB08", "AB09", "AB10",
+      "KPMU",
+      "KP7", "KP8", "KP9", "KPSU",
+      "KP4", "KP5", "KP6", "KPAD",
+      "KP1", "KP2", "KP3", "KP0", "KPDL",
+      "LSGT",
+      "AB11",
+      "KPDV"
+    );
+
+  /*
+   * The names of the keysyms 0xa0 to 0xff, which are equal to the
+   * corresponding Latin-1 code points.
+   */
+
+  private static final List<String> LATIN1_NAMES =
+    List.of(
+      "nobreakspace", "exclamdown", "cent", "sterling",
+      "currency", "yen", "brokenbar", "section",
+      "diaeresis", "copyright", "ordfeminine", "guillemotleft",
+      "notsign", "hyphen", "registered", "macron",
+      "degree", "plusminus", "twosuperior", "threesuperior",
+      "acute", "mu", "paragraph", "periodcentered",
+      "cedilla", "onesuperior", "masculine", "guillemotright",
+      "onequarter", "onehalf", "threequarters", "questiondown",
+      "Agrave", "Aacute", "Acircumflex", "Atilde",
+      "Adiaeresis", "Aring", "AE", "Ccedilla",
+      "Egrave", "Eacute", "Ecircumflex", "Ediaeresis",
+      "Igrave", "Iacute", "Icircumflex", "Idiaeresis",
+      "ETH", "Ntilde", "Ograve", "Oacute",
+      "Ocircumflex", "Otilde", "Odiaeresis", "multiply",
+      "Oslash", "Ugrave", "Uacute", "Ucircumflex",
+      "Udiaeresis", "Yacute", "THORN", "ssharp",
+      "agrave", "aacute", "acircumflex", "atilde",
+      "adiaeresis", "aring", "ae", "ccedilla",
+      "egrave", "eacute", "ecircumflex", "ediaeresis",
+      "igrave", "iacute", "icircumflex", "idiaeresis",
+      "eth", "ntilde", "ograve", "oacute",
+      "ocircumflex", "otilde", "odiaeresis", "division",
+      "oslash", "ugrave", "uacute", "ucircumflex",
+      "udiaeresis", "yacute", "thorn", "ydiaeresis"
+    );
+
+  private static final Map<String, Integer> NAMES =
+    makeNames();
+  private static final Map<KeyCode, String> KEY_CODES =
+    makeKeyCodes();
+
+  private XCXKBKeySyms()
+  {
+
+  }
+
+  /**
+   * @return The XKB names of the alphanumeric and keypad keys, in keycode
+   * order
+   */
+
+  public static List<String> physicalKeys()
+  {
+    return PHYSICAL_KEYS;
+  }
+
+  /**
+   * @return The keysyms that the JavaFX robot uses for each supported key
+   * code
+   */
+
+  public static Map<KeyCode, String> keyCodes()
+  {
+    return KEY_CODES;
+  }
+
+  /**
+   * Determine the character produced by the given keysym.
+   *
+   * @param keysym The keysym name (such as {@code "a"}, {@code "sterling"},
+   *               {@code "U20AC"}, or {@code "0x10020ac"})
+   *
+   * @return The character, if the keysym produces exactly one UTF-16 unit
+   */
+
+  public static OptionalInt character(
+    final String keysym)
+  {
+    Objects.requireNonNull(keysym, "keysym");
+
+    final var named = NAMES.get(keysym);
+    if (named != null) {
+      return OptionalInt.of(named.intValue());
+    }
+
+    try {
+      if (keysym.length() > 1 && keysym.charAt(0) == 'U') {
+        return bmp(Integer.parseInt(keysym.substring(1), 16));
+      }
+      if (keysym.startsWith("0x")) {
+        return fromKeysymValue(
+          Integer.parseUnsignedInt(keysym.substring(2), 16));
+      }
+    } catch (final NumberFormatException e) {
+      return OptionalInt.empty();
+    }
+    return OptionalInt.empty();
+  }
+
+  private static OptionalInt fromKeysymValue(
+    final int value)
+  {
+    if (value >= 0x20 && value <= 0x7e || value >= 0xa0 && value <= 0xff) {
+      return OptionalInt.of(value);
+    }
+    if (value >= 0x01000100 && value <= 0x0110ffff) {
+      return bmp(value - 0x01000000);
+    }
+    return OptionalInt.empty();
+  }
+
+  private static OptionalInt bmp(
+    final int codePoint)
+  {
+    if (codePoint < 0x20 || codePoint > 0xffff) {
+      return OptionalInt.empty();
+    }
+    if (Character.isSurrogate((char) codePoint)) {
+      return OptionalInt.empty();
+    }
+    return OptionalInt.of(codePoint);
+  }
+
+  private static Map<String, Integer> makeNames()
+  {
+    final var names = new HashMap<String, Integer>(256);
+    final var ascii = List.of(
+      "space", "exclam", "quotedbl", "numbersign",
+      "dollar", "percent", "ampersand", "apostrophe",
+      "parenleft", "parenright", "asterisk", "plus",
+      "comma", "minus", "period", "slash"
+    );
+    for (int index = 0; index < ascii.size(); ++index) {
+      names.put(ascii.get(index), Integer.valueOf(0x20 + index));
+    }
+    for (char c = '0'; c <= '9'; ++c) {
+      names.put(String.valueOf(c), Integer.valueOf(c));
+      names.put("KP_" + c, Integer.valueOf(c));
+    }
+    for (char c = 'A'; c <= 'Z'; ++c) {
+      names.put(String.valueOf(c), Integer.valueOf(c));
+      final var lower = Character.toLowerCase(c);
+      names.put(String.valueOf(lower), Integer.valueOf(lower));
+    }
+
+    putAll(names, ':', "colon", "semicolon", "less", "equal", "greater",
+           "question", "at");
+    putAll(names, '[', "bracketleft", "backslash", "bracketright",
+           "asciicircum", "underscore", "grave");
+    putAll(names, '{', "braceleft", "bar", "braceright", "asciitilde");
+
+    for (int index = 0; index < LATIN1_NAMES.size(); ++index) {
+      names.put(LATIN1_NAMES.get(index), Integer.valueOf(0xa0 + index));
+    }
+
+    names.put("guillemetleft", Integer.valueOf(0xab));
+    names.put("guillemetright", Integer.valueOf(0xbb));
+    names.put("ordmasculine", Integer.valueOf(0xba));
+    names.put("Ooblique", Integer.valueOf(0xd8));
+    names.put("ooblique", Integer.valueOf(0xf8));
+    names.put("EuroSign", Integer.valueOf(0x20ac));
+
+    names.put("KP_Space", Integer.valueOf(' '));
+    names.put("KP_Multiply", Integer.valueOf('*'));
+    names.put("KP_Add", Integer.valueOf('+'));
+    names.put("KP_Separator", Integer.valueOf(','));
+    names.put("KP_Subtract", Integer.valueOf('-'));
+    names.put("KP_Decimal", Integer.valueOf('.'));
+    names.put("KP_Divide", Integer.valueOf('/'));
+    names.put("KP_Equal", Integer.valueOf('='));
+    return Map.copyOf(names);
+  }
+
+  private static void putAll(
+    final Map<String, Integer> names,
+    final char start,
+    final String... symbols)
+  {
+    for (int index = 0; index < symbols.length; ++index) {
+      names.put(symbols[index], Integer.valueOf(start + index));
+    }
+  }
+
+  private static Map<KeyCode, String> makeKeyCodes()
+  {
+    final var codes = new EnumMap<KeyCode, String>(KeyCode.class);
+    for (final var code : KeyCode.values()) {
+      if (code.isLetterKey()) {
+        codes.put(code, code.getName().toLowerCase(Locale.ROOT));
+      }
+      if (code.isDigitKey()) {
+        final var name = code.getName();
+        final var digit = name.charAt(name.length() - 1);
+        codes.put(
+          code,
+          code.isKeypadKey() ? "KP_" + digit : String.valueOf(digit));
+      }
+    }
+
+    codes.put(ADD, "KP_Add");
+    codes.put(AMPERSAND, "ampersand");
+    codes.put(ASTERISK, "asterisk");
+    codes.put(BACK_QUOTE, "grave");
+    codes.put(BACK_SLASH, "backslash");
+    codes.put(BRACELEFT, "braceleft");
+    codes.put(BRACERIGHT, "braceright");
+    codes.put(CIRCUMFLEX, "asciicircum");
+    codes.put(CLOSE_BRACKET, "bracketright");
+    codes.put(COLON, "colon");
+    codes.put(COMMA, "comma");
+    codes.put(DECIMAL, "KP_Decimal");
+    codes.put(DIVIDE, "KP_Divide");
+    codes.put(DOLLAR, "dollar");
+    codes.put(EQUALS, "equal");
+    codes.put(EURO_SIGN, "EuroSign");
+    codes.put(EXCLAMATION_MARK, "exclam");
+    codes.put(GREATER, "greater");
+    codes.put(LEFT_PARENTHESIS, "parenleft");
+    codes.put(LESS, "less");
+    codes.put(MINUS, "minus");
+    codes.put(NUMBER_SIGN, "numbersign");
+    codes.put(OPEN_BRACKET, "bracketleft");
+    codes.put(PERIOD, "period");
+    codes.put(PLUS, "plus");
+    codes.put(POUND, "sterling");
+    codes.put(QUOTE, "apostrophe");
+    codes.put(QUOTEDBL, "quotedbl");
+    codes.put(RIGHT_PARENTHESIS, "parenright");
+    codes.put(SEMICOLON, "semicolon");
+    codes.put(SLASH, "slash");
+    codes.put(STAR, "KP_Multiply");
+    codes.put(SUBTRACT, "KP_Subtract");
+    codes.put(UNDERSCORE, "underscore");
+    return Map.copyOf(codes);
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.commander.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A minimal parser for xkeyboard-config symbol files.</p>
+ *
+ * <p>The parser understands just enough of the format to extract the
+ * keysyms assigned to each key in the first group: {@code xkb_symbols}
+ * sections (including the {@code default} section of a file),
+ * {@code include} (and {@code augment}/{@code override}/{@code replace})
+ * statements, and {@code key} statements. Everything else is ignored.
+ * Later definitions of a key replace earlier definitions.</p>
+ */
+
+public final class XCXKBSymbols
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XCXKBSymbols.class);
+
+  private static final int MAXIMUM_INCLUDE_DEPTH = 16;
+
+  private static final Pattern SECTION =
+    Pattern.compile(
+      "((?:\\w+\\s+)*)xkb_symbols\\s+\"([^\"]*)\"\\s*\\{");
+  private static final Pattern INCLUDE =
+    Pattern.compile(
+      "^(?:include|augment|override|replace)\\s+\"([^\"]*)\"$");
+  private static final Pattern KEY =
+    Pattern.compile(
+      "^(?:(?:override|replace|augment)\\s+)?key\\s+<(\\w+)>\\s*\\{(.*)\\}$",
+      Pattern.DOTALL);
+  private static final Pattern LIST =
+    Pattern.compile("\\[([^\\[\\]]*)\\]");
+  private static final Pattern GROUP_INDEX =
+    Pattern.compile("\\s*[Gg]roup\\d+\\s*");
+  private static final Pattern INCLUDE_PART =
+    Pattern.compile("([^()]+)(?:\\(([^()]*)\\))?");
+
+  private final Path directory;
+  private final Map<Path, String> files;
+
+  /**
+   * A minimal parser for xkeyboard-config symbol files.
+   *
+   * @param inDirectory The symbols directory (such as
+   *                    {@code /usr/share/X11/xkb/symbols})
+   */
+
+  public XCXKBSymbols(
+    final Path inDirectory)
+  {
+    this.directory =
+      Objects.requireNonNull(inDirectory, "directory");
+    this.files =
+      new HashMap<>();
+  }
+
+  /**
+   * Resolve the given include specification (such as {@code "pc+us"} or
+   * {@code "de(nodeadkeys)"}) and return the group 1 keysyms of every key,
+   * indexed by XKB key name (such as {@code AE01}).
+   *
+   * @param include The include specification
+   *
+   * @return The keysyms of each key, by level
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public Map<String, List<String>> resolve(
+    final String include)
+    throws IOException
+  {
+    Objects.requireNonNull(include, "include");
+
+    final var keys = new HashMap<String, List<String>>();
+    this.include(keys, include, 0, new HashSet<>());
+    return Map.copyOf(keys);
+  }
+
+  private void include(
+    final Map<String, List<String>> keys,
+    final String specification,
+    final int depth,
+    final Set<String> active)
+    throws IOException
+  {
+    if (depth > MAXIMUM_INCLUDE_DEPTH) {
+      throw new IOException(
+        "Include depth exceeded at '%s'".formatted(specification));
+    }
+
+    for (final var part : specification.split("[+|]")) {
+      final var matcher = INCLUDE_PART.matcher(part.trim());
+      if (!matcher.matches()) {
+        continue;
+      }
+
+      final var fileName = matcher.group(1).trim();
+      final var section = matcher.group(2);
+      final var key = fileName + "(" + section + ")";
+      if (!active.add(key)) {
+        throw new IOException("Include cycle at '%s'".formatted(key));
+      }
+      try {
+        this.includeSection(keys, fileName, section, depth, active);
+      } finally {
+        active.remove(key);
+      }
+    }
+  }
+
+  private void includeSection(
+    final Map<String, List<String>> keys,
+    final String fileName,
+    final String section,
+    final int depth,
+    final Set<String> active)
+    throws IOException
+  {
+    final var file = this.directory.resolve(fileName).normalize();
+    if (!file.startsWith(this.directory.normalize())) {
+      throw new IOException("Include escapes the symbols directory: " + file);
+    }
+    if (!Files.isRegularFile(file)) {
+      LOG.debug("xkb: skipping missing symbols file {}", file);
+      return;
+    }
+
+    final var text = this.files.computeIfAbsent(file, XCXKBSymbols::read);
+    final var body = findSection(text, section);
+    if (body == null) {
+      LOG.debug("xkb: no section '{}' in {}", section, file);
+      return;
+    }
+
+    for (final var statement : statements(body)) {
+      final var includeMatcher = INCLUDE.matcher(statement);
+      if (includeMatcher.matches()) {
+        this.include(keys, includeMatcher.group(1), depth + 1, active);
+        continue;
+      }
+
+      final var keyMatcher = KEY.matcher(statement);
+      if (keyMatcher.matches()) {
+        final var symbols = firstSymbolList(keyMatcher.group(2));
+        if (!symbols.isEmpty()) {
+          keys.put(keyMatcher.group(1), symbols);
+        }
+      }
+    }
+  }
+
+  private static String read(
+    final Path file)
+  {
+    try {
+      return stripComments(Files.readString(file));
+    } catch (final IOException e) {
+      LOG.debug("xkb: unable to read {}: ", file, e);
+      return "";
+    }
+  }
+
+  /*
+   * Find the body of the named section, or of the default section (or
+   * else the first section) if no name is given.
+   */
+
+  private static String findSection(
+    final String text,
+    final String name)
+  {
+    final var matcher = SECTION.matcher(text);
+    String first = null;
+    while (matcher.find()) {
+      final var open = matcher.end();
+      final var close = matchingBrace(text, open);
+      if (close < 0) {
+        return null;
+      }
+
+      final var body = text.substring(open, close);
+      final var flags = matcher.group(1);
+      final var sectionName = matcher.group(2);
+      if (name != null && !name.isBlank()) {
+        if (Objects.equals(sectionName, name.trim())) {
+          return body;
+        }
+      } else {
+        if (flags.contains("default")) {
+          return body;
+        }
+        if (first == null) {
+          first = body;
+        }
+      }
+    }
+    return first;
+  }
+
+  private static int matchingBrace(
+    final String text,
+    final int start)
+  {
+    var depth = 1;
+    for (int index = start; index < text.length(); ++index) {
+      final var c = text.charAt(index);
+      if (c == '{') {
+        ++depth;
+      } else if (c == '}') {
+        --depth;
+        if (depth == 0) {
+          return index;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /*
+   * Split a section body into statements. Statements are terminated by
+   * semicolons at brace depth zero; include statements are not required
+   * to be terminated at all, so line breaks at depth zero also end a
+   * statement that consists of a single include.
+   */
+
+  private static List<String> statements(
+    final String body)
+  {
+    final var results = new ArrayList<String>();
+    final var current = new StringBuilder(128);
+    var depth = 0;
+    var quoted = false;
+
+    for (int index = 0; index < body.length(); ++index) {
+      final var c = body.charAt(index);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (!quoted && c == '{') {
+        ++depth;
+      } else if (!quoted && c == '}') {
+        --depth;
+      }
+
+      final var atTop = !quoted && depth == 0;
+      if (atTop && (c == ';' || c == '\n')) {
+        final var statement = current.toString().trim();
+        if (c == ';' || INCLUDE.matcher(statement).matches()) {
+          if (!statement.isEmpty()) {
+            results.add(statement);
+          }
+          current.setLength(0);
+          continue;
+        }
+      }
+      current.append(c);
+    }
+
+    final var rest = current.toString().trim();
+    if (!rest.isEmpty()) {
+      results.add(rest);
+    }
+    return results;
+  }
+
+  /*
+   * Find the first bracketed list in a key definition that is not a group
+   * index such as "[Group1]". This is the list of group 1 keysyms, both for
+   * the bare "[ a, A ]" form and the "symbols[Group1] = [ a, A ]" form.
+   */
+
+  private static List<String> firstSymbolList(
+    final String definition)
+  {
+    final var matcher = LIST.matcher(definition);
+    while (matcher.find()) {
+      final var content = matcher.group(1);
+      if (GROUP_INDEX.matcher(content).matches()) {
+        continue;
+      }
+
+      final var symbols = new ArrayList<String>();
+      for (final var symbol : content.split(",")) {
+        symbols.add(symbol.trim());
+      }
+      return List.copyOf(symbols);
+    }
+    return List.of();
+  }
+
+  private static String stripComments(
+    final String text)
+  {
+    return text
+      .replaceAll("(?s)/\\*.*?\\*/", " ")
+      .replaceAll("//[^\\n]*", "");
+  }
+}
@@ -28,12 +28,15 @@ import javafx.application.Platform;
 import org.junit.jupiter.api.extension.AfterEachCallback;
 import org.junit.jupiter.api.extension.BeforeAllCallback;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.extension.ExtensionContext;
 import org.junit.jupiter.api.extension.ParameterContext;
 import org.junit.jupiter.api.extension.ParameterResolutionException;
 import org.junit.jupiter.api.extension.ParameterResolver;
 import org.junit.jupiter.api.extension.TestWatcher;
+import org.junit.platform.commons.support.AnnotationSupport;
 import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.support.descriptor.ClassSource;
 import org.junit.platform.launcher.LauncherSession;
 import org.junit.platform.launcher.LauncherSessionListener;
 import org.junit.platform.launcher.TestExecutionListener;
@@ -44,9 +47,13 @@ import org.slf4j.LoggerFactory;
 
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 import static com.io7m.xoanon.commander.api.XCTestState.FAILED;
 import static com.io7m.xoanon.commander.api.XCTestState.INITIAL;
@@ -69,6 +76,10 @@ public final class XoExtension
   private static final AtomicBoolean FX_PLATFORM_STARTED =
     new AtomicBoolean(false);
 
+  private static final
+    AtomicReference<CompletableFuture<XCCommanderType>> BOOT =
+    new AtomicReference<>();
+
   private static XCCommanderType COMMANDER;
 
   private static final Logger LOG =
@@ -77,6 +88,39 @@ public final class XoExtension
   private static final ArrayList<TestIdentifier> TESTS_EXPECTED =
     new ArrayList<>();
 
+  /**
+   * The system property that controls keymap prefetching. By default, the
+   * keymap is loaded (or generated) in the background as soon as the
+   * commander has booted, so that it is ready by the time any test needs
+   * it. Tests are not held up by the prefetch; a robot only waits for it
+   * when it first types text. Suites that never type text can set this
+   * property to {@code false} to avoid loading a keymap at all.
+   */
+
+  public static final String KEYMAP_PREFETCH_PROPERTY =
+    "com.io7m.xoanon.keymap.prefetch";
+
+  /**
+   * The system property or JUnit configuration parameter that names a
+   * pre-provisioned keymap file (or a classpath resource, prefixed with
+   * {@code classpath:}).
+   *
+   * @see com.io7m.xoanon.commander.XCKeyMapFiles
+   */
+
+  public static final String KEYMAP_FILE_PROPERTY =
+    "com.io7m.xoanon.keymap.file";
+
+  /**
+   * The system property or JUnit configuration parameter that names a file
+   * to which the keymap is exported once it has been loaded or generated.
+   *
+   * @see com.io7m.xoanon.commander.XCKeyMapFiles
+   */
+
+  public static final String KEYMAP_EXPORT_PROPERTY =
+    "com.io7m.xoanon.keymap.export";
+
   /**
    * A simple JavaFX extension for JUnit 5 tests.
    */
@@ -126,6 +170,123 @@ public final class XoExtension
         }
       };
     });
+
+    configureKeyMapFiles(testPlan);
+
+    /*
+     * If any test class in the plan uses this extension, start booting the
+     * commander (and loading the keymap) now, so that the work overlaps with
+     * the execution of any test classes that run before the first one that
+     * needs the commander.
+     */
+
+    if (testPlan.countTestIdentifiers(XoExtension::usesExtension) > 0L) {
+      boot();
+    }
+  }
+
+  /*
+   * A pre-provisioned keymap (and an export file) can be named either with
+   * a system property or with a JUnit configuration parameter of the same
+   * name (for example, in junit-platform.properties). The commander only
+   * reads system properties, so configuration parameters are copied to them.
+   */
+
+  private static void configureKeyMapFiles(
+    final TestPlan testPlan)
+  {
+    final var names =
+      List.of(KEYMAP_FILE_PROPERTY, KEYMAP_EXPORT_PROPERTY);
+
+    for (final var name : names) {
+      if (System.getProperty(name) == null) {
+        testPlan.getConfigurationParameters()
+          .get(name)
+          .ifPresent(value -> System.setProperty(name, value));
+      }
+    }
+  }
+
+  private static boolean usesExtension(
+    final TestIdentifier identifier)
+  {
+    final var source = identifier.getSource().orElse(null);
+    if (!(source instanceof final ClassSource classSource)) {
+      return false;
+    }
+
+    try {
+      return usesExtension(classSource.getJavaClass());
+    } catch (final Exception e) {
+      LOG.trace("unable to inspect {}: ", classSource.getClassName(), e);
+      return false;
+    }
+  }
+
+  /*
+   * Determine if the given class registers this extension declaratively,
+   * either directly, through a meta-annotation, or by inheriting it from a
+   * superclass or an implemented interface.
+   */
+
+  private static boolean usesExtension(
+    final Class<?> clazz)
+  {
+    if (clazz == null) {
+      return false;
+    }
+
+    final var direct =
+      AnnotationSupport.findRepeatableAnnotations(clazz, ExtendWith.class)
+        .stream()
+        .flatMap(a -> Stream.of(a.value()))
+        .anyMatch(XoExtension.class::equals);
+
+    if (direct || usesExtension(clazz.getSuperclass())) {
+      return true;
+    }
+    return Stream.of(clazz.getInterfaces())
+      .anyMatch(XoExtension::usesExtension);
+  }
+
+  /*
+   * Boot the commander exactly once, and start loading the keymap as soon
+   * as the commander is available.
+   */
+
+  private static CompletableFuture<XCCommanderType> boot()
+  {
+    final var existing = BOOT.get();
+    if (existing != null) {
+      return existing;
+    }
+
+    final var future = new CompletableFuture<XCCommanderType>();
+    if (!BOOT.compareAndSet(null, future)) {
+      return BOOT.get();
+    }
+
+    LOG.trace("starting JavaFX platform");
+    Platform.setImplicitExit(false);
+    XCommanders.boot().whenComplete((commander, exception) -> {
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      if (isKeyMapPrefetchEnabled()) {
+        LOG.trace("prefetching keymap");
+        commander.keyMap();
+      }
+      future.complete(commander);
+    });
+    return future;
+  }
+
+  private static boolean isKeyMapPrefetchEnabled()
+  {
+    return !"false".equalsIgnoreCase(
+      System.getProperty(KEYMAP_PREFETCH_PROPERTY, "true").trim()
+    );
   }
 
   @Override
@@ -147,9 +308,7 @@ public final class XoExtension
     throws Exception
   {
     if (FX_PLATFORM_STARTED.compareAndSet(false, true)) {
-      LOG.trace("starting JavaFX platform");
-      Platform.setImplicitExit(false);
-      COMMANDER = XCommanders.boot().get(30L, SECONDS);
+      COMMANDER = boot().get(30L, SECONDS);
       Thread.sleep(2_000L);
 
       TESTS_EXPECTED.forEach(identifier -> {
@@ -20,25 +20,34 @@ package com.io7m.xoanon.tests;
 import com.io7m.xoanon.commander.api.XCKey;
 import com.io7m.xoanon.commander.api.XCKeyMap;
 import com.io7m.xoanon.commander.internal.XCKeyMapCache;
+import com.io7m.xoanon.commander.internal.XCKeyMapFingerprint;
 import javafx.scene.input.KeyCode;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public final class XCKeyMapCacheTest
 {
@@ -57,7 +66,9 @@ public final class XCKeyMapCacheTest
     this.cacheFile =
       this.directory
         .resolve("xoanon")
-        .resolve("keymap.bin");
+        .resolve("keymaps.bin");
+
+    this.clock.setTime(Instant.parse("2000-01-01T00:00:00+00:00"));
   }
 
   @AfterEach
@@ -76,75 +87,285 @@ public final class XCKeyMapCacheTest
     );
   }
 
+  private static XCKeyMap bigMapMixed()
+  {
+    final var codes = KeyCode.values();
+    return  new XCKeyMap(
+      IntStream.range(10, 300)
+        .mapToObj(x -> Map.entry((char) x, new XCKey(
+          codes[x % codes.length],
+          (x & 1) == 1,
+          (x & 2) == 2,
+          (x & 4) == 4)))
+        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
+    );
+  }
+
+  private static XCKeyMapFingerprint layout(
+    final String name)
+  {
+    return new XCKeyMapFingerprint(
+      "en-US",
+      ":0",
+      Map.of("XKB_DEFAULT_LAYOUT", name),
+      "21",
+      "Linux"
+    );
+  }
+
   @Test
-  public void testCacheTooOld()
-    throws IOException
+  public void testCacheOtherLayout()
   {
     final var cache =
       new XCKeyMapCache(this.clock, this.directory);
 
-    final Instant timeNow =
-      Instant.parse("2000-01-01T00:00:00+00:00");
-    final Instant timeThen =
-      timeNow.minus(24L, ChronoUnit.HOURS);
+    cache.save(layout("us"), bigMap());
+    assertEquals(Optional.empty(), cache.load(layout("de")));
+  }
 
-    this.clock.setTime(timeNow);
+  @Test
+  public void testCacheTooSmall()
+  {
+    final var cache =
+      new XCKeyMapCache(this.clock, this.directory);
 
-    cache.save(bigMap());
-    Files.setLastModifiedTime(this.cacheFile, FileTime.from(timeThen));
-    assertEquals(Optional.empty(), cache.load());
+    cache.save(layout("us"), new XCKeyMap(Map.of()));
+    assertEquals(Optional.empty(), cache.load(layout("us")));
   }
 
   @Test
-  public void testCacheTooSmall()
+  public void testCacheBroken()
     throws IOException
   {
     final var cache =
       new XCKeyMapCache(this.clock, this.directory);
 
-    final Instant timeNow =
-      Instant.parse("2000-01-01T00:00:00+00:00");
+    Files.createDirectories(this.cacheFile.getParent());
+    Files.writeString(this.cacheFile, "Not a keymap.", CREATE, WRITE);
+    assertEquals(Optional.empty(), cache.load(layout("us")));
 
-    this.clock.setTime(timeNow);
+    final var map = bigMap();
+    cache.save(layout("us"), map);
+    assertEquals(Optional.of(map), cache.load(layout("us")));
+  }
 
-    cache.save(new XCKeyMap(Map.of()));
-    Files.setLastModifiedTime(this.cacheFile, FileTime.from(timeNow));
-    assertEquals(Optional.empty(), cache.load());
+  @Test
+  public void testCacheGood()
+  {
+    final var cache =
+      new XCKeyMapCache(this.clock, this.directory);
+
+    final var map = bigMapMixed();
+    cache.save(layout("us"), map);
+    assertEquals(Optional.of(map), cache.load(layout("us")));
   }
 
   @Test
-  public void testCacheBroken()
-    throws IOException
+  public void testCacheMultipleLayouts()
   {
     final var cache =
       new XCKeyMapCache(this.clock, this.directory);
 
-    final Instant timeNow =
-      Instant.parse("2000-01-01T00:00:00+00:00");
+    final var mapUS = bigMap();
+    final var mapDE = bigMapMixed();
+    assertNotEquals(mapUS, mapDE);
 
-    this.clock.setTime(timeNow);
+    cache.save(layout("us"), mapUS);
+    cache.save(layout("de"), mapDE);
+    assertEquals(Optional.of(mapUS), cache.load(layout("us")));
+    assertEquals(Optional.of(mapDE), cache.load(layout("de")));
+  }
 
-    Files.createDirectories(this.cacheFile.getParent());
-    Files.writeString(this.cacheFile, "Not a keymap.", CREATE, WRITE);
-    Files.setLastModifiedTime(this.cacheFile, FileTime.from(timeNow));
-    assertEquals(Optional.empty(), cache.load());
+  @Test
+  public void testCacheEvictsLeastRecentlyUsed()
+  {
+    final var cache =
+      new XCKeyMapCache(this.clock, this.directory);
+
+    final var map = bigMap();
+    for (int index = 0; index < XCKeyMapCache.MAXIMUM_ENTRIES; ++index) {
+      cache.save(layout("layout" + index), map);
+    }
+
+    /*
+     * Using the oldest layout makes the second-oldest layout the least
+     * recently used, and so that is the layout that must be evicted.
+     */
+
+    assertEquals(Optional.of(map), cache.load(layout("layout0")));
+    cache.save(layout("new"), map);
+
+    assertEquals(Optional.of(map), cache.load(layout("layout0")));
+    assertEquals(Optional.empty(), cache.load(layout("layout1")));
+    assertEquals(Optional.of(map), cache.load(layout("new")));
   }
 
   @Test
-  public void testCacheGood()
+  public void testCacheHitDoesNotRewrite()
     throws IOException
   {
     final var cache =
       new XCKeyMapCache(this.clock, this.directory);
 
-    final Instant timeNow =
-      Instant.parse("2000-01-01T00:00:00+00:00");
+    final var map = bigMap();
+    cache.save(layout("us"), map);
+    final var written = fileKey(this.cacheFile);
+
+    assertEquals(Optional.of(map), cache.load(layout("us")));
+    assertEquals(Optional.of(map), cache.load(layout("us")));
+    assertEquals(written, fileKey(this.cacheFile));
 
-    this.clock.setTime(timeNow);
+    /*
+     * Using a layout that is not the most recently used one changes the
+     * eviction order, and so must be recorded.
+     */
 
+    cache.save(layout("de"), map);
+    final var writtenAgain = fileKey(this.cacheFile);
+    assertEquals(Optional.of(map), cache.load(layout("us")));
+    assertNotEquals(writtenAgain, fileKey(this.cacheFile));
+  }
+
+  private static Object fileKey(
+    final Path file)
+    throws IOException
+  {
+    return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+  }
+
+  @Test
+  public void testLoadOrGenerateValidated()
+    throws Exception
+  {
+    final var cache =
+      new XCKeyMapCache(this.clock, this.directory);
+
+    final var map = bigMap();
+    final var other = bigMapMixed();
+    cache.save(layout("us"), map);
+
+    assertEquals(
+      map,
+      cache.loadOrGenerate(layout("us"), m -> true, () -> other));
+    assertEquals(
+      other,
+      cache.loadOrGenerate(layout("us"), m -> false, () -> other));
+    assertEquals(Optional.of(other), cache.load(layout("us")));
+  }
+
+  @Test
+  public void testLoadOrGenerateLockTimeout()
+    throws Exception
+  {
+    final var cache =
+      new XCKeyMapCache(this.clock, this.directory, Duration.ofMillis(250L));
+
+    final var map = bigMap();
+    final var other = bigMapMixed();
+    cache.save(layout("us"), map);
+
+    /*
+     * Hold the cache lock as a hung process would. The cache must give up
+     * waiting, generate a key map without the lock, and fail to publish
+     * it. Once the lock is released, the cache works as normal.
+     */
+
+    final var lockFile = this.cacheFile.resolveSibling("keymaps.lock");
+    try (var channel = FileChannel.open(lockFile, CREATE, WRITE)) {
+      try (var ignored = channel.lock()) {
+        final var time = System.nanoTime();
+        assertEquals(
+          other,
+          cache.loadOrGenerate(layout("us"), m -> true, () -> other));
+        assertTrue(
+          System.nanoTime() - time < TimeUnit.SECONDS.toNanos(10L));
+        assertEquals(Optional.empty(), cache.load(layout("us")));
+      }
+    }
+
+    assertEquals(Optional.of(map), cache.load(layout("us")));
+    assertEquals(
+      map,
+      cache.loadOrGenerate(layout("us"), m -> true, () -> other));
+  }
+
+  @Test
+  public void testLoadOrGenerateConcurrent()
+    throws Exception
+  {
+    final var generations = new AtomicInteger(0);
+    final var start = new CountDownLatch(1);
     final var map = bigMap();
-    cache.save(map);
-    Files.setLastModifiedTime(this.cacheFile, FileTime.from(timeNow));
-    assertEquals(Optional.of(map), cache.load());
+    final var threads = 4;
+
+    try (var executor = Executors.newFixedThreadPool(threads)) {
+      final var futures =
+        IntStream.range(0, threads)
+          .mapToObj(i -> executor.submit(() -> {
+            final var cache =
+              new XCKeyMapCache(new XCFakeClock(), this.directory);
+            start.await();
+            return cache.loadOrGenerate(layout("us"), m -> true, () -> {
+              generations.incrementAndGet();
+              Thread.sleep(100L);
+              return map;
+            });
+          }))
+          .toList();
+
+      start.countDown();
+      for (final var future : futures) {
+        assertEquals(map, future.get(10L, TimeUnit.SECONDS));
+      }
+    }
+
+    assertEquals(1, generations.get());
+
+    try (var files = Files.list(this.cacheFile.getParent())) {
+      assertTrue(files.noneMatch(f -> f.toString().endsWith(".tmp")));
+    }
+  }
+
+  @Test
+  public void testCachePartialMinimum()
+  {
+    final var cache =
+      new XCKeyMapCache(this.clock, this.directory);
+
+    final var partial = new XCKeyMap(Map.of(
+      Character.valueOf('a'), new XCKey(KeyCode.A, false, false, false),
+      Character.valueOf('A'), new XCKey(KeyCode.A, true, false, false)
+    ));
+
+    cache.save(layout("us"), partial);
+    assertEquals(Optional.of(partial), cache.load(layout("us"), 0));
+    assertEquals(Optional.of(partial), cache.load(layout("us"), 2));
+    assertEquals(Optional.empty(), cache.load(layout("us"), 3));
+    assertEquals(
+      Optional.empty(),
+      cache.load(layout("us"), XCKeyMapCache.MINIMUM_COMPLETE_KEYS));
+  }
+
+  @Test
+  public void testCacheUnresolvable()
+  {
+    final var cache =
+      new XCKeyMapCache(this.clock, this.directory);
+
+    final var partial = new XCKeyMap(Map.of(
+      Character.valueOf('a'), new XCKey(KeyCode.A, false, false, false)
+    ));
+    final var unresolvable =
+      Set.of(Character.valueOf('\u20ac'), Character.valueOf('\u00e9'));
+
+    assertEquals(Set.of(), cache.loadUnresolvable(layout("us")));
+
+    cache.save(layout("us"), partial, unresolvable);
+    assertEquals(Optional.of(partial), cache.load(layout("us"), 0));
+    assertEquals(unresolvable, cache.loadUnresolvable(layout("us")));
+    assertEquals(Set.of(), cache.loadUnresolvable(layout("de")));
+
+    cache.save(layout("us"), partial);
+    assertEquals(Set.of(), cache.loadUnresolvable(layout("us")));
   }
 }
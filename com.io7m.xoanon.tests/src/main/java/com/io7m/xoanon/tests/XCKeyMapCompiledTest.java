@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.api.XCKeyBuffer;
+import com.io7m.xoanon.commander.api.XCKeyMap;
+import javafx.scene.input.KeyCode;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.constraints.CharRange;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XCKeyMapCompiledTest
+{
+  private static final KeyCode[] KEY_CODES = KeyCode.values();
+
+  private static XCKey keyFor(
+    final char c)
+  {
+    return new XCKey(
+      KEY_CODES[c % KEY_CODES.length],
+      (c & 1) == 1,
+      (c & 2) == 2,
+      false
+    );
+  }
+
+  @Property
+  public void testTranslateAgreesWithMap(
+    final @ForAll @CharRange(from = '\u0000', to = '\uD7FF') String text)
+  {
+    final var keys = new HashMap<Character, XCKey>();
+    final var characters = new ArrayList<Character>();
+    for (final var c : text.toCharArray()) {
+      keys.put(Character.valueOf(c), keyFor(c));
+      characters.add(Character.valueOf(c));
+    }
+
+    final var map = new XCKeyMap(Map.copyOf(keys));
+    final var expected = map.toCodes(characters);
+    final var buffer = new XCKeyBuffer(1);
+    final var count = map.compile().translate(text, buffer);
+
+    assertEquals(expected.size(), count);
+    assertEquals(expected.size(), buffer.size());
+    for (int index = 0; index < count; ++index) {
+      assertEquals(expected.get(index), buffer.get(index));
+    }
+  }
+
+  @Test
+  public void testMissing()
+  {
+    final var map =
+      new XCKeyMap(Map.of(Character.valueOf('a'), keyFor('a'))).compile();
+
+    assertTrue(map.contains('a'));
+    assertFalse(map.contains('b'));
+    assertFalse(map.contains(0x1F600));
+    assertEquals(keyFor('a'), map.key('a'));
+
+    final var buffer = new XCKeyBuffer();
+    assertThrows(IllegalArgumentException.class, () -> {
+      map.translate("ab", buffer);
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      map.translate("a\uD83D\uDE00", buffer);
+    });
+  }
+
+  @Test
+  public void testSparse()
+  {
+    final var map =
+      new XCKeyMap(Map.of(
+        Character.valueOf('a'), keyFor('a'),
+        Character.valueOf('\u20AC'), keyFor('\u20AC'),
+        Character.valueOf('\u00E9'), keyFor('\u00E9')
+      )).compile();
+
+    final var buffer = new XCKeyBuffer();
+    assertEquals(3, map.translate("\u20ACa\u00E9", buffer));
+    assertEquals(keyFor('\u20AC'), buffer.get(0));
+    assertEquals(keyFor('a'), buffer.get(1));
+    assertEquals(keyFor('\u00E9'), buffer.get(2));
+
+    assertEquals(1, map.translate("a", buffer));
+    assertThrows(IndexOutOfBoundsException.class, () -> buffer.get(1));
+  }
+}
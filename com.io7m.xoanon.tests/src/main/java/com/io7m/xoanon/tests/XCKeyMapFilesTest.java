@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.XCKeyMapFiles;
+import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.api.XCKeyMap;
+import javafx.scene.input.KeyCode;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Combinators;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XCKeyMapFilesTest
+{
+  private Path directory;
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.directory = XCTestDirectories.createTempDirectory();
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws IOException
+  {
+    XCTestDirectories.deleteDirectory(this.directory);
+  }
+
+  @Provide
+  public Arbitrary<XCKeyMap> keyMaps()
+  {
+    final var keys =
+      Combinators.combine(
+        Arbitraries.of(KeyCode.class),
+        Arbitraries.of(true, false),
+        Arbitraries.of(true, false),
+        Arbitraries.of(true, false)
+      ).as(XCKey::new);
+
+    return Arbitraries.chars()
+      .map(Character::valueOf)
+      .set()
+      .ofMaxSize(200)
+      .flatMap(cs -> keys.list().ofSize(cs.size()).map(ks -> {
+        final var iterator = ks.iterator();
+        final var map = new HashMap<Character, XCKey>();
+        cs.forEach(c -> map.put(c, iterator.next()));
+        return new XCKeyMap(map);
+      }));
+  }
+
+  /**
+   * Writing and then reading a keymap produces the same keymap.
+   *
+   * @param keyMap The keymap
+   *
+   * @throws Exception On errors
+   */
+
+  @Property
+  public void testRoundTrip(
+    @ForAll("keyMaps") final XCKeyMap keyMap)
+    throws Exception
+  {
+    final var writer = new StringWriter();
+    XCKeyMapFiles.write(writer, keyMap);
+    final var read =
+      XCKeyMapFiles.read(new StringReader(writer.toString()), "test");
+    assertEquals(keyMap.keys(), read.keys());
+  }
+
+  /**
+   * The documented format is accepted.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testFormat()
+    throws Exception
+  {
+    final var text = """
+      # A comment.
+
+      xoanon-keymap 1
+      U+0061 A
+      U+0041 A shift
+        U+0040   DIGIT2 shift
+      U+00e9 E alt control
+      """;
+
+    final var map =
+      XCKeyMapFiles.read(new StringReader(text), "test");
+
+    assertEquals(
+      Map.of(
+        Character.valueOf('a'),
+        new XCKey(KeyCode.A, false, false, false),
+        Character.valueOf('A'),
+        new XCKey(KeyCode.A, true, false, false),
+        Character.valueOf('@'),
+        new XCKey(KeyCode.DIGIT2, true, false, false),
+        Character.valueOf('\u00e9'),
+        new XCKey(KeyCode.E, false, true, true)
+      ),
+      map.keys()
+    );
+  }
+
+  /**
+   * Output is deterministic.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWriteOrdered()
+    throws Exception
+  {
+    final var map = new XCKeyMap(Map.of(
+      Character.valueOf('b'), new XCKey(KeyCode.B, false, false, false),
+      Character.valueOf('a'), new XCKey(KeyCode.A, false, false, false),
+      Character.valueOf('B'), new XCKey(KeyCode.B, true, false, false)
+    ));
+
+    final var writer = new StringWriter();
+    XCKeyMapFiles.write(writer, map);
+    assertEquals(
+      String.join(
+        System.lineSeparator(),
+        "xoanon-keymap 1",
+        "U+0042 B shift",
+        "U+0061 A",
+        "U+0062 B",
+        ""),
+      writer.toString()
+    );
+  }
+
+  /**
+   * Malformed files are rejected with the location of the error.
+   */
+
+  @Test
+  public void testErrors()
+  {
+    final var cases = Map.of(
+      "", "test:0:",
+      "U+0061 A\n", "test:1: Expected the header",
+      "xoanon-keymap 2\n", "test:1: Expected the header",
+      "xoanon-keymap 1\nU+61 A\n", "test:2: Expected a character",
+      "xoanon-keymap 1\nU+0061\n", "test:2: Expected a character and",
+      "xoanon-keymap 1\nU+0061 NOPE\n", "test:2: Unrecognized key code",
+      "xoanon-keymap 1\nU+0061 A meta\n", "test:2: Unrecognized modifier",
+      "xoanon-keymap 1\nU+0061 A\nU+0061 B\n", "test:3: Character U+0061"
+    );
+
+    cases.forEach((text, expected) -> {
+      final var ex = assertThrows(IOException.class, () -> {
+        XCKeyMapFiles.read(new StringReader(text), "test");
+      });
+      assertTrue(
+        ex.getMessage().startsWith(expected),
+        "%s starts with %s".formatted(ex.getMessage(), expected)
+      );
+    });
+  }
+
+  /**
+   * Keymaps can be read from files and classpath resources.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testLocations()
+    throws Exception
+  {
+    final var file = this.directory.resolve("keymap.txt");
+    Files.writeString(file, "xoanon-keymap 1\nU+0061 A\n");
+
+    final var expected =
+      Map.of(Character.valueOf('a'), new XCKey(KeyCode.A, false, false, false));
+
+    assertEquals(
+      expected,
+      XCKeyMapFiles.readLocation(file.toString()).keys());
+    assertEquals(
+      expected,
+      XCKeyMapFiles.readLocation(
+        "classpath:com/io7m/xoanon/tests/keymap.txt").keys());
+
+    assertThrows(NoSuchFileException.class, () -> {
+      XCKeyMapFiles.readLocation("classpath:nonexistent.txt");
+    });
+    assertThrows(NoSuchFileException.class, () -> {
+      XCKeyMapFiles.readLocation(this.directory.resolve("x").toString());
+    });
+  }
+
+  /**
+   * Writing a file replaces any existing file and leaves no temporary files
+   * behind.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWriteReplaces()
+    throws Exception
+  {
+    final var file = this.directory.resolve("keymap.txt");
+    Files.writeString(file, "garbage that is longer than the keymap file");
+
+    final var map = new XCKeyMap(Map.of(
+      Character.valueOf('a'), new XCKey(KeyCode.A, false, false, false)
+    ));
+    XCKeyMapFiles.write(file, map);
+
+    assertEquals(
+      map.keys(),
+      XCKeyMapFiles.readLocation(file.toString()).keys());
+    try (var files = Files.list(this.directory)) {
+      assertEquals(List.of(file), files.toList());
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.internal.XCKeyMapProbeType;
+import com.io7m.xoanon.commander.internal.XCKeyMapProber;
+import javafx.scene.input.KeyCode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static javafx.scene.input.KeyCode.A;
+import static javafx.scene.input.KeyCode.CIRCUMFLEX;
+import static javafx.scene.input.KeyCode.E;
+import static javafx.scene.input.KeyCode.Q;
+import static javafx.scene.input.KeyCode.W;
+import static javafx.scene.input.KeyCode.Z;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XCKeyMapProberTest
+{
+  private static XCKey key(
+    final KeyCode code)
+  {
+    return new XCKey(code, false, false, false);
+  }
+
+  /**
+   * A burst of ordinary keys is decoded positionally from a single probe.
+   */
+
+  @Test
+  public void testBurstPositional()
+    throws Exception
+  {
+    final var keyboard = new FakeKeyboard();
+    final var prober = new XCKeyMapProber(keyboard);
+    final var mappings = new HashMap<Character, XCKey>();
+
+    prober.probe(mappings, List.of(A, E, Q, Z), false);
+
+    assertEquals(
+      Map.of(
+        Character.valueOf('a'), key(A),
+        Character.valueOf('e'), key(E),
+        Character.valueOf('q'), key(Q),
+        Character.valueOf('z'), key(Z)
+      ),
+      mappings
+    );
+    assertEquals(List.of(List.of(A, E, Q, Z)), keyboard.probes);
+  }
+
+  /**
+   * A dead key within a burst causes the burst to be split until the dead
+   * key is probed on its own, and the dead key is then excluded from later
+   * bursts.
+   */
+
+  @Test
+  public void testBurstDeadKey()
+    throws Exception
+  {
+    final var keyboard = new FakeKeyboard();
+    final var prober = new XCKeyMapProber(keyboard);
+    final var mappings = new HashMap<Character, XCKey>();
+
+    prober.probe(mappings, List.of(A, CIRCUMFLEX, E, Z), false);
+
+    assertEquals(
+      Map.of(
+        Character.valueOf('a'), key(A),
+        Character.valueOf('^'), key(CIRCUMFLEX),
+        Character.valueOf('e'), key(E),
+        Character.valueOf('z'), key(Z)
+      ),
+      mappings
+    );
+    assertEquals(Set.of(CIRCUMFLEX), prober.deadKeys());
+
+    keyboard.probes.clear();
+    prober.probe(new HashMap<>(), List.of(A, CIRCUMFLEX, E, Z), false);
+    for (final var probe : keyboard.probes) {
+      assertTrue(
+        !probe.contains(CIRCUMFLEX) || probe.size() == 1,
+        "Dead key must be probed alone: " + probe);
+    }
+  }
+
+  /**
+   * A dead key left pending by earlier input, followed by a key that
+   * produces nothing, yields text of exactly the right length with every
+   * character in the wrong place. The positional decoding must not be
+   * trusted.
+   */
+
+  @Test
+  public void testBurstMisalignedRejected()
+    throws Exception
+  {
+    final var keyboard = new FakeKeyboard();
+    final var prober = new XCKeyMapProber(keyboard);
+
+    final var mappings = new HashMap<Character, XCKey>();
+    mappings.put(Character.valueOf('^'), key(CIRCUMFLEX));
+
+    keyboard.pending = Character.valueOf('^');
+    prober.probe(mappings, List.of(Q, W), false);
+
+    assertEquals(
+      Map.of(
+        Character.valueOf('^'), key(CIRCUMFLEX),
+        Character.valueOf('q'), key(Q)
+      ),
+      mappings
+    );
+  }
+
+  /**
+   * A single key prefixed by a pending dead key is probed again.
+   */
+
+  @Test
+  public void testSinglePendingRetried()
+    throws Exception
+  {
+    final var keyboard = new FakeKeyboard();
+    final var prober = new XCKeyMapProber(keyboard);
+    final var mappings = new HashMap<Character, XCKey>();
+
+    keyboard.pending = Character.valueOf('^');
+    prober.probe(mappings, List.of(Q), false);
+
+    assertEquals(Map.of(Character.valueOf('q'), key(Q)), mappings);
+  }
+
+  /**
+   * Decoded characters are confirmed only if they are unique within the
+   * text and not already produced by a different key.
+   */
+
+  @Test
+  public void testConfirmed()
+  {
+    final var mappings = Map.of(Character.valueOf('a'), key(A));
+
+    assertTrue(XCKeyMapProber.isConfirmed(mappings, "az", 0, A));
+    assertTrue(XCKeyMapProber.isConfirmed(mappings, "az", 1, Z));
+    assertFalse(XCKeyMapProber.isConfirmed(mappings, "az", 0, Q));
+    assertFalse(XCKeyMapProber.isConfirmed(mappings, "zz", 0, Z));
+    assertFalse(XCKeyMapProber.isConfirmed(mappings, "zz", 1, Q));
+  }
+
+  /**
+   * A keyboard on which W produces nothing and CIRCUMFLEX is a dead key
+   * that combines with E. Typing the dead key twice produces the dead
+   * character, and a pending dead key persists between probes, as it does
+   * in a real input method.
+   */
+
+  private static final class FakeKeyboard implements XCKeyMapProbeType
+  {
+    private final List<List<KeyCode>> probes = new ArrayList<>();
+    private Character pending;
+
+    @Override
+    public String probe(
+      final List<KeyCode> codes,
+      final boolean shift)
+    {
+      this.probes.add(List.copyOf(codes));
+
+      final var text = new StringBuilder();
+      for (final var code : codes) {
+        switch (code) {
+          case W -> {
+            /* Produces nothing. */
+          }
+          case CIRCUMFLEX -> {
+            if (this.pending != null) {
+              text.append(this.pending.charValue());
+              this.pending = null;
+            } else {
+              this.pending = Character.valueOf('^');
+            }
+          }
+          default -> this.type(text, code.getChar().toLowerCase().charAt(0));
+        }
+      }
+      return text.toString();
+    }
+
+    private void type(
+      final StringBuilder text,
+      final char character)
+    {
+      if (this.pending != null) {
+        if (character == 'e') {
+          text.append('\u00ea');
+        } else {
+          text.append(this.pending.charValue());
+          text.append(character);
+        }
+        this.pending = null;
+      } else {
+        text.append(character);
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.internal.XCCommander;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static javafx.scene.input.KeyCode.A;
+import static javafx.scene.input.KeyCode.DIGIT2;
+import static javafx.scene.input.KeyCode.SLASH;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XCKeyMapResolveTest
+{
+  /**
+   * Key codes are candidates for the characters that their names suggest,
+   * regardless of case.
+   */
+
+  @Test
+  public void testCandidates()
+  {
+    final var a = Character.valueOf('a');
+    final var upperA = Character.valueOf('A');
+    final var two = Character.valueOf('2');
+    final var slash = Character.valueOf('/');
+    final var euro = Character.valueOf('\u20ac');
+
+    assertTrue(XCCommander.keyMapIsCandidate(A, Set.of(a)));
+    assertTrue(XCCommander.keyMapIsCandidate(A, Set.of(upperA)));
+    assertTrue(XCCommander.keyMapIsCandidate(DIGIT2, Set.of(two)));
+    assertTrue(XCCommander.keyMapIsCandidate(SLASH, Set.of(a, slash)));
+
+    assertFalse(XCCommander.keyMapIsCandidate(A, Set.of()));
+    assertFalse(XCCommander.keyMapIsCandidate(A, Set.of(two, slash)));
+    assertFalse(XCCommander.keyMapIsCandidate(DIGIT2, Set.of(euro)));
+  }
+}
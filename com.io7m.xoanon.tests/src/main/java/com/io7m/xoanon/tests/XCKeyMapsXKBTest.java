@@ -0,0 +1,292 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.XCKeyMapsXKB;
+import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.internal.XCXKBKeySyms;
+import javafx.scene.input.KeyCode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class XCKeyMapsXKBTest
+{
+  private static final String PC = """
+    default partial alphanumeric_keys modifier_keys
+    xkb_symbols "pc105" {
+        key <ESC>  { [ Escape ] };
+        include "keypad(x11)"
+    };
+    """;
+
+  private static final String KEYPAD = """
+    // Keypad keys, as in xkeyboard-config.
+    partial keypad_keys
+    xkb_symbols "x11" {
+        key <KPDV> { [ KP_Divide ] };
+        key <KPMU> { [ KP_Multiply ] };
+        key <KPSU> { [ KP_Subtract ] };
+        key <KPAD> { [ KP_Add ] };
+        key <KP7>  { [ KP_Home, KP_7 ] };
+        key <KPDL> { [ KP_Delete, KP_Decimal ] };
+    };
+    """;
+
+  private static final String US = """
+    /* A cut-down version of the US layout. */
+    default partial alphanumeric_keys modifier_keys
+    xkb_symbols "basic" {
+        name[Group1] = "English (US)";
+
+        key <TLDE> { [ grave, asciitilde ] };
+        key <AE01> { [ 1, exclam ] };
+        key <AE02> { [ 2, at ] };
+        key <AE03> { [ 3, numbersign ] };
+        key <AE12> { [ equal, plus ] };
+        key <AD01> { [ q, Q ] };
+        key <AD06> { [ y, Y ] };
+        key <AB01> { [ z, Z ] };
+        key <AB10> { [ slash, question ] };
+        key <AC10> { [ semicolon, colon ] };
+    };
+
+    partial alphanumeric_keys
+    xkb_symbols "intl" {
+        include "us(basic)"
+        key <AE02> {
+            type[Group1] = "FOUR_LEVEL",
+            symbols[Group1] = [ 2, at, twosuperior, dead_doubleacute ]
+        };
+    };
+    """;
+
+  private static final String DE = """
+    default
+    xkb_symbols "basic" {
+        include "us(basic)"
+        name[Group1]="German";
+
+        key <AE02> { [ 2, quotedbl, twosuperior, oneeighth ] };
+        key <AE03> { [ 3, section ] };
+        key <AE12> { [ dead_acute, dead_grave ] };
+        key <AD06> { [ z, Z, leftarrow, yen ] };
+        key <AB01> { [ y, Y, guillemotright, U203A ] };
+        key <AC10> { [ odiaeresis, Odiaeresis ] };
+        key <AD12> { [ plus, asterisk ] };
+    };
+
+    partial alphanumeric_keys
+    xkb_symbols "loop" {
+        include "de(loop)"
+    };
+    """;
+
+  private Path directory;
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.directory = XCTestDirectories.createTempDirectory();
+    Files.writeString(this.directory.resolve("pc"), PC);
+    Files.writeString(this.directory.resolve("keypad"), KEYPAD);
+    Files.writeString(this.directory.resolve("us"), US);
+    Files.writeString(this.directory.resolve("de"), DE);
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws IOException
+  {
+    XCTestDirectories.deleteDirectory(this.directory);
+  }
+
+  private static XCKey plain(
+    final KeyCode code)
+  {
+    return new XCKey(code, false, false, false);
+  }
+
+  private static XCKey shifted(
+    final KeyCode code)
+  {
+    return new XCKey(code, true, false, false);
+  }
+
+  /**
+   * The US layout maps characters to the expected keys.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testUS()
+    throws Exception
+  {
+    final var map =
+      XCKeyMapsXKB.derive(this.directory, new XCKeyMapsXKB.Layout("us", ""));
+    final var keys = map.keys();
+
+    assertEquals(plain(KeyCode.Y), keys.get(Character.valueOf('y')));
+    assertEquals(shifted(KeyCode.Y), keys.get(Character.valueOf('Y')));
+    assertEquals(plain(KeyCode.Z), keys.get(Character.valueOf('z')));
+    assertEquals(plain(KeyCode.DIGIT2), keys.get(Character.valueOf('2')));
+    assertEquals(shifted(KeyCode.DIGIT2), keys.get(Character.valueOf('@')));
+    assertEquals(plain(KeyCode.BACK_QUOTE), keys.get(Character.valueOf('`')));
+    assertEquals(shifted(KeyCode.DIGIT1), keys.get(Character.valueOf('!')));
+    assertEquals(plain(KeyCode.EQUALS), keys.get(Character.valueOf('=')));
+    assertEquals(plain(KeyCode.ADD), keys.get(Character.valueOf('+')));
+    assertEquals(plain(KeyCode.SEMICOLON), keys.get(Character.valueOf(';')));
+    assertEquals(shifted(KeyCode.SEMICOLON), keys.get(Character.valueOf(':')));
+    assertEquals(plain(KeyCode.SLASH), keys.get(Character.valueOf('/')));
+    assertEquals(shifted(KeyCode.SLASH), keys.get(Character.valueOf('?')));
+    assertEquals(shifted(KeyCode.NUMPAD7), keys.get(Character.valueOf('7')));
+    assertEquals(plain(KeyCode.STAR), keys.get(Character.valueOf('*')));
+    assertEquals(shifted(KeyCode.DECIMAL), keys.get(Character.valueOf('.')));
+    assertNull(keys.get(Character.valueOf('x')));
+  }
+
+  /**
+   * Variants are resolved through their includes.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testUSVariant()
+    throws Exception
+  {
+    final var map =
+      XCKeyMapsXKB.derive(
+        this.directory, new XCKeyMapsXKB.Layout("us", "intl"));
+    final var keys = map.keys();
+
+    assertEquals(plain(KeyCode.DIGIT2), keys.get(Character.valueOf('2')));
+    assertEquals(shifted(KeyCode.DIGIT2), keys.get(Character.valueOf('@')));
+    assertEquals(plain(KeyCode.Q), keys.get(Character.valueOf('q')));
+  }
+
+  /**
+   * Layouts that include and override other layouts are handled.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDE()
+    throws Exception
+  {
+    final var map =
+      XCKeyMapsXKB.derive(this.directory, new XCKeyMapsXKB.Layout("de", ""));
+    final var keys = map.keys();
+
+    /*
+     * The robot presses the physical key that produces "z" when asked for
+     * KeyCode.Z, so the mapping follows the keysyms rather than positions.
+     */
+
+    assertEquals(plain(KeyCode.Z), keys.get(Character.valueOf('z')));
+    assertEquals(shifted(KeyCode.Z), keys.get(Character.valueOf('Z')));
+    assertEquals(plain(KeyCode.Y), keys.get(Character.valueOf('y')));
+    assertEquals(shifted(KeyCode.DIGIT2), keys.get(Character.valueOf('"')));
+    assertEquals(
+      shifted(KeyCode.DIGIT3),
+      keys.get(Character.valueOf('\u00a7')));
+    assertEquals(plain(KeyCode.ADD), keys.get(Character.valueOf('+')));
+    assertEquals(plain(KeyCode.STAR), keys.get(Character.valueOf('*')));
+    assertNull(keys.get(Character.valueOf('@')));
+    assertNull(keys.get(Character.valueOf('=')));
+    assertNull(keys.get(Character.valueOf('\u00f6')));
+  }
+
+  /**
+   * Missing layouts are rejected.
+   */
+
+  @Test
+  public void testMissingLayout()
+  {
+    assertThrows(NoSuchFileException.class, () -> {
+      XCKeyMapsXKB.derive(this.directory, new XCKeyMapsXKB.Layout("fr", ""));
+    });
+  }
+
+  /**
+   * Include cycles are rejected.
+   */
+
+  @Test
+  public void testIncludeCycle()
+  {
+    assertThrows(IOException.class, () -> {
+      XCKeyMapsXKB.derive(
+        this.directory, new XCKeyMapsXKB.Layout("de", "loop"));
+    });
+  }
+
+  /**
+   * Unusable layout names are rejected.
+   */
+
+  @Test
+  public void testLayoutNames()
+  {
+    assertThrows(IllegalArgumentException.class, () -> {
+      new XCKeyMapsXKB.Layout("../etc", "");
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      new XCKeyMapsXKB.Layout("us", "a b");
+    });
+    assertEquals("de(nodeadkeys)",
+                 new XCKeyMapsXKB.Layout("de", "nodeadkeys").include());
+  }
+
+  /**
+   * Keysym names are translated to characters.
+   */
+
+  @Test
+  public void testKeySyms()
+  {
+    assertEquals(OptionalInt.of('a'), XCXKBKeySyms.character("a"));
+    assertEquals(OptionalInt.of('~'), XCXKBKeySyms.character("asciitilde"));
+    assertEquals(OptionalInt.of('@'), XCXKBKeySyms.character("at"));
+    assertEquals(OptionalInt.of(0xa0), XCXKBKeySyms.character("nobreakspace"));
+    assertEquals(OptionalInt.of(0xff), XCXKBKeySyms.character("ydiaeresis"));
+    assertEquals(OptionalInt.of(0xdf), XCXKBKeySyms.character("ssharp"));
+    assertEquals(OptionalInt.of(0x20ac), XCXKBKeySyms.character("EuroSign"));
+    assertEquals(OptionalInt.of(0x203a), XCXKBKeySyms.character("U203A"));
+    assertEquals(OptionalInt.of(0x20ac), XCXKBKeySyms.character("0x10020ac"));
+    assertEquals(OptionalInt.of('7'), XCXKBKeySyms.character("KP_7"));
+    assertFalse(XCXKBKeySyms.character("dead_acute").isPresent());
+    assertFalse(XCXKBKeySyms.character("NoSymbol").isPresent());
+    assertFalse(XCXKBKeySyms.character("U1F600").isPresent());
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.api.XCKey;
+import com.io7m.xoanon.commander.internal.XCKeyProgram;
+import com.io7m.xoanon.commander.internal.XCKeyProgram.Instruction;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.io7m.xoanon.commander.internal.XCKeyProgram.Opcode.PRESS;
+import static com.io7m.xoanon.commander.internal.XCKeyProgram.Opcode.RELEASE;
+import static com.io7m.xoanon.commander.internal.XCKeyProgram.Opcode.TYPE;
+import static javafx.scene.input.KeyCode.A;
+import static javafx.scene.input.KeyCode.B;
+import static javafx.scene.input.KeyCode.C;
+import static javafx.scene.input.KeyCode.CONTROL;
+import static javafx.scene.input.KeyCode.SHIFT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class XCKeyProgramTest
+{
+  @Test
+  public void testEmpty()
+  {
+    final var program = XCKeyProgram.compile(List.of());
+    assertEquals(List.of(), program.instructions());
+    assertEquals(0, program.keyCount());
+  }
+
+  @Test
+  public void testShiftHeldAcrossRun()
+  {
+    final var program = XCKeyProgram.compile(List.of(
+      new XCKey(A, true, false, false),
+      new XCKey(B, true, false, false),
+      new XCKey(C, true, false, false)
+    ));
+
+    assertEquals(
+      List.of(
+        new Instruction(PRESS, SHIFT),
+        new Instruction(TYPE, A),
+        new Instruction(TYPE, B),
+        new Instruction(TYPE, C),
+        new Instruction(RELEASE, SHIFT)
+      ),
+      program.instructions()
+    );
+    assertEquals(3, program.keyCount());
+  }
+
+  @Test
+  public void testModifierChanges()
+  {
+    final var program = XCKeyProgram.compile(List.of(
+      new XCKey(A, false, false, false),
+      new XCKey(B, true, false, false),
+      new XCKey(C, false, false, true),
+      new XCKey(A, false, false, false)
+    ));
+
+    assertEquals(
+      List.of(
+        new Instruction(TYPE, A),
+        new Instruction(PRESS, SHIFT),
+        new Instruction(TYPE, B),
+        new Instruction(RELEASE, SHIFT),
+        new Instruction(PRESS, CONTROL),
+        new Instruction(TYPE, C),
+        new Instruction(RELEASE, CONTROL),
+        new Instruction(TYPE, A)
+      ),
+      program.instructions()
+    );
+    assertEquals(4, program.keyCount());
+  }
+
+  @Test
+  public void testGrowsForManyModifierChanges()
+  {
+    final var keys = new ArrayList<XCKey>();
+    for (int index = 0; index < 10; ++index) {
+      final var modified = (index & 1) == 1;
+      keys.add(new XCKey(A, modified, modified, modified));
+    }
+
+    final var program = XCKeyProgram.compile(keys);
+    assertEquals(10, program.keyCount());
+    assertEquals(5 * 7 + 5, program.size());
+    assertEquals(program.instructions().size(), program.size());
+    assertEquals(TYPE, program.opcode(0));
+    assertEquals(A, program.code(0));
+    assertEquals(RELEASE, program.opcode(program.size() - 1));
+    assertEquals(SHIFT, program.code(program.size() - 1));
+    assertThrows(IndexOutOfBoundsException.class, () -> {
+      program.opcode(program.size());
+    });
+  }
+
+  @Test
+  public void testRanges()
+  {
+    final var program = XCKeyProgram.compile(List.of(
+      new XCKey(A, true, false, false),
+      new XCKey(B, true, false, false),
+      new XCKey(C, false, false, false)
+    ));
+
+    /*
+     * PRESS SHIFT, TYPE A, TYPE B, RELEASE SHIFT, TYPE C
+     */
+
+    assertEquals(5, program.size());
+    assertEquals(2, program.endAfterKeys(0, 1));
+    assertEquals(3, program.endAfterKeys(0, 2));
+    assertEquals(5, program.endAfterKeys(3, 1));
+    assertEquals(5, program.endAfterKeys(0, 100));
+    assertEquals(5, program.endAfterKeys(5, 1));
+
+    assertEquals(1, program.releaseCount(0, 2));
+    assertEquals(2, program.releaseCount(3, 5));
+    assertEquals(4, program.releaseCount(0, 5));
+    assertEquals(0, program.releaseCount(0, 0));
+  }
+}
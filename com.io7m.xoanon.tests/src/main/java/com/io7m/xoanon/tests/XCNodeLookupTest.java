@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.api.XCNodeLookup;
+import com.io7m.xoanon.commander.api.XCNodeLookupResult;
+import com.io7m.xoanon.commander.api.XCNodeQuery;
+import javafx.scene.Node;
+import javafx.scene.layout.Region;
+import javafx.scene.text.Text;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XCNodeLookupTest
+{
+  /**
+   * Entry names must be unique.
+   */
+
+  @Test
+  public void testDuplicateNames()
+  {
+    final var builder = XCNodeLookup.builder();
+    builder.addWithId(Region.class, "x");
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      builder.add("x", XCNodeQuery.builder(Text.class).build());
+    });
+  }
+
+  /**
+   * Resolved entries are typed, and missing entries are reported together.
+   */
+
+  @Test
+  public void testResult()
+  {
+    final var builder = XCNodeLookup.builder();
+    final var k0 = builder.addWithId(Region.class, "r0");
+    final var k1 = builder.addWithText(Text.class, "Hello");
+    final var k2 = builder.addWithId(Region.class, "r2");
+    final var k3 = builder.addWithText(Text.class, "Goodbye");
+    final var lookup = builder.build();
+
+    final var r0 = new Region();
+    final var result =
+      new XCNodeLookupResult(lookup, Map.<String, Node>of("r0", r0));
+
+    assertSame(r0, result.get(k0));
+    assertEquals(Optional.of(r0), result.find(k0));
+    assertEquals(Optional.empty(), result.find(k1));
+    assertEquals(List.of("Hello", "r2", "Goodbye"), result.missing());
+    assertFalse(result.isComplete());
+    assertThrows(NoSuchElementException.class, () -> result.get(k2));
+
+    final var ex =
+      assertThrows(NoSuchElementException.class, result::requireAll);
+    assertTrue(ex.getMessage().contains("Hello"));
+    assertTrue(ex.getMessage().contains("r2"));
+    assertTrue(ex.getMessage().contains("Goodbye"));
+    assertFalse(ex.getMessage().contains("r0"));
+    assertEquals(4, lookup.keys().size());
+    assertEquals(k3, lookup.keys().get(3));
+  }
+
+  /**
+   * A complete result passes requireAll.
+   */
+
+  @Test
+  public void testComplete()
+  {
+    final var builder = XCNodeLookup.builder();
+    final var k0 = builder.addWithId(Region.class, "r0");
+    final var lookup = builder.build();
+
+    final var r0 = new Region();
+    final var result =
+      new XCNodeLookupResult(lookup, Map.<String, Node>of("r0", r0));
+
+    assertTrue(result.isComplete());
+    assertSame(result, result.requireAll());
+    assertEquals(List.of(), result.missing());
+    assertSame(r0, result.get(k0));
+  }
+}
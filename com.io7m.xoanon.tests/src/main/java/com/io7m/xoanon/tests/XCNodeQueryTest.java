@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.api.XCNodeQuery;
+import com.io7m.xoanon.commander.internal.XCNodeTraversal;
+import javafx.css.PseudoClass;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.layout.Region;
+import javafx.scene.text.Text;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.io7m.xoanon.commander.internal.XCNodeTraversal.UNLIMITED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XCNodeQueryTest
+{
+  private static Text text(
+    final String id,
+    final String value,
+    final String... classes)
+  {
+    final var text = new Text(value);
+    text.setId(id);
+    text.getStyleClass().addAll(classes);
+    return text;
+  }
+
+  /**
+   * Every criterion must match.
+   */
+
+  @Test
+  public void testCombined()
+  {
+    final var query =
+      XCNodeQuery.builder(Text.class)
+        .withStyleClass("name")
+        .withTextPrefix("Al")
+        .build();
+
+    assertTrue(query.matches(text("t0", "Alice", "name")));
+    assertFalse(query.matches(text("t1", "Bob", "name")));
+    assertFalse(query.matches(text("t2", "Alice", "other")));
+    assertFalse(query.matches(new Region()));
+  }
+
+  /**
+   * Exact, prefix, and regular expression text criteria.
+   */
+
+  @Test
+  public void testText()
+  {
+    final var node = text("t", "Item 23");
+
+    assertTrue(
+      XCNodeQuery.builder(Node.class).withText("Item 23").build()
+        .matches(node));
+    assertFalse(
+      XCNodeQuery.builder(Node.class).withText("Item").build()
+        .matches(node));
+    assertTrue(
+      XCNodeQuery.builder(Node.class).withTextPrefix("Item").build()
+        .matches(node));
+    assertTrue(
+      XCNodeQuery.builder(Node.class).withTextMatching("Item [0-9]+").build()
+        .matches(node));
+    assertFalse(
+      XCNodeQuery.builder(Node.class).withTextMatching("[0-9]+").build()
+        .matches(node));
+    assertFalse(
+      XCNodeQuery.builder(Node.class).withTextPrefix("").build()
+        .matches(new Region()));
+  }
+
+  /**
+   * Pseudo-class criteria observe the current pseudo-class state.
+   */
+
+  @Test
+  public void testPseudoClass()
+  {
+    final var node = new Region();
+    final var query =
+      XCNodeQuery.builder(Region.class)
+        .withPseudoClass("selected")
+        .build();
+
+    assertFalse(query.matches(node));
+    node.pseudoClassStateChanged(PseudoClass.getPseudoClass("selected"), true);
+    assertTrue(query.matches(node));
+  }
+
+  /**
+   * Criteria are evaluated cheapest first, and predicates are never
+   * evaluated for nodes rejected by cheaper criteria.
+   */
+
+  @Test
+  public void testOrdering()
+  {
+    final var calls = new AtomicInteger();
+    final var query =
+      XCNodeQuery.builder(Text.class)
+        .withPredicate(n -> calls.incrementAndGet() > 0)
+        .withTextMatching(".*")
+        .withId("t1")
+        .build();
+
+    final var criteria = query.criteria();
+    assertInstanceOf(XCNodeQuery.WithId.class, criteria.get(0));
+    assertInstanceOf(XCNodeQuery.WithTextMatching.class, criteria.get(1));
+    assertInstanceOf(XCNodeQuery.WithPredicate.class, criteria.get(2));
+
+    final var root =
+      new Group(text("t0", "x"), text("t1", "y"), text("t2", "z"));
+
+    final var results =
+      XCNodeTraversal.collect(
+        root, query.type(), query::matches, UNLIMITED, UNLIMITED);
+
+    assertEquals(1, results.size());
+    assertEquals("t1", results.get(0).getId());
+    assertEquals(1, calls.get());
+  }
+
+  /**
+   * A query can be evaluated repeatedly.
+   */
+
+  @Test
+  public void testReusable()
+  {
+    final var query =
+      XCNodeQuery.builder(Text.class)
+        .withStyleClass("cell")
+        .build();
+
+    final var t0 = text("t0", "a", "cell");
+    final var t1 = text("t1", "b");
+    final var root = new Group(t0, t1);
+
+    assertEquals(
+      List.of(t0),
+      XCNodeTraversal.collect(
+        root, query.type(), query::matches, UNLIMITED, UNLIMITED));
+
+    t1.getStyleClass().add("cell");
+    assertEquals(
+      List.of(t0, t1),
+      XCNodeTraversal.collect(
+        root, query.type(), query::matches, UNLIMITED, UNLIMITED));
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.internal.XCNodeTraversal;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Region;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.io7m.xoanon.commander.internal.XCNodeTraversal.UNLIMITED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public final class XCNodeTraversalTest
+{
+  private static Region region(
+    final String id)
+  {
+    final var region = new Region();
+    region.setId(id);
+    return region;
+  }
+
+  /**
+   * Nodes are visited in document order.
+   */
+
+  @Test
+  public void testDocumentOrder()
+  {
+    final var r0 = region("r0");
+    final var r1 = region("r1");
+    final var r2 = region("r2");
+    final var r3 = region("r3");
+    final var inner = new Pane(r1, r2);
+    final var root = new Group(r0, inner, r3);
+
+    assertEquals(
+      List.of(root, r0, inner, r1, r2, r3),
+      XCNodeTraversal.all(root, Node.class));
+    assertEquals(
+      List.of(r0, r1, r2, r3),
+      XCNodeTraversal.all(root, Region.class)
+        .stream()
+        .filter(n -> n != inner)
+        .toList());
+    assertEquals(List.of(inner), XCNodeTraversal.all(root, Pane.class));
+  }
+
+  /**
+   * Traversal stops at the first match, or after enough matches.
+   */
+
+  @Test
+  public void testLimits()
+  {
+    final var visited = new ArrayList<Node>();
+    final var r0 = region("r0");
+    final var r1 = region("r1");
+    final var r2 = region("r2");
+    final var root = new Group(r0, r1, r2);
+
+    assertEquals(r1, XCNodeTraversal.first(root, Region.class, n -> {
+      visited.add(n);
+      return "r1".equals(n.getId());
+    }));
+    assertEquals(List.of(r0, r1), visited);
+
+    assertEquals(
+      List.of(r0, r1),
+      XCNodeTraversal.collect(root, Region.class, n -> true, 2, UNLIMITED));
+    assertEquals(
+      List.of(),
+      XCNodeTraversal.collect(root, Region.class, n -> true, 0, UNLIMITED));
+    assertNull(XCNodeTraversal.first(root, Pane.class, n -> true));
+  }
+
+  /**
+   * Depth limits are respected.
+   */
+
+  @Test
+  public void testDepth()
+  {
+    final var r0 = region("r0");
+    final var r1 = region("r1");
+    final var inner = new Pane(r1);
+    final var root = new Group(r0, inner);
+
+    assertEquals(
+      List.of(root),
+      XCNodeTraversal.collect(root, Node.class, n -> true, UNLIMITED, 0));
+    assertEquals(
+      List.of(root, r0, inner),
+      XCNodeTraversal.collect(root, Node.class, n -> true, UNLIMITED, 1));
+    assertEquals(
+      List.of(root, r0, inner, r1),
+      XCNodeTraversal.collect(root, Node.class, n -> true, UNLIMITED, 2));
+  }
+
+  /**
+   * Deep scene graphs are traversed.
+   */
+
+  @Test
+  public void testDeep()
+  {
+    Node current = region("deep");
+    for (int index = 0; index < 2_000; ++index) {
+      current = new Group(current);
+    }
+
+    final var found =
+      XCNodeTraversal.first(current, Region.class, n -> true);
+    assertEquals("deep", found.getId());
+    assertEquals(
+      2_001,
+      XCNodeTraversal.all(current, Node.class).size());
+  }
+}
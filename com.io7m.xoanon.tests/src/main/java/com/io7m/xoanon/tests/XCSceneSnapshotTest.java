@@ -0,0 +1,275 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.api.XCNodeProperties;
+import com.io7m.xoanon.commander.api.XCNodeQuery;
+import com.io7m.xoanon.commander.internal.XCNodeTraversal;
+import com.io7m.xoanon.commander.internal.XCSceneSnapshot;
+import javafx.css.PseudoClass;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Region;
+import javafx.scene.text.Text;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.io7m.xoanon.commander.internal.XCNodeTraversal.UNLIMITED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XCSceneSnapshotTest
+{
+  private static Parent scene(
+    final int groups,
+    final int perGroup)
+  {
+    final var root = new Pane();
+    for (int g = 0; g < groups; ++g) {
+      final var group = new Group();
+      for (int i = 0; i < perGroup; ++i) {
+        final var text = new Text("Cell %d.%d".formatted(g, i));
+        if (i % 3 == 0) {
+          text.getStyleClass().add("third");
+        }
+        group.getChildren().add(text);
+      }
+      root.getChildren().add(group);
+    }
+    return root;
+  }
+
+  private static <T extends Node> List<T> live(
+    final XCNodeQuery<T> query,
+    final Parent root,
+    final int limit)
+  {
+    return XCNodeTraversal.collect(
+      root, query.type(), query::matches, limit, UNLIMITED);
+  }
+
+  /**
+   * Snapshot searches return the same nodes, in the same order, as live
+   * traversals.
+   */
+
+  @Test
+  public void testSameAsLive()
+  {
+    final var root = scene(100, 100);
+    final var snapshot = XCSceneSnapshot.capture(List.of(root));
+    assertEquals(1 + 100 + 100 * 100, snapshot.size());
+
+    final var query =
+      XCNodeQuery.builder(Text.class)
+        .withStyleClass("third")
+        .withTextMatching("Cell [0-9]*7\\.[0-9]+")
+        .build();
+
+    final var expected = live(query, root, UNLIMITED);
+    assertEquals(10 * 34, expected.size());
+    assertEquals(expected, snapshot.search(query, UNLIMITED));
+    assertEquals(expected.subList(0, 5), snapshot.search(query, 5));
+    assertEquals(expected.subList(0, 1), snapshot.search(query, 1));
+  }
+
+  /**
+   * Snapshots span several roots in order.
+   */
+
+  @Test
+  public void testMultipleRoots()
+  {
+    final var root0 = scene(1, 2);
+    final var root1 = scene(1, 2);
+    final var snapshot = XCSceneSnapshot.capture(List.of(root0, root1));
+
+    final var query =
+      XCNodeQuery.builder(Text.class)
+        .withText("Cell 0.1")
+        .build();
+
+    final var results = snapshot.search(query, UNLIMITED);
+    assertEquals(2, results.size());
+    assertEquals(live(query, root0, UNLIMITED), results.subList(0, 1));
+    assertEquals(live(query, root1, UNLIMITED), results.subList(1, 2));
+  }
+
+  /**
+   * Predicates are not evaluated against snapshots; nodes that satisfy
+   * every other criterion are returned as candidates.
+   */
+
+  @Test
+  public void testPredicatesDeferred()
+  {
+    final var root = scene(1, 6);
+    final var query =
+      XCNodeQuery.builder(Text.class)
+        .withStyleClass("third")
+        .withPredicate(t -> t.getText().endsWith("3"))
+        .build();
+
+    assertTrue(query.requiresFXThread());
+
+    final var candidates =
+      XCSceneSnapshot.capture(List.of(root)).search(query, UNLIMITED);
+    assertEquals(2, candidates.size());
+    assertEquals(
+      live(query, root, UNLIMITED),
+      candidates.stream().filter(query::matches).toList());
+  }
+
+  /**
+   * Snapshots captured for a query contain only nodes of the query's type.
+   */
+
+  @Test
+  public void testCaptureQueryType()
+  {
+    final var root = scene(10, 10);
+    final var query =
+      XCNodeQuery.builder(Group.class)
+        .build();
+
+    final var snapshot = XCSceneSnapshot.capture(List.of(root), query);
+    assertEquals(10, snapshot.size());
+    assertEquals(live(query, root, UNLIMITED), snapshot.search(query, 100));
+  }
+
+  /**
+   * Snapshots captured for each of a range of queries give the same
+   * results as live searches, on a scene that changes between captures,
+   * and earlier snapshots continue to reflect the scene as it was.
+   */
+
+  @Test
+  public void testCaptureQuerySameAsLiveChanging()
+  {
+    final var root = scene(10, 10);
+    final var selected = PseudoClass.getPseudoClass("selected");
+
+    final var queries = List.of(
+      XCNodeQuery.builder(Text.class)
+        .withStyleClass("third")
+        .build(),
+      XCNodeQuery.builder(Text.class)
+        .withTextPrefix("Cell 3.")
+        .build(),
+      XCNodeQuery.builder(Node.class)
+        .withId("chosen")
+        .build(),
+      XCNodeQuery.builder(Text.class)
+        .withPseudoClass("selected")
+        .withTextMatching("Cell [0-9]\\.[0-9]*[02468]")
+        .build(),
+      XCNodeQuery.builder(Group.class)
+        .withStyleClass("third")
+        .build()
+    );
+
+    final var before = new ArrayList<List<? extends Node>>();
+    for (final var query : queries) {
+      final var snapshot = XCSceneSnapshot.capture(List.of(root), query);
+      final var expected = live(query, root, UNLIMITED);
+      assertEquals(expected, snapshot.search(query, UNLIMITED));
+      before.add(expected);
+    }
+
+    final var snapshots = new ArrayList<XCSceneSnapshot>();
+    for (final var query : queries) {
+      snapshots.add(XCSceneSnapshot.capture(List.of(root), query));
+    }
+
+    /*
+     * Change every property that the queries examine, and the structure of
+     * the scene.
+     */
+
+    final var groups = ((Pane) root).getChildren();
+    for (int g = 0; g < groups.size(); ++g) {
+      final var group = (Group) groups.get(g);
+      if (g % 2 == 0) {
+        group.getStyleClass().add("third");
+      }
+      final var texts = group.getChildren();
+      for (int i = 0; i < texts.size(); ++i) {
+        final var text = (Text) texts.get(i);
+        if (i % 2 == 0) {
+          text.getStyleClass().remove("third");
+          text.pseudoClassStateChanged(selected, true);
+        } else {
+          text.getStyleClass().add("third");
+        }
+        if (i == 5) {
+          text.setText("Cell 3.%d".formatted(g));
+        }
+      }
+    }
+    groups.get(4).setId("chosen");
+    groups.remove(7);
+    ((Group) groups.get(0)).getChildren().add(0, new Text("Cell 3.x"));
+
+    for (int index = 0; index < queries.size(); ++index) {
+      final var query = queries.get(index);
+      final var snapshot = XCSceneSnapshot.capture(List.of(root), query);
+      assertEquals(
+        live(query, root, UNLIMITED),
+        snapshot.search(query, UNLIMITED),
+        query.toString());
+      assertEquals(
+        before.get(index),
+        snapshots.get(index).search(query, UNLIMITED),
+        query.toString());
+    }
+  }
+
+  /**
+   * Snapshots are immutable.
+   */
+
+  @Test
+  public void testImmutable()
+  {
+    final var node = new Region();
+    node.setId("a");
+    node.getStyleClass().add("x");
+    node.pseudoClassStateChanged(PseudoClass.getPseudoClass("selected"), true);
+
+    final var properties = XCNodeProperties.capture(node);
+    node.setId("b");
+    node.getStyleClass().clear();
+    node.pseudoClassStateChanged(PseudoClass.getPseudoClass("selected"), false);
+
+    final var query =
+      XCNodeQuery.builder(Region.class)
+        .withId("a")
+        .withStyleClass("x")
+        .withPseudoClass("selected")
+        .build();
+
+    assertFalse(query.requiresFXThread());
+    assertTrue(query.matchesProperties(properties));
+    assertFalse(query.matches(node));
+  }
+}
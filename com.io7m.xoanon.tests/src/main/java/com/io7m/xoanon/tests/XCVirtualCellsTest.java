@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xoanon.tests;
+
+import com.io7m.xoanon.commander.internal.XCVirtualCells;
+import javafx.scene.control.TreeItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class XCVirtualCellsTest
+{
+  /**
+   * The first matching item index is found.
+   */
+
+  @Test
+  public void testIndexOf()
+  {
+    final var items = List.of("a", "b", "c", "b");
+    assertEquals(0, XCVirtualCells.indexOf(items, "a"::equals));
+    assertEquals(1, XCVirtualCells.indexOf(items, "b"::equals));
+    assertThrows(NoSuchElementException.class, () -> {
+      XCVirtualCells.indexOf(items, "d"::equals);
+    });
+  }
+
+  /**
+   * Tree items are found in depth-first order, including collapsed items.
+   */
+
+  @Test
+  public void testTreeItemOf()
+  {
+    final var root = new TreeItem<>("root");
+    final var a = new TreeItem<>("a");
+    final var a0 = new TreeItem<>("x");
+    final var b = new TreeItem<>("b");
+    final var b0 = new TreeItem<>("x");
+    a.getChildren().add(a0);
+    b.getChildren().add(b0);
+    root.getChildren().add(a);
+    root.getChildren().add(b);
+
+    assertSame(root, XCVirtualCells.treeItemOf(root, "root"::equals));
+    assertSame(a0, XCVirtualCells.treeItemOf(root, "x"::equals));
+    assertSame(b, XCVirtualCells.treeItemOf(root, "b"::equals));
+    assertThrows(NoSuchElementException.class, () -> {
+      XCVirtualCells.treeItemOf(root, "y"::equals);
+    });
+    assertThrows(NoSuchElementException.class, () -> {
+      XCVirtualCells.treeItemOf(null, Objects::nonNull);
+    });
+  }
+}
@@ -21,16 +21,33 @@ import com.io7m.xoanon.commander.XBVersion;
 import com.io7m.xoanon.commander.api.XCApplicationInfo;
 import com.io7m.xoanon.commander.api.XCCommanderType;
 import com.io7m.xoanon.commander.api.XCFXThread;
+import com.io7m.xoanon.commander.api.XCFXThreadPriority;
 import com.io7m.xoanon.commander.api.XCKeyMap;
 import com.io7m.xoanon.commander.api.XCRobotType;
+import com.io7m.xoanon.commander.internal.XCRobot;
 import com.io7m.xoanon.extension.XoExtension;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
+import javafx.scene.robot.Robot;
+import javafx.stage.Popup;
 import javafx.stage.Stage;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Disabled;
@@ -44,14 +61,23 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import static com.io7m.xoanon.commander.api.XCFXThreadPriority.HIGH;
+import static com.io7m.xoanon.commander.api.XCFXThreadPriority.LOW;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -127,6 +153,102 @@ public final class XoExtensionTest
     assertEquals("Hello!", text.get());
   }
 
+  /**
+   * A robot can be created and used before the key map is available, and
+   * the first operation that types text waits for the key map.
+   */
+
+  @Test
+  public void testRobotBeforeKeyMap(
+    final XCCommanderType commander,
+    final XCKeyMap keyMap)
+    throws Exception
+  {
+    final var requests = new AtomicInteger(0);
+    final var pending = new CompletableFuture<XCKeyMap>();
+    final var baseRobot =
+      XCFXThread.run(Robot::new).get(1L, TimeUnit.SECONDS);
+
+    final var bot =
+      new XCRobot(
+        () -> {
+          requests.incrementAndGet();
+          return pending;
+        },
+        baseRobot,
+        Optional.empty()
+      );
+
+    assertEquals(0, requests.get());
+
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        final var field = new TextField();
+        field.setId("x");
+        newStage.setScene(new Scene(field));
+      });
+
+    final var node = bot.findWithId(TextField.class, stage, "x");
+    bot.click(node);
+    assertEquals(0, requests.get());
+
+    try (var executor = Executors.newSingleThreadExecutor()) {
+      final var typing =
+        executor.submit(() -> {
+          bot.typeText(node, "Hello!");
+          return null;
+        });
+
+      Thread.sleep(500L);
+      assertFalse(typing.isDone());
+      assertEquals(1, requests.get());
+      assertEquals(
+        "",
+        XCFXThread.runAndWait(1L, TimeUnit.SECONDS, node::getText));
+
+      pending.complete(keyMap);
+      typing.get(10L, TimeUnit.SECONDS);
+    }
+
+    assertEquals(
+      "Hello!",
+      XCFXThread.runAndWait(1L, TimeUnit.SECONDS, node::getText));
+  }
+
+  @Test
+  public void testTextFieldTextAcknowledgedPacing(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var text =
+      new AtomicReference<String>();
+
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        final var field = new TextField();
+        field.setId("x");
+        field.textProperty()
+          .addListener((observable, oldValue, newValue) -> {
+            text.set(newValue);
+          });
+        newStage.setScene(new Scene(field));
+      });
+
+    bot.acknowledgedPacingEnable();
+    try {
+      assertTrue(bot.isAcknowledgedPacingEnabled());
+
+      final var node = bot.findWithId(stage, "x");
+      bot.click(node);
+      bot.typeText(node, "Hello, World!");
+    } finally {
+      bot.acknowledgedPacingDisable();
+    }
+
+    assertEquals("Hello, World!", text.get());
+  }
+
   @Test
   public void testFindWithId(
     final XCRobotType bot,
@@ -339,6 +461,157 @@ public final class XoExtensionTest
     });
   }
 
+  @Test
+  public void testBatch(
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var executed = new ArrayList<Integer>();
+    final var batch = XCFXThread.batch();
+    for (int index = 0; index < 100; ++index) {
+      final var value = Integer.valueOf(index);
+      batch.add(() -> {
+        assertTrue(Platform.isFxApplicationThread());
+        executed.add(value);
+      });
+    }
+
+    assertEquals(100, batch.size());
+    batch.submit().get(1L, TimeUnit.SECONDS);
+    assertEquals(100, executed.size());
+    for (int index = 0; index < 100; ++index) {
+      assertEquals(index, executed.get(index).intValue());
+    }
+  }
+
+  @Test
+  public void testBatchFailure(
+    final XCCommanderType commander)
+  {
+    final var executed = new AtomicBoolean(false);
+    final var ex =
+      assertThrows(ExecutionException.class, () -> {
+        XCFXThread.batch()
+          .add(() -> {
+            throw new IllegalStateException();
+          })
+          .add(() -> executed.set(true))
+          .submit()
+          .get(1L, TimeUnit.SECONDS);
+      });
+
+    assertInstanceOf(IllegalStateException.class, ex.getCause());
+    assertTrue(executed.get());
+  }
+
+  @Test
+  public void testCancelledTaskSkipped(
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var skippedBefore =
+      XCFXThread.skippedTaskCount();
+    final var executed =
+      new AtomicBoolean(false);
+    final var release =
+      new CountDownLatch(1);
+
+    Platform.runLater(() -> {
+      try {
+        release.await(1L, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    assertThrows(TimeoutException.class, () -> {
+      XCFXThread.runVWait(10L, TimeUnit.MILLISECONDS, () -> executed.set(true));
+    });
+
+    release.countDown();
+    XCFXThread.runVWait(1L, TimeUnit.SECONDS, () -> {
+
+    });
+
+    assertFalse(executed.get());
+    assertTrue(XCFXThread.skippedTaskCount() > skippedBefore);
+  }
+
+  @Test
+  public void testPriorityLanes(
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var order =
+      new ArrayList<XCFXThreadPriority>();
+    final var release =
+      new CountDownLatch(1);
+
+    Platform.runLater(() -> {
+      try {
+        release.await(1L, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    final var futures = new ArrayList<CompletableFuture<Void>>();
+    for (int index = 0; index < 10; ++index) {
+      futures.add(XCFXThread.runV(LOW, () -> order.add(LOW)));
+    }
+    futures.add(XCFXThread.runV(HIGH, () -> order.add(HIGH)));
+
+    release.countDown();
+    for (final var future : futures) {
+      future.get(1L, TimeUnit.SECONDS);
+    }
+
+    assertEquals(11, order.size());
+    assertEquals(HIGH, order.get(0));
+  }
+
+  /**
+   * Tasks enqueued with runLater are executed in submission order along with
+   * other high priority tasks, even if they are enqueued whilst a drain is
+   * already pending.
+   */
+
+  @Test
+  public void testRunLaterOrdering(
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var order =
+      new ArrayList<Integer>();
+    final var release =
+      new CountDownLatch(1);
+
+    XCFXThread.runLater(() -> {
+      try {
+        release.await(1L, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    CompletableFuture<Void> last = null;
+    for (int index = 0; index < 20; ++index) {
+      final var value = Integer.valueOf(index);
+      if (index % 2 == 0) {
+        XCFXThread.runLater(() -> order.add(value));
+      } else {
+        last = XCFXThread.runV(HIGH, () -> order.add(value));
+      }
+    }
+
+    release.countDown();
+    last.get(1L, TimeUnit.SECONDS);
+
+    assertEquals(
+      IntStream.range(0, 20).boxed().toList(),
+      XCFXThread.runAndWait(1L, TimeUnit.SECONDS, () -> List.copyOf(order)));
+  }
+
   @TestFactory
   public Stream<DynamicTest> testCommonKeys(
     final XCKeyMap keyMap)
@@ -432,6 +705,36 @@ public final class XoExtensionTest
     bot.waitUntil(1_000L, check::isSelected);
   }
 
+  @Test
+  public void testWaitUntilObservable(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    commander.stageNewAndWait(newStage -> {
+      final var checkBox = new CheckBox();
+      checkBox.setSelected(false);
+      checkBox.setId("x");
+      newStage.setScene(new Scene(checkBox));
+    });
+
+    final var check =
+      bot.findWithIdInAnyStage(CheckBox.class, "x");
+
+    assertThrows(TimeoutException.class, () -> {
+      bot.waitUntil(1_000L, check.selectedProperty(), Boolean::booleanValue);
+    });
+
+    Platform.runLater(() -> {
+      check.setSelected(true);
+    });
+
+    assertEquals(
+      Boolean.TRUE,
+      bot.waitUntil(1_000L, check.selectedProperty(), Boolean::booleanValue)
+    );
+  }
+
   @Test
   public void testFindCheckbox(
     final XCRobotType bot,
@@ -484,6 +787,40 @@ public final class XoExtensionTest
     bot.waitForFrames(60);
   }
 
+  /**
+   * Waiting for frames waits for real JavaFX pulses, rather than for a
+   * number of evaluations of some condition. A timer started before the
+   * wait sees every pulse that the wait sees.
+   */
+
+  @Test
+  public void testWaitFramesCountsPulses(
+    final XCRobotType bot)
+    throws Exception
+  {
+    final var pulses = new AtomicInteger(0);
+    final var timer = new AnimationTimer()
+    {
+      @Override
+      public void handle(
+        final long now)
+      {
+        pulses.incrementAndGet();
+      }
+    };
+
+    XCFXThread.runVWait(1L, TimeUnit.SECONDS, timer::start);
+    try {
+      bot.waitForFrames(30);
+      final var observed = pulses.get();
+      assertTrue(
+        observed >= 30,
+        () -> "Observed %d pulses".formatted(Integer.valueOf(observed)));
+    } finally {
+      XCFXThread.runVWait(1L, TimeUnit.SECONDS, timer::stop);
+    }
+  }
+
   @Test
   @Disabled("A disabled test, captured by the test runner.")
   public void testDisabled()
@@ -721,4 +1058,561 @@ public final class XoExtensionTest
     Platform.runLater(stage::close);
     bot.waitForStageToClose(stage, 1_000L);
   }
+
+  @Test
+  public void testWaitForStageShownFocused(
+    final XCRobotType bot)
+    throws Exception
+  {
+    final var stage =
+      XCFXThread.run(() -> {
+        final var newStage = new Stage();
+        newStage.setScene(new Scene(new TextField()));
+        return newStage;
+      }).get(1L, TimeUnit.SECONDS);
+
+    assertThrows(TimeoutException.class, () -> {
+      bot.waitForStageShown(stage, 100L);
+    });
+
+    Platform.runLater(() -> {
+      stage.show();
+      stage.toFront();
+      stage.requestFocus();
+    });
+
+    bot.waitForStageShown(stage, 1_000L);
+    bot.waitForStageFocused(stage, 1_000L);
+
+    Platform.runLater(stage::close);
+    bot.waitForStageToClose(stage, 1_000L);
+  }
+
+  @Test
+  public void testSceneIndex(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var rootRef =
+      new AtomicReference<VBox>();
+    final var checks =
+      new AtomicReference<List<CheckBox>>();
+
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        final var cb0 = new CheckBox("Zero");
+        cb0.setId("cb0");
+        cb0.getStyleClass().add("a-checkbox");
+        final var cb1 = new CheckBox("One");
+        cb1.setId("cb1");
+        cb1.getStyleClass().add("a-checkbox");
+        final var cb2 = new CheckBox("Two");
+        cb2.setId("cb2");
+
+        final var root = new VBox(cb0, new VBox(cb1), cb2);
+        rootRef.set(root);
+        checks.set(List.of(cb0, cb1, cb2));
+        newStage.setScene(new Scene(root));
+      });
+
+    final var cb0 = checks.get().get(0);
+    final var cb1 = checks.get().get(1);
+    final var cb2 = checks.get().get(2);
+
+    bot.sceneIndexEnable();
+    try {
+      assertTrue(bot.isSceneIndexEnabled());
+      assertEquals(cb1, bot.findWithId(CheckBox.class, stage, "cb1"));
+      assertEquals(cb2, bot.findWithText(CheckBox.class, stage, "Two"));
+      assertEquals(
+        List.of(cb0, cb1),
+        bot.findAllWithClassInStage(CheckBox.class, stage, "a-checkbox"));
+      assertEquals(
+        List.of(cb0, cb1, cb2),
+        bot.findAllInStage(CheckBox.class, stage));
+
+      /*
+       * Mutations are reflected in subsequent searches.
+       */
+
+      final var cb3 = XCFXThread.run(() -> {
+        cb1.setId("cb1-renamed");
+        cb2.getStyleClass().add("a-checkbox");
+        cb0.setText("Nothing");
+        rootRef.get().getChildren().remove(cb0);
+
+        final var added = new CheckBox("Three");
+        added.setId("cb3");
+        added.getStyleClass().add("a-checkbox");
+        rootRef.get().getChildren().add(0, added);
+        return added;
+      }).get(1L, TimeUnit.SECONDS);
+
+      assertInstanceOf(
+        NoSuchElementException.class,
+        assertThrows(ExecutionException.class, () -> {
+          bot.findWithId(CheckBox.class, stage, "cb1");
+        }).getCause());
+      assertInstanceOf(
+        NoSuchElementException.class,
+        assertThrows(ExecutionException.class, () -> {
+          bot.findWithText(CheckBox.class, stage, "Nothing");
+        }).getCause());
+      assertEquals(cb1, bot.findWithId(CheckBox.class, stage, "cb1-renamed"));
+      assertEquals(cb3, bot.findWithText(CheckBox.class, stage, "Three"));
+      assertEquals(
+        List.of(cb3, cb1, cb2),
+        bot.findAllWithClassInStage(CheckBox.class, stage, "a-checkbox"));
+    } finally {
+      bot.sceneIndexDisable();
+    }
+    assertFalse(bot.isSceneIndexEnabled());
+  }
+
+  @Test
+  public void testFindFirst(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var checks =
+      new AtomicReference<List<CheckBox>>();
+
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        final var cb0 = new CheckBox();
+        final var cb1 = new CheckBox();
+        cb1.getStyleClass().add("a-checkbox");
+        final var cb2 = new CheckBox();
+        cb2.getStyleClass().add("a-checkbox");
+
+        checks.set(List.of(cb0, cb1, cb2));
+        newStage.setScene(new Scene(new VBox(cb0, new VBox(cb1), cb2)));
+      });
+
+    final var root =
+      (VBox) stage.getScene().getRoot();
+
+    assertEquals(
+      checks.get().get(0),
+      bot.findFirstInStage(CheckBox.class, stage));
+    assertEquals(
+      checks.get().get(0),
+      bot.findFirst(CheckBox.class, root));
+    assertEquals(
+      checks.get().get(1),
+      bot.findFirstWithClassInStage(CheckBox.class, stage, "a-checkbox"));
+    assertEquals(
+      checks.get().get(1),
+      bot.findFirstWithClass(CheckBox.class, root, "a-checkbox"));
+
+    assertInstanceOf(
+      NoSuchElementException.class,
+      assertThrows(ExecutionException.class, () -> {
+        bot.findFirstWithClass(CheckBox.class, root, "b-checkbox");
+      }).getCause());
+    assertInstanceOf(
+      NoSuchElementException.class,
+      assertThrows(ExecutionException.class, () -> {
+        bot.findFirstInStage(TextField.class, stage);
+      }).getCause());
+  }
+
+  @Test
+  public void testQuery(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var labels =
+      new AtomicReference<List<Label>>();
+
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        final var l0 = new Label("Item 1");
+        final var l1 = new Label("Item 2");
+        l1.getStyleClass().add("item");
+        final var l2 = new Label("Item 3");
+        l2.getStyleClass().add("item");
+        final var l3 = new Label("Other");
+        l3.getStyleClass().add("item");
+
+        labels.set(List.of(l0, l1, l2, l3));
+        newStage.setScene(new Scene(new VBox(l0, new VBox(l1, l2), l3)));
+      });
+
+    final var root =
+      (VBox) stage.getScene().getRoot();
+    final var query =
+      bot.query(Label.class)
+        .withStyleClass("item")
+        .withTextMatching("Item [0-9]+")
+        .build();
+
+    assertEquals(
+      List.of(labels.get().get(1), labels.get().get(2)),
+      bot.findAll(query, root));
+    assertEquals(
+      List.of(labels.get().get(1), labels.get().get(2)),
+      bot.findAllInStage(query, stage));
+    assertEquals(
+      labels.get().get(1),
+      bot.findFirst(query, root));
+    assertEquals(
+      labels.get().get(1),
+      bot.findFirstInStage(query, stage));
+
+    bot.sceneIndexEnable();
+    try {
+      assertEquals(
+        List.of(labels.get().get(1), labels.get().get(2)),
+        bot.findAll(query, root));
+      assertEquals(
+        labels.get().get(2),
+        bot.findFirst(
+          bot.query(Label.class)
+            .withStyleClass("item")
+            .withTextPrefix("Item 3")
+            .build(),
+          root));
+    } finally {
+      bot.sceneIndexDisable();
+    }
+
+    assertInstanceOf(
+      NoSuchElementException.class,
+      assertThrows(ExecutionException.class, () -> {
+        bot.findFirst(
+          bot.query(Label.class).withId("nonexistent").build(),
+          root);
+      }).getCause());
+  }
+
+  @Test
+  public void testLookup(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var nodes =
+      new AtomicReference<List<Node>>();
+
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        final var ok = new Button("OK");
+        ok.setId("ok");
+        final var name = new TextField();
+        name.setId("name");
+        final var title = new Label("Title");
+
+        nodes.set(List.of(ok, name, title));
+        newStage.setScene(new Scene(new VBox(title, new VBox(name), ok)));
+      });
+
+    final var builder = bot.lookupBuilder();
+    final var ok = builder.addWithId(Button.class, "ok");
+    final var name = builder.addWithId(TextField.class, "name");
+    final var title = builder.addWithText(Label.class, "Title");
+    final var missing = builder.addWithText(Label.class, "Missing");
+    final var lookup = builder.build();
+
+    final var result = bot.lookupInStage(lookup, stage);
+    assertEquals(nodes.get().get(0), result.get(ok));
+    assertEquals(nodes.get().get(1), result.get(name));
+    assertEquals(nodes.get().get(2), result.get(title));
+    assertEquals(List.of("Missing"), result.missing());
+    assertThrows(NoSuchElementException.class, result::requireAll);
+    assertThrows(NoSuchElementException.class, () -> result.get(missing));
+
+    bot.sceneIndexEnable();
+    try {
+      final var indexed =
+        bot.lookup(lookup, (VBox) stage.getScene().getRoot());
+      assertEquals(nodes.get().get(0), indexed.get(ok));
+      assertEquals(nodes.get().get(1), indexed.get(name));
+      assertEquals(nodes.get().get(2), indexed.get(title));
+      assertEquals(List.of("Missing"), indexed.missing());
+    } finally {
+      bot.sceneIndexDisable();
+    }
+  }
+
+  @Test
+  public void testFindEventually(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        newStage.setScene(new Scene(new VBox(new VBox())));
+      });
+
+    final var root =
+      (VBox) stage.getScene().getRoot();
+    final var inner =
+      (VBox) root.getChildren().get(0);
+
+    assertThrows(TimeoutException.class, () -> {
+      bot.findWithIdEventually(500L, Button.class, root, "ok");
+    });
+
+    Platform.runLater(() -> {
+      final var button = new Button("OK");
+      inner.getChildren().add(button);
+      button.setId("ok");
+    });
+
+    final var button =
+      bot.findWithIdEventually(1_000L, Button.class, root, "ok");
+    assertEquals("OK", button.getText());
+
+    Platform.runLater(() -> button.setText("Done"));
+
+    assertEquals(
+      button,
+      bot.findFirstEventuallyInStage(
+        1_000L,
+        bot.query(Button.class).withText("Done").build(),
+        stage));
+  }
+
+  @Test
+  public void testFindInAnyStagePopups(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        newStage.setScene(new Scene(new VBox(new Label("Owner"))));
+      });
+
+    final var popup =
+      XCFXThread.run(() -> {
+        final var label = new Label("In popup");
+        label.setId("popup-label");
+        label.getStyleClass().add("popup-label");
+
+        final var newPopup = new Popup();
+        newPopup.getContent().add(label);
+        newPopup.show(stage);
+        return newPopup;
+      }).get(1L, TimeUnit.SECONDS);
+
+    try {
+      assertEquals(
+        "popup-label",
+        bot.findWithTextInAnyStage(Label.class, "In popup").getId());
+      assertEquals(
+        "In popup",
+        bot.findWithIdInAnyStage(Label.class, "popup-label").getText());
+      assertEquals(
+        1,
+        bot.findAllWithClassInAnyStage(Label.class, "popup-label").size());
+    } finally {
+      Platform.runLater(popup::hide);
+    }
+  }
+
+  /**
+   * Nodes in popup windows can be clicked; the stage that owns the popup
+   * is brought to the front.
+   */
+
+  @Test
+  public void testClickInPopup(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var comboRef = new AtomicReference<ComboBox<String>>();
+    final var chosen = new AtomicReference<String>();
+
+    commander.stageNewAndWait(newStage -> {
+      final var combo = new ComboBox<String>();
+      combo.setId("combo");
+      combo.getItems().addAll("Alpha", "Beta", "Gamma");
+
+      final var item = new MenuItem("Context item");
+      item.setOnAction(event -> chosen.set("Context item"));
+      final var label = new Label("Owner");
+      label.setId("owner");
+      label.setContextMenu(new ContextMenu(item));
+
+      comboRef.set(combo);
+      newStage.setScene(new Scene(new VBox(label, combo)));
+    });
+
+    final var combo = comboRef.get();
+    bot.click(combo);
+    bot.click(bot.findWithTextInAnyStage(ListCell.class, "Beta"));
+    bot.waitUntil(1_000L, () -> "Beta".equals(combo.getValue()));
+    assertEquals("Beta", combo.getValue());
+
+    final var owner = bot.findWithIdInAnyStage(Label.class, "owner");
+    XCFXThread.runVWait(1L, TimeUnit.SECONDS, () -> {
+      final var bounds = owner.localToScreen(owner.getBoundsInLocal());
+      owner.getContextMenu().show(owner, bounds.getMinX(), bounds.getMaxY());
+    });
+    bot.click(bot.findWithTextInAnyStage(Label.class, "Context item"));
+    bot.waitUntil(1_000L, () -> chosen.get() != null);
+    assertEquals("Context item", chosen.get());
+  }
+
+  @Test
+  public void testFindInAnyStageFocusedFirst(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var stage0 =
+      commander.stageNewAndWait(newStage -> {
+        final var label = new Label("Zero");
+        label.setId("x");
+        newStage.setScene(new Scene(label));
+      });
+    final var stage1 =
+      commander.stageNewAndWait(newStage -> {
+        final var label = new Label("One");
+        label.setId("x");
+        newStage.setScene(new Scene(label));
+      });
+
+    Platform.runLater(() -> {
+      stage0.toFront();
+      stage0.requestFocus();
+    });
+    bot.waitForStageFocused(stage0, 1_000L);
+    assertEquals("Zero", bot.findWithIdInAnyStage(Label.class, "x").getText());
+
+    Platform.runLater(() -> {
+      stage1.toFront();
+      stage1.requestFocus();
+    });
+    bot.waitForStageFocused(stage1, 1_000L);
+    assertEquals("One", bot.findWithIdInAnyStage(Label.class, "x").getText());
+  }
+
+  @Test
+  public void testQuerySnapshot(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var labels =
+      new AtomicReference<List<Label>>();
+
+    final var stage =
+      commander.stageNewAndWait(newStage -> {
+        final var created = new ArrayList<Label>();
+        final var box = new VBox();
+        for (int index = 0; index < 100; ++index) {
+          final var label = new Label("Item %d".formatted(index));
+          label.getStyleClass().add("item");
+          created.add(label);
+          box.getChildren().add(label);
+        }
+        labels.set(List.copyOf(created));
+        newStage.setScene(new Scene(box));
+      });
+
+    final var query =
+      bot.query(Label.class)
+        .withStyleClass("item")
+        .withTextMatching("Item [0-9]*5")
+        .build();
+    final var predicateQuery =
+      bot.query(Label.class)
+        .withStyleClass("item")
+        .withPredicate(l -> l.getText().endsWith("42"))
+        .build();
+
+    final var expected = bot.findAllInStage(query, stage);
+    assertEquals(10, expected.size());
+
+    bot.snapshotSearchEnable();
+    try {
+      assertTrue(bot.isSnapshotSearchEnabled());
+      assertEquals(expected, bot.findAllInStage(query, stage));
+      assertEquals(expected.get(0), bot.findFirstInStage(query, stage));
+      assertEquals(
+        labels.get().get(42),
+        bot.findFirstInStage(predicateQuery, stage));
+
+      assertInstanceOf(
+        NoSuchElementException.class,
+        assertThrows(ExecutionException.class, () -> {
+          bot.findFirstInStage(
+            bot.query(Label.class).withText("Nonexistent").build(),
+            stage);
+        }).getCause());
+    } finally {
+      bot.snapshotSearchDisable();
+    }
+    assertFalse(bot.isSnapshotSearchEnabled());
+  }
+
+  @Test
+  public void testFindVirtualizedCells(
+    final XCRobotType bot,
+    final XCCommanderType commander)
+    throws Exception
+  {
+    final var listRef =
+      new AtomicReference<ListView<String>>();
+    final var tableRef =
+      new AtomicReference<TableView<String>>();
+    final var treeRef =
+      new AtomicReference<TreeView<String>>();
+
+    commander.stageNewAndWait(newStage -> {
+      final var list = new ListView<String>();
+      final var table = new TableView<String>();
+      final var column = new TableColumn<String, String>("Item");
+      column.setCellValueFactory(c -> new SimpleStringProperty(c.getValue()));
+      table.getColumns().add(column);
+
+      for (int index = 0; index < 10_000; ++index) {
+        list.getItems().add("Item %d".formatted(index));
+        table.getItems().add("Row %d".formatted(index));
+      }
+
+      final var root = new TreeItem<>("Root");
+      for (int group = 0; group < 100; ++group) {
+        final var groupItem = new TreeItem<>("Group %d".formatted(group));
+        for (int index = 0; index < 10; ++index) {
+          groupItem.getChildren()
+            .add(new TreeItem<>("Leaf %d.%d".formatted(group, index)));
+        }
+        root.getChildren().add(groupItem);
+      }
+      final var tree = new TreeView<>(root);
+
+      listRef.set(list);
+      tableRef.set(table);
+      treeRef.set(tree);
+      newStage.setScene(new Scene(new HBox(list, table, tree)));
+    });
+
+    final var listCell =
+      bot.findListCellWithItem(listRef.get(), "Item 5000");
+    assertEquals("Item 5000", listCell.getItem());
+    assertEquals(5000, listCell.getIndex());
+
+    final var tableRow =
+      bot.findTableRow(tableRef.get(), r -> r.endsWith(" 9999"));
+    assertEquals("Row 9999", tableRow.getItem());
+
+    final var treeCell =
+      bot.findTreeCellWithItem(treeRef.get(), "Leaf 73.4");
+    assertEquals("Leaf 73.4", treeCell.getItem());
+
+    assertInstanceOf(
+      NoSuchElementException.class,
+      assertThrows(ExecutionException.class, () -> {
+        bot.findListCellWithItem(listRef.get(), "Nonexistent");
+      }).getCause());
+  }
 }